@@ -1,6 +1,8 @@
 package com.example.coachbot;
 
 import com.example.coachbot.service.DailyScheduler;
+import com.example.coachbot.service.OutboxRelay;
+import com.example.coachbot.service.RetentionService;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
@@ -39,8 +41,14 @@ public class App {
         CoachBot bot = new CoachBot(username, token);
         api.registerBot(bot);
 
-        // Планировщик (08:00 и вечернее время)
-        DailyScheduler scheduler = new DailyScheduler(bot);
+        // Отправка рассылок из outbox (в т.ч. оставшихся с прошлого запуска)
+        new OutboxRelay(bot).start();
+
+        // Планировщик (08:00 и вечернее время) — ставит рассылки в outbox
+        DailyScheduler scheduler = new DailyScheduler();
         scheduler.start();
+
+        // Чистка служебных таблиц (sent_notifications, user_states, report_photos, outbox)
+        new RetentionService().start();
     }
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+package com.example.coachbot;
+
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Маршрутизация callback_data по таблице вместо цепочки equals/startsWith.
+ *
+ *  - точные маршруты («menu:food») — в хэш-таблице;
+ *  - маршруты с параметром («client:params:&lt;id&gt;») — в префиксном дереве по символам;
+ *    побеждает самый длинный префикс, остаток строки передаётся обработчику (для onPrefixLong — уже числом).
+ * Поиск — один проход по data, независимо от числа маршрутов. Для каждого маршрута считаются
+ * вызовы и время обработки (/stats).
+ */
+final class CallbackRouter {
+
+    /** Обработчик; arg — остаток data после префикса (для точного маршрута — пустая строка). */
+    @FunctionalInterface
+    interface Handler {
+        void handle(CallbackQuery cq, long tgId, long chatId, String arg) throws Exception;
+    }
+
+    /** Обработчик маршрута с числовым параметром. */
+    @FunctionalInterface
+    interface LongHandler {
+        void handle(CallbackQuery cq, long tgId, long chatId, long arg) throws Exception;
+    }
+
+    static final class Route {
+        final String pattern;
+        final boolean prefix;
+        final boolean guarded;
+        final Handler handler;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private volatile long maxNanos;
+
+        private Route(String pattern, boolean prefix, boolean guarded, Handler handler) {
+            this.pattern = pattern;
+            this.prefix = prefix;
+            this.guarded = guarded;
+            this.handler = handler;
+        }
+
+        /**
+         * false — маршрут работает в любом состоянии пользователя (выход в меню),
+         * true — только если его пропустили защиты активных визардов.
+         */
+        boolean guarded() { return guarded; }
+
+        void run(CallbackQuery cq, long tgId, long chatId, String data) throws Exception {
+            long t0 = System.nanoTime();
+            try {
+                handler.handle(cq, tgId, chatId, prefix ? data.substring(pattern.length()) : "");
+            } finally {
+                long dt = System.nanoTime() - t0;
+                calls.incrementAndGet();
+                nanos.addAndGet(dt);
+                if (dt > maxNanos) maxNanos = dt;
+            }
+        }
+    }
+
+    /** Узел дерева: дети — по символу, обычно их единицы, поэтому линейный поиск по массиву. */
+    private static final class Node {
+        char[] chars = new char[0];
+        Node[] next = new Node[0];
+        Route route;
+
+        Node child(char c) {
+            for (int i = 0; i < chars.length; i++) if (chars[i] == c) return next[i];
+            return null;
+        }
+
+        Node addChild(char c) {
+            Node n = child(c);
+            if (n != null) return n;
+            n = new Node();
+            chars = Arrays.copyOf(chars, chars.length + 1);
+            next = Arrays.copyOf(next, next.length + 1);
+            chars[chars.length - 1] = c;
+            next[next.length - 1] = n;
+            return n;
+        }
+    }
+
+    // единственный роутер процесса — для /stats
+    private static volatile CallbackRouter current;
+
+    private final Map<String, Route> exact = new HashMap<>();
+    private final Node root = new Node();
+    private final List<Route> all = new ArrayList<>();
+
+    CallbackRouter() {
+        current = this;
+    }
+
+    /** Точный маршрут под защитой визардов. */
+    void on(String data, Handler h) {
+        addExact(new Route(data, false, true, h));
+    }
+
+    /** Точный маршрут, доступный в любом состоянии (выход из визардов). */
+    void onUnguarded(String data, Handler h) {
+        addExact(new Route(data, false, false, h));
+    }
+
+    /** Маршрут «префикс + строковый параметр». */
+    void onPrefix(String prefix, Handler h) {
+        addPrefix(new Route(prefix, true, true, h));
+    }
+
+    /** Маршрут «префикс + число»; нечисловой параметр — NumberFormatException, как и раньше. */
+    void onPrefixLong(String prefix, LongHandler h) {
+        onPrefix(prefix, (cq, tgId, chatId, arg) -> h.handle(cq, tgId, chatId, Long.parseLong(arg.trim())));
+    }
+
+    private void addExact(Route r) {
+        if (exact.putIfAbsent(r.pattern, r) != null) throw new IllegalStateException("Duplicate route " + r.pattern);
+        all.add(r);
+    }
+
+    private void addPrefix(Route r) {
+        Node n = root;
+        for (int i = 0; i < r.pattern.length(); i++) n = n.addChild(r.pattern.charAt(i));
+        if (n.route != null) throw new IllegalStateException("Duplicate route " + r.pattern + "*");
+        n.route = r;
+        all.add(r);
+    }
+
+    /** Маршрут для data или null: сначала точное совпадение, затем самый длинный префикс. */
+    Route find(String data) {
+        if (data == null) return null;
+        Route r = exact.get(data);
+        if (r != null) return r;
+        Node n = root;
+        for (int i = 0; i < data.length() && n != null; i++) {
+            n = n.child(data.charAt(i));
+            if (n != null && n.route != null) r = n.route;
+        }
+        return r;
+    }
+
+    String stats() {
+        List<Route> used = new ArrayList<>();
+        for (Route r : all) if (r.calls.get() > 0) used.add(r);
+        used.sort((a, b) -> Long.compare(b.nanos.get(), a.nanos.get()));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.min(10, used.size()); i++) { // самые затратные по суммарному времени
+            Route r = used.get(i);
+            long n = r.calls.get();
+            if (sb.length() > 0) sb.append("\n");
+            sb.append(String.format("%s%s: calls=%d avg=%.1fms max=%.1fms", r.pattern, r.prefix ? "*" : "",
+                    n, r.nanos.get() / 1e6 / n, r.maxNanos / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /** Строки для /stats (пусто, если колбэков ещё не было). */
+    static String currentStats() {
+        CallbackRouter r = current;
+        return r == null ? "" : r.stats();
+    }
+}
@@ -12,27 +12,54 @@ import org.telegram.telegrambots.meta.api.methods.updatingmessages.*;
 import org.telegram.telegrambots.meta.api.objects.*;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
 
 import java.io.File;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * Полный класс Telegram-бота.
  * Зависимости (остаются как у тебя): repo/*, service/*, Keyboards, Texts, TimeUtil.
  */
-public class CoachBot extends TelegramLongPollingBot {
+public final class CoachBot extends TelegramLongPollingBot {
 
     private final String username;
+    // SUPERADMINS (System property super.admins) — разбирается один раз, дальше только чтение
+    private final LongSet superAdmins;
+    // апдейты разных пользователей обрабатываются параллельно, одного — по порядку
+    private final UpdateDispatcher dispatcher;
+    // исходящие вызовы Telegram: параллельно по чатам, по порядку внутри чата
+    private final OutboundSender sender;
+    // callback_data → обработчик
+    private final CallbackRouter callbacks = new CallbackRouter();
+    private final Map<WizardType, WizardType.Handler> wizards = new EnumMap<>(WizardType.class);
 
     public CoachBot(String username, String token) {
         super(token);
         this.username = username;
+        this.superAdmins = parseIds(System.getProperty("super.admins", ""));
+        this.sender = new OutboundSender(intEnv("OUT_WORKERS", 8), intEnv("OUT_QUEUE", 1_000), RateLimiter.fromEnv(),
+                new RetryPolicy(intEnv("OUT_RETRY_ATTEMPTS", 5), intEnv("OUT_RETRY_BASE_MS", 500),
+                        intEnv("OUT_RETRY_CAP_MS", 30_000), UserRepo::deactivate));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> sender.shutdown(5_000), "tg-send-shutdown"));
+        this.dispatcher = new UpdateDispatcher(this::process,
+                intEnv("UPDATE_STRIPES", 64), intEnv("UPDATE_MAX_INFLIGHT", 256));
+        registerCallbacks();
+        registerWizards();
+    }
+
+    private static int intEnv(String key, int def) {
+        try {
+            String v = System.getenv(key);
+            return (v == null || v.isBlank()) ? def : Integer.parseInt(v.trim());
+        } catch (Exception e) { return def; }
     }
 
     @Override
@@ -52,6 +79,12 @@ public class CoachBot extends TelegramLongPollingBot {
         catch (Exception e) { return null; }
     }
 
+    private static Long parseLong(String s) {
+        if (s == null) return null;
+        try { return Long.parseLong(s.trim().replace(" ", "")); }
+        catch (Exception e) { return null; }
+    }
+
     private static Integer parseIntLimited(String s, int maxDigits){
         try {
             String t = s.trim().replace(" ","");
@@ -71,52 +104,112 @@ public class CoachBot extends TelegramLongPollingBot {
         try { return Double.parseDouble(s.replace(',','.').trim()); } catch(Exception e){ return null; }
     }
 
-    public void safeExecute(SendMessage sm) {
-        try { execute(sm); } catch (Exception e) { e.printStackTrace(); }
+    /*
+     * Отправка идёт через OutboundSender: вызов не ждёт сети, порядок внутри чата сохраняется,
+     * ошибки логируются отправителем. Кому нужен результат — берёт его из future.
+     * Внутри единицы работы Db отправка ставится только после commit(): если запись откатилась,
+     * пользователь не получит «сохранено» о несохранённом (future тогда так и не завершится).
+     */
+    private static <T> CompletableFuture<T> afterCommit(Supplier<CompletableFuture<T>> send) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        Db.afterCommit(() -> send.get().whenComplete((r, e) -> {
+            if (e == null) f.complete(r); else f.completeExceptionally(e);
+        }));
+        return f;
+    }
+
+    public CompletableFuture<Message> safeExecute(SendMessage sm) {
+        return afterCommit(() -> sender.send(sm.getChatId(), () -> execute(sm)));
+    }
+    public CompletableFuture<Message> safeExecute(SendPhoto sp) {
+        return afterCommit(() -> sender.send(sp.getChatId(), () -> {
+            InputFile in = sp.getPhoto();
+            if (in != null && in.isNew() && in.getNewMediaFile() != null) return sendAsset(sp, in.getNewMediaFile());
+            return execute(sp);
+        }));
+    }
+
+    /**
+     * Картинка с диска: по сохранённому file_id (см. AssetRepo), файл грузится только в первый раз,
+     * после изменения файла или если Telegram отверг старый file_id.
+     */
+    private Message sendAsset(SendPhoto sp, File f) throws Exception {
+        String id = AssetRepo.fileId(f);
+        if (id != null) {
+            sp.setPhoto(new InputFile(id));
+            try {
+                return execute(sp);
+            } catch (TelegramApiRequestException e) {
+                if (!isBadFileId(e)) throw e;
+                AssetRepo.forget(f);
+            }
+        }
+        synchronized (AssetRepo.uploadLock(f)) {
+            id = AssetRepo.fileId(f); // пока ждали — мог загрузить другой поток
+            if (id != null) {
+                sp.setPhoto(new InputFile(id));
+                return execute(sp);
+            }
+            sp.setPhoto(new InputFile(f));
+            Message sent = execute(sp);
+            List<PhotoSize> sizes = sent == null ? null : sent.getPhoto();
+            if (sizes != null && !sizes.isEmpty()) {
+                AssetRepo.save(f, sizes.get(sizes.size() - 1).getFileId()); // последний — самый крупный
+            }
+            return sent;
+        }
     }
-    public void safeExecute(SendPhoto sp) {
-        try { execute(sp); } catch (Exception e) { e.printStackTrace(); }
+
+    private static boolean isBadFileId(TelegramApiRequestException e) {
+        String r = e.getApiResponse();
+        return e.getErrorCode() != null && e.getErrorCode() == 400
+                && r != null && r.toLowerCase().contains("file");
     }
-    private void safeExecute(SendMediaGroup mg) {
-        try { execute(mg); } catch (Exception e) { e.printStackTrace(); }
+    private CompletableFuture<List<Message>> safeExecute(SendMediaGroup mg) {
+        return afterCommit(() -> sender.send(mg.getChatId(), () -> execute(mg)));
     }
-    private void safeExecute(EditMessageText emt) {
-        try { execute(emt); } catch (Exception e) { e.printStackTrace(); }
+    private CompletableFuture<Serializable> safeExecute(EditMessageText emt) {
+        return afterCommit(() -> sender.send(emt.getChatId(), () -> execute(emt)));
     }
-    private void safeExecute(EditMessageCaption emc) {
-        try { execute(emc); } catch (Exception e) { e.printStackTrace(); }
+    private CompletableFuture<Serializable> safeExecute(EditMessageCaption emc) {
+        return afterCommit(() -> sender.send(emc.getChatId(), () -> execute(emc)));
     }
-    private void safeExecute(EditMessageReplyMarkup emr) {
-        try { execute(emr); } catch (Exception e) { e.printStackTrace(); }
+    private CompletableFuture<Serializable> safeExecute(EditMessageReplyMarkup emr) {
+        return afterCommit(() -> sender.send(emr.getChatId(), () -> execute(emr)));
     }
-    private void safeExecute(DeleteMessage dm) {
-        try { execute(dm); } catch (Exception e) { e.printStackTrace(); }
+    private CompletableFuture<Boolean> safeExecute(DeleteMessage dm) {
+        return afterCommit(() -> sender.send(dm.getChatId(), () -> execute(dm)));
     }
-    private void safeExecute(AnswerCallbackQuery acq) {
-        try { execute(acq); } catch (Exception e) { e.printStackTrace(); }
+    private CompletableFuture<Boolean> safeExecute(AnswerCallbackQuery acq) {
+        return afterCommit(() -> sender.sendNoChat(acq.getCallbackQueryId(), () -> execute(acq)));
     }
 
-    private boolean isAdmin(String tgId) throws Exception {
+    // SUPERADMINS из ENV — супер-админы сразу, ещё до фиксации автоповышения (см. applyAutoSuper)
+    private boolean isAdmin(long tgId) throws Exception {
+        if (isInSuperAdmins(tgId)) return true;
         Roles r = UserRepo.role(tgId);
         return r == Roles.ADMIN || r == Roles.SUPERADMIN;
     }
-    private boolean isSuper(String tgId) throws Exception {
-        return UserRepo.role(tgId) == Roles.SUPERADMIN;
+    private boolean isSuper(long tgId) throws Exception {
+        return isInSuperAdmins(tgId) || UserRepo.role(tgId) == Roles.SUPERADMIN;
     }
 
-    private boolean isInSuperAdmins(String id) {
-        String prop = System.getProperty("super.admins", "");
-        if (prop == null || prop.isBlank()) return false;
-        String[] parts = prop.split("[,\\s]+");
-        for (String p : parts) {
-            if (!p.isBlank() && p.equals(id)) return true;
+    private static LongSet parseIds(String list) {
+        LongSet out = new LongSet();
+        if (list == null || list.isBlank()) return out;
+        for (String p : list.trim().split("[,\\s]+")) {
+            Long id = parseLong(p);
+            if (id != null && id > 0) out.add(id);
         }
-        return false;
+        return out;
+    }
+    private boolean isInSuperAdmins(long id) {
+        return superAdmins.contains(id);
     }
-    private void applyAutoSuper(String tgId) {
+    private void applyAutoSuper(long tgId) {
         try {
-            if (isInSuperAdmins(tgId)) {
-                UserRepo.setRole(tgId, Roles.SUPERADMIN);
+            if (isInSuperAdmins(tgId) && UserRepo.role(tgId) != Roles.SUPERADMIN) {
+                UserRepo.setRole(tgId, Roles.SUPERADMIN); // фиксируется вместе с апдейтом
             }
         } catch (Exception ignored) {}
     }
@@ -176,18 +269,30 @@ public class CoachBot extends TelegramLongPollingBot {
     @Override
     public void onUpdateReceived(Update update) {
         try {
+            dispatcher.submit(update);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Обработка одного апдейта — в потоке полосы его пользователя. */
+    private void process(Update update) {
+        // Один апдейт — одна транзакция: либо фиксируются все записи визарда, либо ни одной.
+        // Ответы уходят только после commit() (см. afterCommit) — при откате пользователь ничего не получит.
+        try (Db.Session tx = Db.session()) {
             if (!UpdatesRepo.markProcessed(update.getUpdateId())) return; // анти-дубль
 
             if (update.hasMessage()) handleMessage(update.getMessage());
             else if (update.hasCallbackQuery()) handleCallback(update.getCallbackQuery());
 
+            tx.commit();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
     private void handleMessage(Message m) throws Exception {
-        String tgId = String.valueOf(m.getFrom().getId());
+        long tgId = m.getFrom().getId();
         UserRepo.upsertUser(tgId, m.getFrom().getUserName(), m.getFrom().getFirstName());
         applyAutoSuper(tgId); // автоповышение SUPERADMIN по SUPERADMINS
 
@@ -235,284 +340,246 @@ public class CoachBot extends TelegramLongPollingBot {
             return;
         }
 
-        // --- пользовательский визард отчёта
-        var stUser = StateRepo.get(tgId);
-        if (stUser != null && "REPORT".equals(stUser.type())) {
+        // /stats — внутренние метрики (только главные админы)
+        if (text.startsWith("/stats")) {
+            if (!isSuper(tgId)) {
+                SendMessage sm = new SendMessage(String.valueOf(m.getChatId()), "Команда только для главных админов.");
+                sm.setReplyMarkup(Keyboards.backToMenu());
+                safeExecute(sm);
+                return;
+            }
+            SendMessage sm = new SendMessage(String.valueOf(m.getChatId()), Stats.report());
+            sm.setReplyMarkup(Keyboards.backToMenu());
+            safeExecute(sm);
+            return;
+        }
+
+        // --- активный визард (отчёт, параметры, шаги админки)
+        var st = StateRepo.get(tgId);
+        WizardType wizard = WizardType.of(st);
+        if (wizard != null) {
+            WizardType.Handler h = wizards.get(wizard);
+            if (h != null && wizard.handle(h, m, tgId, text, st)) return;
+        }
+
+        // --- прочие команды
+        if (text.startsWith("/settime")) { // быстрый способ для админов
+            if (!isAdmin(tgId)) { safeExecute(md(m.getChatId(),"Команда доступна только администраторам.")); return; }
+            String[] p = text.split("\\s+");
+            if (p.length < 2 || !p[1].matches("^([01]?\\d|2[0-3]):[0-5]\\d$")) {
+                SendMessage err = md(m.getChatId(),"Укажите время в формате `HH:mm`, напр. `19:30`.");
+                err.setReplyMarkup(Keyboards.backToMenu());
+                safeExecute(err);
+                return;
+            }
+            SettingsRepo.set("evening_time:"+tgId, p[1]);
+            SendMessage ok = new SendMessage(String.valueOf(m.getChatId()), "Вечерняя рассылка для вашей группы установлена на " + p[1] + ".");
+            ok.setReplyMarkup(Keyboards.backToMenu());
+            safeExecute(ok);
+            return;
+        }
+
+        // по умолчанию
+        SendMessage sm = new SendMessage(String.valueOf(m.getChatId()), "Пожалуйста, используйте меню ниже.");
+        sm.setReplyMarkup(Keyboards.inlineMainMenu(isAdmin(tgId), isSuper(tgId)));
+        safeExecute(sm);
+    }
+
+    /** Обработчики сообщений визардов: тип состояния → обработчик (кнопки и отмена — в WizardType). */
+    private void registerWizards() {
+        // пользовательский визард отчёта
+        wizards.put(WizardType.REPORT, (m, tgId, text, st) -> {
             if (text.startsWith("/")) {
                 SendMessage warn = new SendMessage(String.valueOf(m.getChatId()),
                         "Вы в процессе записи отчёта. Для отмены нажмите кнопку ниже ✖️");
                 warn.setReplyMarkup(Keyboards.reportCancel());
                 safeExecute(warn);
-                return;
+                return true;
             }
             var sm = ReportWizard.onMessage(tgId, m.getChatId(), m);
             if (sm != null) safeExecute(sm);
-            return;
-        }
+            return true;
+        });
 
-        // --- пользовательский визард «Мои параметры»
-        if (stUser != null && "PARAMS".equals(stUser.type())) {
+        // пользовательский визард «Мои параметры»
+        wizards.put(WizardType.PARAMS, (m, tgId, text, st) -> {
             if (text.startsWith("/")) {
                 SendMessage warn = new SendMessage(String.valueOf(m.getChatId()),
                         "Сейчас идёт ввод параметров. Отправьте данные или нажмите «✖️ Отменить ввод».");
                 warn.setReplyMarkup(Keyboards.paramsCancelOnly());
                 safeExecute(warn);
-                return;
+                return true;
             }
             Object obj = ParamsWizard.onAny(tgId, m.getChatId(), m);
             if (obj instanceof SendMessage sm) safeExecute(sm);
             else if (obj instanceof SendPhoto sp) safeExecute(sp);
-            return;
-        }
+            return true;
+        });
 
-        // --- состояния админа
-        var stAdmin = StateRepo.get(tgId);
-        if (stAdmin != null) {
-
-            // Контакты — жёсткий визард
-            if ("CONTACT".equals(stAdmin.type())) {
-                if (text.startsWith("/")) {
-                    safeExecute(md(m.getChatId(),"Сейчас идёт ввод контактов. Введите текст контактов или нажмите «✖️ Отменить ввод»."));
-                    return;
-                }
-                var sm = com.example.coachbot.service.ContactWizard.onMessage(tgId, m.getChatId(), text);
-                if (sm != null) {
-                    sm.setReplyMarkup(Keyboards.backToAdmin());
-                    safeExecute(sm);
-                }
-                return;
+        // контакты — жёсткий визард
+        wizards.put(WizardType.CONTACT, (m, tgId, text, st) -> {
+            if (text.startsWith("/")) {
+                safeExecute(md(m.getChatId(),"Сейчас идёт ввод контактов. Введите текст контактов или нажмите «✖️ Отменить ввод»."));
+                return true;
             }
-
-            // ========== ВЫБОР КЛИЕНТА И ПОКАЗ ДЕЙСТВИЙ ==========
-            if ("ASK_CLIENT_PICK".equals(stAdmin.type()) && stAdmin.step() == 1) {
-                Integer idx = parseInt(text);
-                String[] ids = stAdmin.payload().split(",");
-                if (idx == null || idx < 1 || idx > ids.length) {
-                    SendMessage err = new SendMessage(String.valueOf(m.getChatId()), "Введите номер из списка (1.." + ids.length + ").");
-                    err.setReplyMarkup(Keyboards.backToAdmin());
-                    safeExecute(err);
-                    return;
-                }
-                String uid = ids[idx - 1];
-                // Показать меню действий для выбранного клиента
-                SendMessage sm = new SendMessage(String.valueOf(m.getChatId()),
-                        "Клиент выбран: " + uid + "\nВыберите действие:");
-                sm.setReplyMarkup(clientActionsSetAll(uid));
+            var sm = com.example.coachbot.service.ContactWizard.onMessage(tgId, m.getChatId(), text);
+            if (sm != null) {
+                sm.setReplyMarkup(Keyboards.backToAdmin());
                 safeExecute(sm);
-                StateRepo.clear(tgId);
-                return;
             }
-
-            // Добавить в группу — выбор по номеру из списка свободных пользователей
-            if ("ASK_GROUP_ADD".equals(stAdmin.type())) {
-                if (stAdmin.step() == 1) {
-                    if (text.startsWith("/")) {
-                        SendMessage warn = md(m.getChatId(),"Введите *номер* пользователя из списка.");
-                        warn.setReplyMarkup(Keyboards.backToAdmin());
-                        safeExecute(warn);
-                        return;
-                    }
-                    Integer idx = parseInt(text);
-                    String[] ids = stAdmin.payload().split(",");
-                    if (idx == null || idx < 1 || idx > ids.length) {
-                        SendMessage err = new SendMessage(String.valueOf(m.getChatId()), "Введите номер из списка (1.." + ids.length + ").");
-                        err.setReplyMarkup(Keyboards.backToAdmin());
-                        safeExecute(err);
-                        return;
-                    }
-                    String uid = ids[idx - 1];
-                    boolean ok = GroupRepo.addToAdmin(tgId, uid);
-                    SendMessage done = new SendMessage(String.valueOf(m.getChatId()),
-                            ok ? ("Пользователь " + uid + " добавлен в ваши клиенты.") :
-                                    "Не удалось добавить: пользователь уже привязан к другому тренеру (или к вам).");
-                    done.setReplyMarkup(Keyboards.backToAdmin());
-                    safeExecute(done);
-                    StateRepo.clear(tgId);
-                    return;
-                }
+            return true;
+        });
+
+        // выбор клиента по номеру и показ действий
+        wizards.put(WizardType.ASK_CLIENT_PICK, (m, tgId, text, st) -> {
+            if (st.step() != 1) return false;
+            Integer idx = parseInt(text);
+            String[] ids = st.payload().split(",");
+            if (idx == null || idx < 1 || idx > ids.length) {
+                SendMessage err = new SendMessage(String.valueOf(m.getChatId()), "Введите номер из списка (1.." + ids.length + ").");
+                err.setReplyMarkup(Keyboards.backToAdmin());
+                safeExecute(err);
+                return true;
             }
+            long uid = Long.parseLong(ids[idx - 1]);
+            // Показать меню действий для выбранного клиента
+            SendMessage sm = new SendMessage(String.valueOf(m.getChatId()),
+                    "Клиент выбран: " + uid + "\nВыберите действие:");
+            sm.setReplyMarkup(clientActionsSetAll(uid));
+            safeExecute(sm);
+            StateRepo.clear(tgId);
+            return true;
+        });
 
-            // Удалить из группы
-            if ("ASK_GROUP_DEL".equals(stAdmin.type())) {
-                if (stAdmin.step() == 1) {
-                    Integer idx = parseInt(text);
-                    String[] ids = stAdmin.payload().split(",");
-                    if (idx == null || idx < 1 || idx > ids.length) {
-                        SendMessage err = new SendMessage(String.valueOf(m.getChatId()), "Введите номер из списка (1.." + ids.length + ").");
-                        err.setReplyMarkup(Keyboards.backToAdmin());
-                        safeExecute(err);
-                        return;
-                    }
-                    String uid = ids[idx - 1];
-                    boolean ok = GroupRepo.removeFromAdmin(tgId, uid);
-                    SendMessage done = new SendMessage(String.valueOf(m.getChatId()),
-                            ok ? ("Клиент " + uid + " удалён из списка.") :
-                                    "Такой пары (пользователь — вы как тренер) нет.");
-                    done.setReplyMarkup(Keyboards.backToAdmin());
-                    safeExecute(done);
-                    StateRepo.clear(tgId);
-                    return;
-                }
+        // добавить в группу — выбор по номеру из списка свободных пользователей
+        wizards.put(WizardType.ASK_GROUP_ADD, (m, tgId, text, st) -> {
+            if (st.step() != 1) return false;
+            if (text.startsWith("/")) {
+                SendMessage warn = md(m.getChatId(),"Введите *номер* пользователя из списка.");
+                warn.setReplyMarkup(Keyboards.backToAdmin());
+                safeExecute(warn);
+                return true;
             }
-
-            // Добавить админа — ввод tg_id (в /superadmin)
-            if ("ASK_ADMIN_ADD".equals(stAdmin.type())) {
-                if (stAdmin.step() == 1) {
-                    if (text.startsWith("/")) {
-                        SendMessage warn = md(m.getChatId(),"Введите *tg_id* пользователя для назначения администратором.");
-                        warn.setReplyMarkup(Keyboards.backToAdmin());
-                        safeExecute(warn);
-                        return;
-                    }
-                    String uid = text.replace("@","").trim();
-                    if (uid.isEmpty()) {
-                        SendMessage err = md(m.getChatId(),"Укажите корректный *tg_id*.");
-                        err.setReplyMarkup(Keyboards.backToAdmin());
-                        safeExecute(err);
-                        return;
-                    }
-                    UserRepo.ensureAdmin(uid);
-                    SendMessage ok = md(m.getChatId(), "Админ добавлен: " + uid);
-                    ok.setReplyMarkup(Keyboards.backToAdmin());
-                    safeExecute(ok);
-                    StateRepo.clear(tgId);
-                    return;
-                }
+            Integer idx = parseInt(text);
+            String[] ids = st.payload().split(",");
+            if (idx == null || idx < 1 || idx > ids.length) {
+                SendMessage err = new SendMessage(String.valueOf(m.getChatId()), "Введите номер из списка (1.." + ids.length + ").");
+                err.setReplyMarkup(Keyboards.backToAdmin());
+                safeExecute(err);
+                return true;
             }
-
-            // Установка времени вечерней рассылки (визард из админки)
-            if ("ASK_SET_TIME".equals(stAdmin.type())) {
-                if (text.startsWith("/")) {
-                    SendMessage warn = new SendMessage(String.valueOf(m.getChatId()),
-                            "Введите время в формате HH:mm, например: 19:00\nИли вернитесь в админ-панель.");
-                    warn.setReplyMarkup(Keyboards.backToAdmin());
-                    safeExecute(warn);
-                    return;
-                }
-
-                String raw = text.trim();
-                java.util.regex.Matcher t = java.util.regex.Pattern
-                        .compile("^([01]?\\d|2[0-3])[:\\.\\s]?([0-5]\\d)$")
-                        .matcher(raw);
-
-                if (!t.matches()) {
-                    SendMessage err = new SendMessage(String.valueOf(m.getChatId()),
-                            "Неверный формат. Укажите время как HH:mm, напр.: 19:30");
-                    err.setReplyMarkup(Keyboards.backToAdmin());
-                    safeExecute(err);
-                    return;
-                }
-
-                int h = Integer.parseInt(t.group(1));
-                int min = Integer.parseInt(t.group(2));
-                String hh = (h < 10 ? "0" : "") + h;
-                String mm = (min < 10 ? "0" : "") + min;
-                String val = hh + ":" + mm;
-
-                SettingsRepo.set("evening_time:" + tgId, val);
-
-                StateRepo.clear(tgId);
-                SendMessage ok = new SendMessage(String.valueOf(m.getChatId()),
-                        "Вечерняя рассылка для вашей группы установлена на " + val + ".");
-                ok.setReplyMarkup(Keyboards.backToAdmin());
-                safeExecute(ok);
-                return;
+            long uid = Long.parseLong(ids[idx - 1]);
+            boolean ok = GroupRepo.addToAdmin(tgId, uid);
+            SendMessage done = new SendMessage(String.valueOf(m.getChatId()),
+                    ok ? ("Пользователь " + uid + " добавлен в ваши клиенты.") :
+                            "Не удалось добавить: пользователь уже привязан к другому тренеру (или к вам).");
+            done.setReplyMarkup(Keyboards.backToAdmin());
+            safeExecute(done);
+            StateRepo.clear(tgId);
+            return true;
+        });
+
+        // удалить из группы
+        wizards.put(WizardType.ASK_GROUP_DEL, (m, tgId, text, st) -> {
+            if (st.step() != 1) return false;
+            Integer idx = parseInt(text);
+            String[] ids = st.payload().split(",");
+            if (idx == null || idx < 1 || idx > ids.length) {
+                SendMessage err = new SendMessage(String.valueOf(m.getChatId()), "Введите номер из списка (1.." + ids.length + ").");
+                err.setReplyMarkup(Keyboards.backToAdmin());
+                safeExecute(err);
+                return true;
             }
+            long uid = Long.parseLong(ids[idx - 1]);
+            boolean ok = GroupRepo.removeFromAdmin(tgId, uid);
+            SendMessage done = new SendMessage(String.valueOf(m.getChatId()),
+                    ok ? ("Клиент " + uid + " удалён из списка.") :
+                            "Такой пары (пользователь — вы как тренер) нет.");
+            done.setReplyMarkup(Keyboards.backToAdmin());
+            safeExecute(done);
+            StateRepo.clear(tgId);
+            return true;
+        });
 
-            // СТАРЫЕ визарды (совместимость)
-            switch (stAdmin.type()) {
-                case "SET_CAL" -> { var sm = CaloriesWizard.onMessage(tgId, m.getChatId(), text); if (sm != null) safeExecute(sm); return; }
-                case "SET_PLAN" -> { var sm = PlanWizard.onMessage(tgId, m.getChatId(), text); if (sm != null) safeExecute(sm); return; }
-                case "SET_NORM" -> { var sm = NormWizard.onMessage(tgId, m.getChatId(), text); if (sm != null) safeExecute(sm); return; }
-
-                // ===== НОВОЕ: обработка единого визарда SET_ALL =====
-                case "SET_ALL" -> {
-                    var sm = SetAllWizard.onMessage(tgId, m.getChatId(), text);
-                    if (sm != null) safeExecute(sm);
-                    return;
-                }
-                // ===== /НОВОЕ =====
+        // добавить админа — ввод tg_id (в /superadmin)
+        wizards.put(WizardType.ASK_ADMIN_ADD, (m, tgId, text, st) -> {
+            if (st.step() != 1) return false;
+            if (text.startsWith("/")) {
+                SendMessage warn = md(m.getChatId(),"Введите *tg_id* пользователя для назначения администратором.");
+                warn.setReplyMarkup(Keyboards.backToAdmin());
+                safeExecute(warn);
+                return true;
             }
-        }
-
-        // --- прочие команды
-        if (text.startsWith("/settime")) { // быстрый способ для админов
-            if (!isAdmin(tgId)) { safeExecute(md(m.getChatId(),"Команда доступна только администраторам.")); return; }
-            String[] p = text.split("\\s+");
-            if (p.length < 2 || !p[1].matches("^([01]?\\d|2[0-3]):[0-5]\\d$")) {
-                SendMessage err = md(m.getChatId(),"Укажите время в формате `HH:mm`, напр. `19:30`.");
-                err.setReplyMarkup(Keyboards.backToMenu());
+            Long uid = parseLong(text.replace("@",""));
+            if (uid == null) {
+                SendMessage err = md(m.getChatId(),"Укажите корректный *tg_id*.");
+                err.setReplyMarkup(Keyboards.backToAdmin());
                 safeExecute(err);
-                return;
+                return true;
             }
-            SettingsRepo.set("evening_time:"+tgId, p[1]);
-            SendMessage ok = new SendMessage(String.valueOf(m.getChatId()), "Вечерняя рассылка для вашей группы установлена на " + p[1] + ".");
-            ok.setReplyMarkup(Keyboards.backToMenu());
+            UserRepo.ensureAdmin(uid);
+            SendMessage ok = md(m.getChatId(), "Админ добавлен: " + uid);
+            ok.setReplyMarkup(Keyboards.backToAdmin());
             safeExecute(ok);
-            return;
-        }
+            StateRepo.clear(tgId);
+            return true;
+        });
 
-        // по умолчанию
-        SendMessage sm = new SendMessage(String.valueOf(m.getChatId()), "Пожалуйста, используйте меню ниже.");
-        sm.setReplyMarkup(Keyboards.inlineMainMenu(isAdmin(tgId), isSuper(tgId)));
-        safeExecute(sm);
-    }
+        // время вечерней рассылки (визард из админки)
+        wizards.put(WizardType.ASK_SET_TIME, (m, tgId, text, st) -> {
+            if (text.startsWith("/")) {
+                SendMessage warn = new SendMessage(String.valueOf(m.getChatId()),
+                        "Введите время в формате HH:mm, например: 19:00\nИли вернитесь в админ-панель.");
+                warn.setReplyMarkup(Keyboards.backToAdmin());
+                safeExecute(warn);
+                return true;
+            }
 
-    /* ======== БЛОКИРОВКА КНОПОК ДЛЯ АДМИН-ВИЗАРДОВ ======== */
-
-    private boolean isAdminWizard(String t) {
-        return switch (t) {
-            case "CONTACT",
-                 "ASK_SET_CAL","ASK_SET_PLAN","ASK_SET_NORM",
-                 "ASK_GROUP_ADD","ASK_GROUP_DEL",
-                 "ASK_ADMIN_ADD","ASK_ADMIN_DEL",
-                 "ASK_SET_TIME",
-                 "ASK_REPORTS_VIEW",
-                 "ASK_PARAMS_VIEW",
-                 "ASK_CLIENT_PICK",
-                 "SET_CAL","SET_PLAN","SET_NORM",
-                 "SET_ALL" -> true;
-            default -> false;
-        };
-    }
+            String raw = text.trim();
+            java.util.regex.Matcher t = java.util.regex.Pattern
+                    .compile("^([01]?\\d|2[0-3])[:\\.\\s]?([0-5]\\d)$")
+                    .matcher(raw);
 
-    private boolean adminWizardAllows(String type, String data) {
-        // Разрешаем выход в любое время
-        if (data.equals("menu:main") || data.equals("menu:admin")) return true;
-
-        return switch (type) {
-            case "CONTACT" -> data.equals("contact:cancel") || data.equals("menu:admin");
-            case "ASK_SET_CAL" -> data.startsWith("pick:setcal") || data.startsWith("date:setcal") || data.equals("menu:admin");
-            case "ASK_SET_PLAN" -> data.startsWith("pick:setplan") || data.startsWith("date:setplan") || data.equals("menu:admin");
-            case "ASK_SET_NORM" -> data.startsWith("pick:setnorm") || data.startsWith("date:setnorm") || data.equals("menu:admin");
-            case "ASK_GROUP_DEL" -> data.startsWith("pick:groupdel") || data.equals("menu:admin");
-            case "ASK_GROUP_ADD" -> data.startsWith("pick:groupadd") || data.equals("menu:admin");
-            case "ASK_ADMIN_ADD" -> data.equals("menu:admin");
-            case "ASK_ADMIN_DEL" -> data.startsWith("pick:admindel") || data.equals("menu:admin");
-            case "ASK_SET_TIME" -> data.equals("menu:admin");
-            case "ASK_REPORTS_VIEW" ->
-                    data.startsWith("pick:reports") || data.equals("menu:admin");
-            case "ASK_PARAMS_VIEW"  ->
-                    data.startsWith("pick:params")  || data.equals("menu:admin");
-            case "ASK_CLIENT_PICK" ->
-                    data.startsWith("pick:client")  || data.equals("menu:admin");
-            case "SET_PLAN" -> data.equals("plan:finish") || data.equals("menu:admin");
-            case "SET_CAL", "SET_NORM" -> data.equals("menu:admin");
-            case "SET_ALL" ->
-                    data.equals("menu:admin")
-                            || data.equals("setall:plan:finish")
-                            || data.equals("all:plan_finish")    // ← НОВОЕ: разрешаем кнопку завершения плана
-                            || data.startsWith("date:setall");
-            default -> true;
-        };
-    }
+            if (!t.matches()) {
+                SendMessage err = new SendMessage(String.valueOf(m.getChatId()),
+                        "Неверный формат. Укажите время как HH:mm, напр.: 19:30");
+                err.setReplyMarkup(Keyboards.backToAdmin());
+                safeExecute(err);
+                return true;
+            }
 
-    private void warnAdminBusy(long chatId, String type) {
-        SendMessage sm = new SendMessage(String.valueOf(chatId),
-                "Вы в процессе админ-действия. Завершите текущий шаг или вернитесь в админ-панель.");
-        if ("CONTACT".equals(type)) sm.setReplyMarkup(Keyboards.contactCancelOnly());
-        else sm.setReplyMarkup(Keyboards.backToAdmin());
-        safeExecute(sm);
+            int h = Integer.parseInt(t.group(1));
+            int min = Integer.parseInt(t.group(2));
+            String hh = (h < 10 ? "0" : "") + h;
+            String mm = (min < 10 ? "0" : "") + min;
+            String val = hh + ":" + mm;
+
+            SettingsRepo.set("evening_time:" + tgId, val);
+
+            StateRepo.clear(tgId);
+            SendMessage ok = new SendMessage(String.valueOf(m.getChatId()),
+                    "Вечерняя рассылка для вашей группы установлена на " + val + ".");
+            ok.setReplyMarkup(Keyboards.backToAdmin());
+            safeExecute(ok);
+            return true;
+        });
+
+        // старые визарды (совместимость)
+        wizards.put(WizardType.SET_CAL, (m, tgId, text, st) -> {
+            var sm = CaloriesWizard.onMessage(tgId, m.getChatId(), text); if (sm != null) safeExecute(sm); return true;
+        });
+        wizards.put(WizardType.SET_PLAN, (m, tgId, text, st) -> {
+            var sm = PlanWizard.onMessage(tgId, m.getChatId(), text); if (sm != null) safeExecute(sm); return true;
+        });
+        wizards.put(WizardType.SET_NORM, (m, tgId, text, st) -> {
+            var sm = NormWizard.onMessage(tgId, m.getChatId(), text); if (sm != null) safeExecute(sm); return true;
+        });
+        // единый визард SET_ALL
+        wizards.put(WizardType.SET_ALL, (m, tgId, text, st) -> {
+            var sm = SetAllWizard.onMessage(tgId, m.getChatId(), text);
+            if (sm != null) safeExecute(sm);
+            return true;
+        });
     }
 
     private InlineKeyboardButton btn(String text, String cb) {
@@ -542,107 +609,100 @@ public class CoachBot extends TelegramLongPollingBot {
     }
 
     // Универсальный safeExecute — принимает Object и сам разбирается с типом
-    private void safeExecute(Object m) {
-        if (m == null) return;
-        try {
-            if (m instanceof SendMessage sm) execute(sm);
-            else if (m instanceof SendPhoto sp) execute(sp);
-            else if (m instanceof SendMediaGroup mg) execute(mg);
-            else if (m instanceof AnswerCallbackQuery acq) execute(acq);
-            else if (m instanceof EditMessageText emt) execute(emt);
-            else if (m instanceof EditMessageCaption emc) execute(emc);
-            else if (m instanceof EditMessageReplyMarkup emr) execute(emr);
-            else if (m instanceof org.telegram.telegrambots.meta.api.methods.send.SendDocument sd) execute(sd);
-            else if (m instanceof DeleteMessage dm) execute(dm);
-            else System.err.println("safeExecute: unsupported type: " + m.getClass().getName());
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+    private CompletableFuture<?> safeExecute(Object m) {
+        if (m == null) return CompletableFuture.completedFuture(null);
+        if (m instanceof SendMessage sm) return safeExecute(sm);
+        if (m instanceof SendPhoto sp) return safeExecute(sp);
+        if (m instanceof SendMediaGroup mg) return safeExecute(mg);
+        if (m instanceof AnswerCallbackQuery acq) return safeExecute(acq);
+        if (m instanceof EditMessageText emt) return safeExecute(emt);
+        if (m instanceof EditMessageCaption emc) return safeExecute(emc);
+        if (m instanceof EditMessageReplyMarkup emr) return safeExecute(emr);
+        if (m instanceof org.telegram.telegrambots.meta.api.methods.send.SendDocument sd) {
+            return afterCommit(() -> sender.send(sd.getChatId(), () -> execute(sd)));
         }
+        if (m instanceof DeleteMessage dm) return safeExecute(dm);
+        System.err.println("safeExecute: unsupported type: " + m.getClass().getName());
+        return CompletableFuture.completedFuture(null);
     }
 
     private void handleCallback(CallbackQuery cq) throws Exception {
         String data = cq.getData();
-        String tgId = String.valueOf(cq.getFrom().getId());
+        long tgId = cq.getFrom().getId();
         long chatId = cq.getMessage().getChatId();
 
         applyAutoSuper(tgId); // автоповышение и по callback-ам
 
-        try { execute(AnswerCallbackQuery.builder().callbackQueryId(cq.getId()).build()); } catch (Exception ignored) {}
+        safeExecute(AnswerCallbackQuery.builder().callbackQueryId(cq.getId()).build()); // ровно один ответ на колбэк
 
+        CallbackRouter.Route route = callbacks.find(data);
+        if (route == null || route.guarded()) {
+            // ===== активный визард: пропускаем только его кнопки и выход в меню =====
+            var st = StateRepo.get(tgId);
+            WizardType wizard = WizardType.of(st);
+            if (wizard != null && !wizard.allows(data)) {
+                SendMessage warn = new SendMessage(String.valueOf(chatId), wizard.busyText());
+                warn.setReplyMarkup(wizard.cancelKeyboard());
+                safeExecute(warn);
+                return;
+            }
+        }
+
+        if (route != null) route.run(cq, tgId, chatId, data);
+    }
+
+    /** Маршруты колбэков: callback_data → обработчик (см. CallbackRouter). */
+    private void registerCallbacks() {
         // ===== быстрый выход в меню =====
-        if (data.equals("menu:main")) {
+        callbacks.onUnguarded("menu:main", (cq, tgId, chatId, arg) -> {
             StateRepo.clear(tgId); // чистим состояние
             SendMessage sm = md(chatId, Texts.start(cq.getFrom().getFirstName()));
             sm.setReplyMarkup(Keyboards.inlineMainMenu(isAdmin(tgId), isSuper(tgId)));
             safeExecute(sm);
-            return;
-        }
-        if (data.equals("menu:admin")) {
+        });
+        callbacks.onUnguarded("menu:admin", (cq, tgId, chatId, arg) -> {
             if (!isAdmin(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Команда только для админов.")); return; }
             StateRepo.clear(tgId); // при входе в админку чистим состояние
             SendMessage sm = md(chatId, Texts.adminTitle());
             sm.setReplyMarkup(Keyboards.adminPanel());
             safeExecute(sm);
-            return;
-        }
-        if (data.equals("menu:super")) {
+        });
+        callbacks.onUnguarded("menu:super", (cq, tgId, chatId, arg) -> {
             if (!isSuper(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для главных админов.")); return; }
             StateRepo.clear(tgId);
             SendMessage sm = md(chatId, "🛡 Супер-админ панель. Выберите действие:");
             sm.setReplyMarkup(Keyboards.superAdminPanel());
             safeExecute(sm);
-            return;
-        }
-
-        // ===== защита во время отчёта (с поддержкой cancel/skip) =====
-        var stUser = StateRepo.get(tgId);
-        if (stUser != null && "REPORT".equals(stUser.type())) {
-            if ("report:cancel".equals(data)) {
-                safeExecute(ReportWizard.cancel(String.valueOf(cq.getFrom().getId()), chatId));
-                try { execute(AnswerCallbackQuery.builder().callbackQueryId(cq.getId()).text("Отчёт отменён").build()); } catch (Exception ignored) {}
-                return;
-            }
-            if ("report:skip".equals(data)) {
-                var sm = ReportWizard.onSkip(tgId, chatId);
-                if (sm != null) safeExecute(sm);
-                return;
-            }
-            // любые другие кнопки во время отчёта блокируем
-            SendMessage warn = new SendMessage(String.valueOf(chatId),
-                    "Вы в процессе записи отчёта. Для отмены или пропуска используйте кнопки ниже.");
-            warn.setReplyMarkup(Keyboards.reportSkipOrCancel());
-            safeExecute(warn);
-            return;
-        }
-
-        // ===== защита во время админ-визардов (с нашими послаблениями) =====
-        var stAdmin = StateRepo.get(tgId);
-        if (stAdmin != null && isAdminWizard(stAdmin.type())) {
-            if (!adminWizardAllows(stAdmin.type(), data)) {
-                warnAdminBusy(chatId, stAdmin.type());
-                return;
-            }
-        }
+        });
+
+        // кнопки визарда отчёта (вне отчёта ничего не делают)
+        callbacks.on("report:cancel", (cq, tgId, chatId, arg) -> {
+            if (WizardType.of(StateRepo.get(tgId)) != WizardType.REPORT) return;
+            safeExecute(ReportWizard.cancel(tgId, chatId)); // «Заполнение отчёта отменено.»
+        });
+        callbacks.on("report:skip", (cq, tgId, chatId, arg) -> {
+            if (WizardType.of(StateRepo.get(tgId)) != WizardType.REPORT) return;
+            var sm = ReportWizard.onSkip(tgId, chatId);
+            if (sm != null) safeExecute(sm);
+        });
 
         // Отмена ввода контактов
-        if ("contact:cancel".equals(data)) {
+        callbacks.on("contact:cancel", (cq, tgId, chatId, arg) -> {
             StateRepo.clear(tgId);
             SendMessage sm = new SendMessage(String.valueOf(chatId), "Ввод контактов отменён.");
             sm.setReplyMarkup(Keyboards.backToAdmin());
             safeExecute(sm);
-            return;
-        }
+        });
 
         // меню пользователя
-        if ("menu:food".equals(data)) {
+        callbacks.on("menu:food", (cq, tgId, chatId, arg) -> {
             String msg = PlanRepo.getNutritionText(tgId, TimeUtil.today());
             SendMessage sm = new SendMessage(String.valueOf(chatId), msg);
             sm.setReplyMarkup(Keyboards.backToMenu());
             safeExecute(sm);
-            return;
-        }
+        });
 
-        if ("menu:workout".equals(data)) {
+        callbacks.on("menu:workout", (cq, tgId, chatId, arg) -> {
             String msg = PlanRepo.getWorkoutText(tgId, TimeUtil.today());
             if (msg == null || msg.isBlank()) {
                 SendMessage sm = new SendMessage(String.valueOf(chatId), "План тренировки на сегодня не задан.");
@@ -657,19 +717,17 @@ public class CoachBot extends TelegramLongPollingBot {
                 if (i==0) sm.setReplyMarkup(Keyboards.backToMenu());
                 safeExecute(sm);
             }
-            return;
-        }
+        });
 
-        if ("menu:norms".equals(data)) {
+        callbacks.on("menu:norms", (cq, tgId, chatId, arg) -> {
             String msg = NormRepo.getNormsText(tgId, TimeUtil.today());
             SendMessage sm = new SendMessage(String.valueOf(chatId), msg);
             sm.setReplyMarkup(Keyboards.backToMenu());
             safeExecute(sm);
-            return;
-        }
+        });
 
-        if ("menu:contact".equals(data)) {
-            String admin = GroupRepo.adminOf(tgId);
+        callbacks.on("menu:contact", (cq, tgId, chatId, arg) -> {
+            Long admin = GroupRepo.adminOf(tgId);
             SendMessage sm;
             if (admin == null) sm = new SendMessage(String.valueOf(chatId), Texts.noGroup());
             else {
@@ -678,127 +736,101 @@ public class CoachBot extends TelegramLongPollingBot {
             }
             sm.setReplyMarkup(Keyboards.backToMenu());
             safeExecute(sm);
-            return;
-        }
+        });
 
-        if ("menu:report".equals(data)) {
+        callbacks.on("menu:report", (cq, tgId, chatId, arg) -> {
             safeExecute(ReportWizard.start(tgId, chatId));
-            return;
-        }
+        });
 
-        if ("menu:params".equals(data)) {
+        callbacks.on("menu:params", (cq, tgId, chatId, arg) -> {
             Object obj = ParamsWizard.start(tgId, chatId);
             if (obj instanceof SendMessage sm) safeExecute(sm);
             else if (obj instanceof SendPhoto sp) safeExecute(sp);
-            return;
-        }
+        });
 
         // Параметры — спец кнопки
-        if ("params:cancel".equals(data)) {
+        callbacks.on("params:cancel", (cq, tgId, chatId, arg) -> {
             SendMessage sm = ParamsWizard.cancel(tgId, chatId);
             safeExecute(sm);
-            return;
-        }
-        if ("params:skip".equals(data)) { // пропуск фото в параметрах
+        });
+        callbacks.on("params:skip", (cq, tgId, chatId, arg) -> { // пропуск фото в параметрах
             Object resp = ParamsWizard.skip(tgId, chatId);
             safeExecute(resp);
-            return;
-        }
+        });
 
         // =============== Админ: Мои клиенты ===============
-        if ("admin:my".equals(data)) {
+        callbacks.on("admin:my", (cq, tgId, chatId, arg) -> {
             if (!isAdmin(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для админов.")); return; }
-            renderGroupPicker(chatId, tgId, "pick:client", 1, "ASK_CLIENT_PICK",
+            renderGroupPicker(chatId, tgId, "pick:client", null, "ASK_CLIENT_PICK",
                     "Выберите клиента по номеру (введите номер сообщением):", false);
-            return;
-        }
-        if (data.startsWith("pick:client:")) {
-            int page = Integer.parseInt(data.substring("pick:client:".length()));
-            renderGroupPicker(chatId, tgId, "pick:client", page, "ASK_CLIENT_PICK",
+        });
+        callbacks.onPrefix("pick:client:", (cq, tgId, chatId, cursor) -> {
+            renderGroupPicker(chatId, tgId, "pick:client", cursor, "ASK_CLIENT_PICK",
                     "Выберите клиента по номеру (введите номер сообщением):", false);
-            return;
-        }
+        });
 
         // Старт визарда добавления/удаления клиентов
-        if ("admin:groupadd".equals(data)) {
+        callbacks.on("admin:groupadd", (cq, tgId, chatId, arg) -> {
             if (!isAdmin(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для админов.")); return; }
-            renderAllUsersPicker(chatId, tgId, "pick:groupadd", 1, "ASK_GROUP_ADD",
+            renderAllUsersPicker(chatId, tgId, "pick:groupadd", null, "ASK_GROUP_ADD",
                     "Выберите свободного пользователя по номеру для добавления в ваши клиенты:");
-            return;
-        }
-        if ("admin:groupdel".equals(data)) {
+        });
+        callbacks.on("admin:groupdel", (cq, tgId, chatId, arg) -> {
             if (!isAdmin(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для админов.")); return; }
-            renderGroupPicker(chatId, tgId, "pick:groupdel", 1, "ASK_GROUP_DEL", "Выберите клиента по номеру для удаления:", false);
-            return;
-        }
+            renderGroupPicker(chatId, tgId, "pick:groupdel", null, "ASK_GROUP_DEL", "Выберите клиента по номеру для удаления:", false);
+        });
 
-        if ("admin:contact".equals(data)) {
+        callbacks.on("admin:contact", (cq, tgId, chatId, arg) -> {
             if (!isAdmin(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для админов.")); return; }
             safeExecute(com.example.coachbot.service.ContactWizard.start(tgId, chatId));
-            return;
-        }
+        });
 
-        if ("admin:settime".equals(data)) {
+        callbacks.on("admin:settime", (cq, tgId, chatId, arg) -> {
             if (!isAdmin(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для админов.")); return; }
             StateRepo.set(tgId, "ASK_SET_TIME", 1, "");
             SendMessage sm = md(chatId, "Введите время *вечерней рассылки* для вашей группы (+2ч. к Москве). (например: 19:00)");
             sm.setReplyMarkup(Keyboards.backToAdmin());
             safeExecute(sm);
-            return;
-        }
+        });
 
         // СУПЕР-АДМИН
-        if ("super:add".equals(data)) {
+        callbacks.on("super:add", (cq, tgId, chatId, arg) -> {
             if (!isSuper(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для главных админов.")); return; }
             StateRepo.set(tgId, "ASK_ADMIN_ADD", 1, "");
             SendMessage sm = md(chatId, "Введите *tg_id* пользователя для назначения администратором.");
             sm.setReplyMarkup(Keyboards.superAdminBack());
             safeExecute(sm);
-            return;
-        }
-        if ("super:del".equals(data)) {
+        });
+        callbacks.on("super:del", (cq, tgId, chatId, arg) -> {
             if (!isSuper(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для главных админов.")); return; }
-            renderAdminsPicker(tgId, chatId, "pick:admindel", 1, "ASK_ADMIN_DEL", "Выберите администратора по номеру для снятия прав:");
-            return;
-        }
+            renderAdminsPicker(tgId, chatId, "pick:admindel", null, "ASK_ADMIN_DEL", "Выберите администратора по номеру для снятия прав:");
+        });
 
         // Пагинация пиков (старые кнопки оставлены для совместимости)
-        if (data.startsWith("pick:setcal:")) {
-            int page = Integer.parseInt(data.substring("pick:setcal:".length()));
-            renderGroupPicker(chatId, tgId, "pick:setcal", page, "ASK_SET_CAL", "Выберите пользователя по номеру из списка:", false);
-            return;
-        }
-        if (data.startsWith("pick:setplan:")) {
-            int page = Integer.parseInt(data.substring("pick:setplan:".length()));
-            renderGroupPicker(chatId, tgId, "pick:setplan", page, "ASK_SET_PLAN", "Выберите пользователя по номеру из списка:", false);
-            return;
-        }
-        if (data.startsWith("pick:setnorm:")) {
-            int page = Integer.parseInt(data.substring("pick:setnorm:".length()));
-            renderGroupPicker(chatId, tgId, "pick:setnorm", page, "ASK_SET_NORM", "Выберите пользователя по номеру из списка:", false);
-            return;
-        }
-        if (data.startsWith("pick:groupdel:")) {
-            int page = Integer.parseInt(data.substring("pick:groupdel:".length()));
-            renderGroupPicker(chatId, tgId, "pick:groupdel", page, "ASK_GROUP_DEL", "Выберите клиента по номеру для удаления:", false);
-            return;
-        }
-        if (data.startsWith("pick:groupadd:")) {
-            int page = Integer.parseInt(data.substring("pick:groupadd:".length()));
-            renderAllUsersPicker(chatId, tgId, "pick:groupadd", page, "ASK_GROUP_ADD",
+        callbacks.onPrefix("pick:setcal:", (cq, tgId, chatId, cursor) -> {
+            renderGroupPicker(chatId, tgId, "pick:setcal", cursor, "ASK_SET_CAL", "Выберите пользователя по номеру из списка:", false);
+        });
+        callbacks.onPrefix("pick:setplan:", (cq, tgId, chatId, cursor) -> {
+            renderGroupPicker(chatId, tgId, "pick:setplan", cursor, "ASK_SET_PLAN", "Выберите пользователя по номеру из списка:", false);
+        });
+        callbacks.onPrefix("pick:setnorm:", (cq, tgId, chatId, cursor) -> {
+            renderGroupPicker(chatId, tgId, "pick:setnorm", cursor, "ASK_SET_NORM", "Выберите пользователя по номеру из списка:", false);
+        });
+        callbacks.onPrefix("pick:groupdel:", (cq, tgId, chatId, cursor) -> {
+            renderGroupPicker(chatId, tgId, "pick:groupdel", cursor, "ASK_GROUP_DEL", "Выберите клиента по номеру для удаления:", false);
+        });
+        callbacks.onPrefix("pick:groupadd:", (cq, tgId, chatId, cursor) -> {
+            renderAllUsersPicker(chatId, tgId, "pick:groupadd", cursor, "ASK_GROUP_ADD",
                     "Выберите свободного пользователя по номеру для добавления в ваши клиенты:");
-            return;
-        }
-        if (data.startsWith("pick:admindel:")) {
-            int page = Integer.parseInt(data.substring("pick:admindel:".length()));
-            renderAdminsPicker(tgId, chatId, "pick:admindel", page, "ASK_ADMIN_DEL", "Выберите администратора по номеру для снятия прав:");
-            return;
-        }
+        });
+        callbacks.onPrefix("pick:admindel:", (cq, tgId, chatId, cursor) -> {
+            renderAdminsPicker(tgId, chatId, "pick:admindel", cursor, "ASK_ADMIN_DEL", "Выберите администратора по номеру для снятия прав:");
+        });
 
         // ======== НОВОЕ: быстрые даты для SET_ALL ========
-        if (data.startsWith("date:setall:")) {
+        callbacks.onPrefix("date:setall:", (cq, tgId, chatId, arg) -> {
             // ожидаем значения: date:setall:0 / 1 / -1 и т.п.
-            String tail = data.substring("date:setall:".length()).trim();
+            String tail = arg.trim();
             int offsetDays = 0;
             try { offsetDays = Integer.parseInt(tail); } catch (Exception ignore) {}
 
@@ -810,110 +842,98 @@ public class CoachBot extends TelegramLongPollingBot {
                 return;
             }
 
-            String uid = st.payload(); // на шаге client:setall:<uid> мы кладём сюда uid
+            long uid = Long.parseLong(st.payload()); // на шаге client:setall:<uid> мы кладём сюда uid
             LocalDate date = TimeUtil.today().plusDays(offsetDays);
 
             // Стартуем обычный сценарий (КБЖУ → план → нормы)
             safeExecute(SetAllWizard.start(tgId, chatId, uid, date));
-            return;
-        }
+        });
         // ======== /НОВОЕ ========
 
         // Напомнить пользователю обновить параметры
-        if (data.startsWith("params:remind:")) {
-            String uid = data.substring("params:remind:".length());
-            String owner = GroupRepo.adminOf(uid);
-            if (owner == null || (!owner.equals(tgId) && !isSuper(tgId))) {
+        callbacks.onPrefixLong("params:remind:", (cq, tgId, chatId, uid) -> {
+            Long owner = GroupRepo.adminOf(uid);
+            if (owner == null || (owner != tgId && !isSuper(tgId))) {
                 safeExecute(new SendMessage(String.valueOf(chatId), "Нет доступа."));
                 return;
             }
-            SendMessage toUser = new SendMessage(uid,
+            // через outbox: уйдёт, только если апдейт зафиксирован; ключ — клиент и день (повторные нажатия не дублируют)
+            OutboxRepo.enqueue("remind:" + uid + ":" + TimeUtil.today(), uid, null,
                     "🔔 Привет! Внеси, пожалуйста, сегодня свои параметры в боте. " +
-                            "Это займёт 2–3 минуты и поможет отслеживать прогресс. 💪");
-            toUser.setReplyMarkup(Keyboards.inlineGoParams());
-            safeExecute(toUser);
+                            "Это займёт 2–3 минуты и поможет отслеживать прогресс. 💪",
+                    null, Keyboards.inlineGoParams());
 
             SendMessage back = new SendMessage(String.valueOf(chatId), "Напоминание отправлено пользователю " + uid + ".");
             back.setReplyMarkup(Keyboards.backToAdmin());
             safeExecute(back);
-            return;
-        }
+        });
 
         // отчёт (кнопка старта)
-        if ("report:start".equals(data)) {
-            safeExecute(ReportWizard.start(String.valueOf(cq.getFrom().getId()), chatId));
-            return;
-        }
+        callbacks.on("report:start", (cq, tgId, chatId, arg) -> {
+            safeExecute(ReportWizard.start(cq.getFrom().getId(), chatId));
+        });
 
         // Завершить план (старый визард)
-        if ("plan:finish".equals(data)) {
+        callbacks.on("plan:finish", (cq, tgId, chatId, arg) -> {
             if (!isAdmin(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для админов.")); return; }
             SendMessage sm = PlanWizard.onFinish(tgId, chatId);
             if (sm != null) safeExecute(sm);
-            return;
-        }
+        });
 
         // ==== НОВЫЕ кнопки действий по выбранному клиенту ====
 
-        if (data.startsWith("client:setall:")) {
+        callbacks.onPrefixLong("client:setall:", (cq, tgId, chatId, uid) -> {
             if (!isAdmin(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для админов.")); return; }
-            String uid = data.substring("client:setall:".length());
-            String owner = GroupRepo.adminOf(uid);
-            if (owner == null || (!owner.equals(tgId) && !isSuper(tgId))) {
+            Long owner = GroupRepo.adminOf(uid);
+            if (owner == null || (owner != tgId && !isSuper(tgId))) {
                 safeExecute(new SendMessage(String.valueOf(chatId), "Нет доступа."));
                 return;
             }
             // Шаг 1 — ждём дату (текстом или быстрыми кнопками)
-            StateRepo.set(tgId, "SET_ALL", 1, uid);
+            StateRepo.set(tgId, "SET_ALL", 1, String.valueOf(uid));
             SendMessage q = md(chatId, "Шаг 1/4 — *Дата*.\nУкажите дату вручную `dd.MM.yyyy` или выберите дни ниже.");
             q.setReplyMarkup(Keyboards.dateQuickPick("date:setall", TimeUtil.today()));
             safeExecute(q);
-            return;
-        }
+        });
 
-        if (data.startsWith("client:reports:")) {
+        callbacks.onPrefixLong("client:reports:", (cq, tgId, chatId, uid) -> {
             if (!isAdmin(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для админов.")); return; }
-            String uid = data.substring("client:reports:".length());
-            String owner = GroupRepo.adminOf(uid);
-            if (owner == null || (!owner.equals(tgId) && UserRepo.role(tgId) != Roles.SUPERADMIN)) {
+            Long owner = GroupRepo.adminOf(uid);
+            if (owner == null || (owner != tgId && UserRepo.role(tgId) != Roles.SUPERADMIN)) {
                 SendMessage sm = new SendMessage(String.valueOf(chatId), "Нет доступа.");
                 sm.setReplyMarkup(Keyboards.backToMenu());
                 safeExecute(sm);
                 return;
             }
             sendReportsPage(tgId, chatId, uid, 1, true);
-            return;
-        }
+        });
 
-        if (data.startsWith("client:params:")) {
+        callbacks.onPrefixLong("client:params:", (cq, tgId, chatId, uid) -> {
             if (!isAdmin(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для админов.")); return; }
-            String uid = data.substring("client:params:".length());
             showUserParamsForAdmin(tgId, chatId, uid);
-            return;
-        }
+        });
 
         // Пагинация отчётов
-        if (data.startsWith("reports:")) {
-            String[] p = data.split(":");
-            String uid = p[1];
-            boolean desc = "desc".equals(p[2]);
-            if (p.length >= 4) {
-                int page = Integer.parseInt(p[3]);
+        callbacks.onPrefix("reports:", (cq, tgId, chatId, arg) -> {
+            // reports:<uid>:<asc|desc>:<page>
+            String[] p = arg.split(":");
+            long uid = Long.parseLong(p[0]);
+            boolean desc = "desc".equals(p[1]);
+            if (p.length >= 3) {
+                int page = Integer.parseInt(p[2]);
                 sendReportsPage(tgId, chatId, uid, page, desc);
             }
-            return;
-        }
+        });
 
         // ==== НОВОЕ: завершение плана внутри SET_ALL ====
-        if ("all:plan_finish".equals(data)) {
+        callbacks.on("all:plan_finish", (cq, tgId, chatId, arg) -> {
             if (!isAdmin(tgId)) { safeExecute(new SendMessage(String.valueOf(chatId), "Только для админов.")); return; }
             SendMessage sm = SetAllWizard.finishPlan(tgId, chatId);
             if (sm != null) safeExecute(sm);
-            return;
-        }
+        });
         // ==== /НОВОЕ ====
 
-        if ("setall:plan:finish".equals(data)) {
+        callbacks.on("setall:plan:finish", (cq, tgId, chatId, arg) -> {
             // Сохраняем обратную совместимость: если где-то осталась эта кнопка
             var st = StateRepo.get(tgId);
             if (st == null || !"SET_ALL".equals(st.type())) return;
@@ -921,10 +941,9 @@ public class CoachBot extends TelegramLongPollingBot {
             StateRepo.set(tgId, "SET_ALL", 7, st.payload());
             SendMessage ask = md(chatId, "Шаг 3/4 — *Нормы активности*.\nВведите норму *воды (л)*, например: `2.5`");
             safeExecute(ask);
-            return;
-        }
+        });
 
-        if ("noop".equals(data)) { return; }
+        callbacks.on("noop", (cq, tgId, chatId, arg) -> { });
     }
 
     /* ==================== Вспомогательные клавиатуры и рендеры ==================== */
@@ -939,7 +958,7 @@ public class CoachBot extends TelegramLongPollingBot {
     }
 
     /** Клавиатура действий по клиенту с ЕДИНОЙ кнопкой «Установить параметры» */
-    private InlineKeyboardMarkup clientActionsSetAll(String userId) {
+    private InlineKeyboardMarkup clientActionsSetAll(long userId) {
         List<List<InlineKeyboardButton>> rows = new ArrayList<>();
         rows.add(List.of(btn("⚙️ Написать программу", "client:setall:" + userId)));
         rows.add(List.of(btn("📝 Отчёты клиента", "client:reports:" + userId)));
@@ -956,169 +975,98 @@ public class CoachBot extends TelegramLongPollingBot {
         return name + " | " + tag + " | " + r.id;
     }
 
-    /** Рендер списка клиентов тренера (без Markdown). */
-    private void renderGroupPicker(long chatId, String adminId, String base, int page, String armStateType, String prompt, boolean withChooseButtons) throws Exception {
-        int size = 10;
-        int total = countGroupUsers(adminId);
-        if (total <= 0) {
-            SendMessage empty = new SendMessage(String.valueOf(chatId), "В ваших клиентах пока никого нет.");
-            empty.setReplyMarkup(Keyboards.backToAdmin());
-            safeExecute(empty);
-            return;
+    /**
+     * Курсор пейджера из callback: «n:стр:ключ» — страница после ключа, «p:стр:ключ» — перед ним.
+     * null и старые кнопки вида «стр» — первая страница.
+     */
+    private record PickCursor(int page, Long key, boolean forward) {
+        static PickCursor parse(String s) {
+            if (s != null) {
+                String[] p = s.split(":");
+                if (p.length == 3 && (p[0].equals("n") || p[0].equals("p"))) {
+                    try {
+                        return new PickCursor(Math.max(1, Integer.parseInt(p[1])), Long.parseLong(p[2]), p[0].equals("n"));
+                    } catch (NumberFormatException ignored) {}
+                }
+            }
+            return new PickCursor(1, null, true);
         }
-        int pages = Math.max(1, (int)Math.ceil(total / (double) size));
-        page = Math.min(Math.max(1, page), pages);
-        int offset = (page - 1) * size;
+    }
 
-        var rows = fetchGroupUsersDetailed(adminId, size, offset);
-        StringBuilder sb = new StringBuilder("Мои клиенты (стр. "+page+"/"+pages+"):\n");
+    /** Нумерованный список страницы + «взвод» состояния выбора по номеру. */
+    private void renderPickerPage(long chatId, long adminId, String base, PickCursor cur, UserRepo.Page pg,
+                                  String title, String armStateType, String footer) throws Exception {
+        StringBuilder sb = new StringBuilder(title + " (стр. " + cur.page() + "):\n");
         StringBuilder payload = new StringBuilder();
         int i=1;
-        for (UserRepo.UserRow r : rows) {
+        for (UserRepo.UserRow r : pg.rows()) {
             if (payload.length() > 0) payload.append(",");
             payload.append(r.id);
             sb.append(i++).append(". ").append(formatRow(r)).append("\n");
         }
         StateRepo.set(adminId, armStateType, 1, payload.toString());
 
-        SendMessage msg = new SendMessage(String.valueOf(chatId), sb.toString());
-        msg.setReplyMarkup(Keyboards.pager(base, page, pages));
+        SendMessage msg = new SendMessage(String.valueOf(chatId), footer == null ? sb.toString() : sb + "\n" + footer);
+        msg.setReplyMarkup(Keyboards.cursorPager(base, cur.page(), pg.prev(), pg.next()));
         safeExecute(msg);
     }
 
-    /** Пагинированный список СВОБОДНЫХ пользователей (не прикреплённых ни к одному тренеру). */
-    private void renderAllUsersPicker(long chatId, String adminId, String base, int page, String armStateType, String prompt) throws Exception {
-        int size = 10;
-        int total = countFreeUsers();
-        if (total <= 0) {
-            SendMessage empty = new SendMessage(String.valueOf(chatId), "Свободных пользователей нет.");
-            empty.setReplyMarkup(Keyboards.backToAdmin());
-            safeExecute(empty);
-            return;
-        }
-        int pages = Math.max(1, (int)Math.ceil(total / (double) size));
-        page = Math.min(Math.max(1, page), pages);
-        int offset = (page - 1) * size;
+    /** Страница пуста: курсор устарел (строки удалили) — начинаем сначала; пусто и там — список пуст. */
+    private interface PageQuery { UserRepo.Page fetch(Long cursor, boolean forward) throws Exception; }
 
-        var rows = fetchFreeUsersDetailed(size, offset);
-        StringBuilder sb = new StringBuilder("Свободные пользователи (стр. "+page+"/"+pages+"):\n");
-        StringBuilder payload = new StringBuilder();
-        int i=1;
-        for (UserRepo.UserRow r : rows) {
-            if (payload.length() > 0) payload.append(",");
-            payload.append(r.id);
-            sb.append(i++).append(". ").append(formatRow(r)).append("\n");
+    private UserRepo.Page firstNonEmpty(PickCursor[] cur, PageQuery q) throws Exception {
+        UserRepo.Page pg = q.fetch(cur[0].key(), cur[0].forward());
+        if (pg.rows().isEmpty() && cur[0].key() != null) {
+            cur[0] = new PickCursor(1, null, true);
+            pg = q.fetch(null, true);
         }
-        StateRepo.set(adminId, armStateType, 1, payload.toString());
-
-        SendMessage msg = new SendMessage(String.valueOf(chatId), sb.toString());
-        msg.setReplyMarkup(Keyboards.pager(base, page, pages));
-        safeExecute(msg);
+        return pg;
     }
 
-    private void renderAdminsPicker(String adminId, long chatId, String base, int page, String armStateType, String prompt) throws Exception {
+    /** Рендер списка клиентов тренера (без Markdown). */
+    private void renderGroupPicker(long chatId, long adminId, String base, String cursor, String armStateType, String prompt, boolean withChooseButtons) throws Exception {
         int size = 10;
-        int total = UserRepo.countAdmins();
-        if (total <= 0) {
-            SendMessage empty = new SendMessage(String.valueOf(chatId), "Список админов пуст.");
+        PickCursor[] cur = {PickCursor.parse(cursor)};
+        var pg = firstNonEmpty(cur, (k, fwd) -> GroupRepo.clientsPage(adminId, k, fwd, size));
+        if (pg.rows().isEmpty()) {
+            SendMessage empty = new SendMessage(String.valueOf(chatId), "В ваших клиентах пока никого нет.");
             empty.setReplyMarkup(Keyboards.backToAdmin());
             safeExecute(empty);
             return;
         }
-        int pages = Math.max(1, (int)Math.ceil(total / (double) size));
-        page = Math.min(Math.max(1, page), pages);
-        int offset = (page - 1) * size;
-
-        var rows = UserRepo.adminsPagedDetailed(size, offset);
-        StringBuilder payload = new StringBuilder();
-        StringBuilder sb = new StringBuilder("Действующие админы (стр. "+page+"/"+pages+"):\n");
-        int i=1;
-        for (UserRepo.UserRow r : rows) {
-            if (payload.length() > 0) payload.append(",");
-            payload.append(r.id);
-            sb.append(i++).append(". ").append(formatRow(r)).append("\n");
-        }
-        StateRepo.set(adminId, armStateType, 1, payload.toString());
-
-        SendMessage msg = new SendMessage(String.valueOf(chatId), sb.toString() + "\n" + prompt);
-        msg.setReplyMarkup(Keyboards.pager(base, page, pages));
-        safeExecute(msg);
-    }
-
-    /** Пользователи текущей группы (детально) */
-    private List<UserRepo.UserRow> fetchGroupUsersDetailed(String adminId, int limit, int offset) throws Exception {
-        List<UserRepo.UserRow> out = new ArrayList<>();
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT u.id, u.username, u.first_name " +
-                             "FROM users u JOIN groups g ON g.user_id = u.id " +
-                             "WHERE g.admin_id=? AND u.active=1 " +
-                             "ORDER BY u.rowid DESC LIMIT ? OFFSET ?")) {
-            ps.setString(1, adminId);
-            ps.setInt(2, Math.max(1, limit));
-            ps.setInt(3, Math.max(0, offset));
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    out.add(new UserRepo.UserRow(
-                            rs.getString("id"),
-                            rs.getString("username"),
-                            rs.getString("first_name")
-                    ));
-                }
-            }
-        }
-        return out;
-    }
-
-    private int countGroupUsers(String adminId) throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT COUNT(*) FROM users u JOIN groups g ON g.user_id=u.id " +
-                             "WHERE g.admin_id=? AND u.active=1")) {
-            ps.setString(1, adminId);
-            try (ResultSet rs = ps.executeQuery()) { return rs.next() ? rs.getInt(1) : 0; }
-        }
+        renderPickerPage(chatId, adminId, base, cur[0], pg, "Мои клиенты", armStateType, null);
     }
 
-    /** Только свободные (не прикреплённые ни к одному тренеру) пользователи. */
-    private int countFreeUsers() throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT COUNT(*) FROM users u " +
-                             "LEFT JOIN groups g ON g.user_id = u.id " +
-                             "WHERE u.active=1 AND (g.user_id IS NULL)")) {
-            try (ResultSet rs = ps.executeQuery()) { return rs.next() ? rs.getInt(1) : 0; }
+    /** Пагинированный список СВОБОДНЫХ пользователей (не прикреплённых ни к одному тренеру). */
+    private void renderAllUsersPicker(long chatId, long adminId, String base, String cursor, String armStateType, String prompt) throws Exception {
+        int size = 10;
+        PickCursor[] cur = {PickCursor.parse(cursor)};
+        var pg = firstNonEmpty(cur, (k, fwd) -> UserRepo.freeUsersPage(k, fwd, size));
+        if (pg.rows().isEmpty()) {
+            SendMessage empty = new SendMessage(String.valueOf(chatId), "Свободных пользователей нет.");
+            empty.setReplyMarkup(Keyboards.backToAdmin());
+            safeExecute(empty);
+            return;
         }
+        renderPickerPage(chatId, adminId, base, cur[0], pg, "Свободные пользователи", armStateType, null);
     }
 
-    /** Получить список свободных пользователей (детально), постранично. */
-    private List<UserRepo.UserRow> fetchFreeUsersDetailed(int limit, int offset) throws Exception {
-        List<UserRepo.UserRow> out = new ArrayList<>();
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT u.id, u.username, u.first_name " +
-                             "FROM users u " +
-                             "LEFT JOIN groups g ON g.user_id = u.id " +
-                             "WHERE u.active=1 AND (g.user_id IS NULL) " +
-                             "ORDER BY u.rowid DESC LIMIT ? OFFSET ?")) {
-            ps.setInt(1, Math.max(1, limit));
-            ps.setInt(2, Math.max(0, offset));
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    out.add(new UserRepo.UserRow(
-                            rs.getString("id"),
-                            rs.getString("username"),
-                            rs.getString("first_name")
-                    ));
-                }
-            }
+    private void renderAdminsPicker(long adminId, long chatId, String base, String cursor, String armStateType, String prompt) throws Exception {
+        int size = 10;
+        PickCursor[] cur = {PickCursor.parse(cursor)};
+        var pg = firstNonEmpty(cur, (k, fwd) -> UserRepo.adminsPage(k, fwd, size));
+        if (pg.rows().isEmpty()) {
+            SendMessage empty = new SendMessage(String.valueOf(chatId), "Список админов пуст.");
+            empty.setReplyMarkup(Keyboards.backToAdmin());
+            safeExecute(empty);
+            return;
         }
-        return out;
+        renderPickerPage(chatId, adminId, base, cur[0], pg, "Действующие админы", armStateType, prompt);
     }
 
-    private void sendReportsPage(String adminId, long chatId, String userId, int page, boolean desc) throws Exception {
-        String owner = GroupRepo.adminOf(userId);
-        if (owner == null || (!owner.equals(adminId) && UserRepo.role(adminId) != Roles.SUPERADMIN)) {
+    private void sendReportsPage(long adminId, long chatId, long userId, int page, boolean desc) throws Exception {
+        Long owner = GroupRepo.adminOf(userId);
+        if (owner == null || (owner != adminId && UserRepo.role(adminId) != Roles.SUPERADMIN)) {
             SendMessage sm = new SendMessage(String.valueOf(chatId), "Нет доступа.");
             sm.setReplyMarkup(Keyboards.backToMenu());
             safeExecute(sm);
@@ -1131,7 +1079,7 @@ public class CoachBot extends TelegramLongPollingBot {
         var rows = ReportRepo.listByUser(userId, page, size, desc);
 
         StringBuilder sb = new StringBuilder();
-        sb.append("*Отчёты клиента* (tg\\_id: ").append(mdEscape(userId)).append(")")
+        sb.append("*Отчёты клиента* (tg\\_id: ").append(userId).append(")")
                 .append(" — стр. ").append(page).append("/").append(pages).append("\n\n");
 
         java.time.LocalDate date = null;
@@ -1230,9 +1178,9 @@ public class CoachBot extends TelegramLongPollingBot {
         }
     }
 
-    private void showUserParamsForAdmin(String adminId, long chatId, String userId) throws Exception {
-        String owner = GroupRepo.adminOf(userId);
-        if (owner == null || (!owner.equals(adminId) && UserRepo.role(adminId) != Roles.SUPERADMIN)) {
+    private void showUserParamsForAdmin(long adminId, long chatId, long userId) throws Exception {
+        Long owner = GroupRepo.adminOf(userId);
+        if (owner == null || (owner != adminId && UserRepo.role(adminId) != Roles.SUPERADMIN)) {
             SendMessage sm = new SendMessage(String.valueOf(chatId), "Нет доступа.");
             sm.setReplyMarkup(Keyboards.backToAdmin());
             safeExecute(sm);
@@ -0,0 +1,367 @@
+package com.example.coachbot;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограниченный пул соединений SQLite.
+ *
+ *  - физические соединения создаются лениво, не больше max;
+ *  - PRAGMA применяются один раз — при создании соединения;
+ *  - close() у выданного соединения не закрывает его, а возвращает в пул;
+ *  - health check: соединение, пролежавшее без дела дольше IDLE_CHECK_MS, проверяется перед выдачей;
+ *  - leak detection: фоновый поток пишет в лог соединения, которые держат дольше leakMs;
+ *  - кэш подготовленных запросов: prepareStatement(sql) на соединении компилирует SQL один раз,
+ *    close() выданного PreparedStatement сбрасывает его и возвращает в LRU-кэш соединения.
+ */
+final class ConnectionPool {
+
+    private static final long IDLE_CHECK_MS = 30_000;
+
+    private final String name;
+    private final String url;
+    private final int max;
+    private final boolean readOnly;
+    private final long acquireTimeoutMs;
+    private final long leakMs;
+    private final boolean leakTrace;
+    private final int stmtCacheSize;
+
+    private final BlockingQueue<Slot> idle;
+    private final Set<Slot> busy = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+
+    // метрики
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong healthFailures = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong stmtHits = new AtomicLong();
+    private final AtomicLong stmtMisses = new AtomicLong();
+    private final AtomicLong stmtEvictions = new AtomicLong();
+
+    ConnectionPool(String name, String url, int max, boolean readOnly,
+                   long acquireTimeoutMs, long leakMs, boolean leakTrace, int stmtCacheSize) {
+        this.name = name;
+        this.url = url;
+        this.max = Math.max(1, max);
+        this.readOnly = readOnly;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.leakMs = leakMs;
+        this.leakTrace = leakTrace;
+        this.stmtCacheSize = Math.max(0, stmtCacheSize);
+        this.idle = new ArrayBlockingQueue<>(this.max);
+    }
+
+    /** Одно физическое соединение пула. */
+    private final class Slot {
+        final Connection raw;
+        // только владелец выдачи трогает кэш, передача между потоками — через очередь idle
+        final StatementCache stmts = new StatementCache();
+        volatile long lastUsed = System.currentTimeMillis();
+        volatile long borrowedAt;
+        volatile String borrower;
+        volatile Throwable borrowTrace;
+        volatile boolean leakReported;
+
+        Slot(Connection raw) { this.raw = raw; }
+    }
+
+    /** LRU по тексту SQL; вытесненный запрос закрывается. Выданные сейчас в кэше не лежат. */
+    private final class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+        private static final long serialVersionUID = 1L; // не сериализуется; для -Xlint
+
+        StatementCache() { super(16, 0.75f, true); }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= stmtCacheSize) return false;
+            stmtEvictions.incrementAndGet();
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    }
+
+    /* ===================== выдача / возврат ===================== */
+
+    Connection acquire() throws SQLException {
+        Slot s = idle.poll();
+        if (s == null) s = tryCreate();
+        if (s == null) {
+            long t0 = System.nanoTime();
+            waited.incrementAndGet();
+            try {
+                s = idle.poll(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for " + name + " connection", e);
+            } finally {
+                waitNanos.addAndGet(System.nanoTime() - t0);
+            }
+            if (s == null) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Pool '" + name + "' exhausted: no connection in " + acquireTimeoutMs + " ms");
+            }
+        }
+        s = checkHealth(s);
+
+        s.borrowedAt = System.currentTimeMillis();
+        s.borrower = Thread.currentThread().getName();
+        s.borrowTrace = leakTrace ? new Throwable("Connection acquired here") : null;
+        s.leakReported = false;
+        busy.add(s);
+        acquired.incrementAndGet();
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, new Lease(s));
+    }
+
+    private Slot tryCreate() throws SQLException {
+        while (true) {
+            int cur = total.get();
+            if (cur >= max) return null;
+            if (total.compareAndSet(cur, cur + 1)) break;
+        }
+        try {
+            return new Slot(open());
+        } catch (SQLException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Новое соединение с настройками пула. Без WAL, busy_timeout или query_only (у читателей) пул
+     * теряет свои гарантии, поэтому любая неудачная настройка закрывает соединение и бросает ошибку;
+     * пропустить можно только необязательный auto_vacuum.
+     */
+    private Connection open() throws SQLException {
+        Connection c = DriverManager.getConnection(url);
+        try (Statement st = c.createStatement()) {
+            if (!readOnly) {
+                // действует только на пустой БД (до первой таблицы); существующую переводит Db.init по флагу
+                try {
+                    st.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                } catch (SQLException e) {
+                    System.err.println("[db-pool] " + name + ": auto_vacuum not set: " + e.getMessage());
+                }
+            }
+            try (ResultSet rs = st.executeQuery("PRAGMA journal_mode=WAL")) {
+                String mode = rs.next() ? rs.getString(1) : null;
+                if (!"wal".equalsIgnoreCase(mode)) throw new SQLException("journal_mode=WAL not applied, got " + mode);
+            }
+            st.execute("PRAGMA synchronous=NORMAL");
+            st.execute("PRAGMA busy_timeout=5000");
+            st.execute("PRAGMA foreign_keys=ON");
+            if (readOnly) st.execute("PRAGMA query_only=ON");
+        } catch (SQLException e) {
+            closeQuietly(c);
+            throw e;
+        }
+        created.incrementAndGet();
+        return c;
+    }
+
+    /** Проверка «залежавшегося» соединения; битое закрываем и открываем заново. */
+    private Slot checkHealth(Slot s) throws SQLException {
+        if (System.currentTimeMillis() - s.lastUsed < IDLE_CHECK_MS) return s;
+        boolean ok;
+        try (Statement st = s.raw.createStatement()) {
+            st.execute("SELECT 1");
+            ok = true;
+        } catch (SQLException e) {
+            ok = false;
+        }
+        if (ok) return s;
+        healthFailures.incrementAndGet();
+        closeQuietly(s.raw);
+        try {
+            return new Slot(open());
+        } catch (SQLException e) {
+            total.decrementAndGet(); // слот потерян — иначе пул навсегда «исчерпан»
+            throw e;
+        }
+    }
+
+    private void release(Slot s) {
+        busy.remove(s);
+        try {
+            if (!s.raw.getAutoCommit()) {
+                s.raw.rollback();
+                s.raw.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // соединение в плохом состоянии — выбрасываем, следующий acquire создаст новое
+            closeQuietly(s.raw);
+            total.decrementAndGet();
+            return;
+        }
+        s.borrowTrace = null;
+        s.borrower = null;
+        s.lastUsed = System.currentTimeMillis();
+        idle.offer(s);
+    }
+
+    /** Обёртка над соединением на время одной выдачи: close() возвращает его в пул. */
+    private final class Lease implements InvocationHandler {
+        private final Slot slot;
+        private boolean closed;
+
+        Lease(Slot slot) { this.slot = slot; }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            switch (m.getName()) {
+                case "close" -> {
+                    if (!closed) { closed = true; release(slot); }
+                    return null;
+                }
+                case "isClosed" -> { return closed || slot.raw.isClosed(); }
+                case "unwrap" -> { return slot.raw.unwrap((Class<?>) args[0]); }
+                case "isWrapperFor" -> { return slot.raw.isWrapperFor((Class<?>) args[0]); }
+                case "equals" -> { return proxy == args[0]; }
+                case "hashCode" -> { return System.identityHashCode(proxy); }
+                case "toString" -> { return "Pooled[" + name + "]" + slot.raw; }
+                case "prepareStatement" -> {
+                    if (!closed && stmtCacheSize > 0 && args.length == 1) {
+                        return prepareCached(slot, (String) args[0], (Connection) proxy);
+                    }
+                }
+            }
+            if (closed) throw new SQLException("Connection already returned to pool '" + name + "'");
+            try {
+                return m.invoke(slot.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /* ===================== кэш запросов ===================== */
+
+    private PreparedStatement prepareCached(Slot s, String sql, Connection owner) throws SQLException {
+        // забираем из кэша на время использования: тот же SQL, открытый повторно, получит свой экземпляр
+        PreparedStatement ps = s.stmts.remove(sql);
+        if (ps != null && !ps.isClosed()) {
+            stmtHits.incrementAndGet();
+        } else {
+            stmtMisses.incrementAndGet();
+            ps = s.raw.prepareStatement(sql);
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new CachedStatement(s, sql, ps, owner));
+    }
+
+    /** Возврат в кэш: открытый ResultSet закрываем (иначе запрос держит снимок чтения), параметры чистим. */
+    private void recycle(Slot s, String sql, PreparedStatement ps, ResultSet rs) {
+        try {
+            if (rs != null) rs.close();
+            ps.clearParameters();
+            ps.clearBatch();
+        } catch (SQLException e) {
+            closeQuietly(ps);
+            return;
+        }
+        PreparedStatement prev = s.stmts.put(sql, ps);
+        if (prev != null && prev != ps) closeQuietly(prev);
+    }
+
+    /** Выданный из кэша PreparedStatement: close() возвращает его в кэш соединения. */
+    private final class CachedStatement implements InvocationHandler {
+        private final Slot slot;
+        private final String sql;
+        private final PreparedStatement ps;
+        private final Connection owner;
+        private ResultSet lastRs;
+        private boolean closed;
+
+        CachedStatement(Slot slot, String sql, PreparedStatement ps, Connection owner) {
+            this.slot = slot;
+            this.sql = sql;
+            this.ps = ps;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            switch (m.getName()) {
+                case "close" -> {
+                    if (!closed) { closed = true; recycle(slot, sql, ps, lastRs); }
+                    return null;
+                }
+                case "isClosed" -> { return closed; }
+                case "getConnection" -> { return owner; }
+                case "unwrap" -> { return ps.unwrap((Class<?>) args[0]); }
+                case "isWrapperFor" -> { return ps.isWrapperFor((Class<?>) args[0]); }
+                case "equals" -> { return proxy == args[0]; }
+                case "hashCode" -> { return System.identityHashCode(proxy); }
+                case "toString" -> { return "Cached[" + name + "]" + sql; }
+            }
+            if (closed) throw new SQLException("Statement already closed");
+            try {
+                Object r = m.invoke(ps, args);
+                if (r instanceof ResultSet rs) lastRs = rs;
+                return r;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /* ===================== утечки и метрики ===================== */
+
+    /** Вызывается фоновым потоком Db: сообщает о соединениях, которые держат слишком долго. */
+    void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (Slot s : busy) {
+            if (s.leakReported || now - s.borrowedAt < leakMs) continue;
+            s.leakReported = true;
+            leaks.incrementAndGet();
+            System.err.printf("[db] possible connection leak in pool '%s': held %d ms by %s%n",
+                    name, now - s.borrowedAt, s.borrower);
+            Throwable trace = s.borrowTrace;
+            if (trace != null) trace.printStackTrace();
+        }
+    }
+
+    String stats() {
+        long a = acquired.get();
+        long w = waited.get();
+        return String.format("%s: size=%d/%d busy=%d idle=%d acquired=%d waited=%d avgWait=%.2fms timeouts=%d created=%d healthFail=%d leaks=%d",
+                name, total.get(), max, busy.size(), idle.size(), a, w,
+                w == 0 ? 0.0 : waitNanos.get() / 1_000_000.0 / w,
+                timeouts.get(), created.get(), healthFailures.get(), leaks.get())
+                + stmtStats();
+    }
+
+    private String stmtStats() {
+        if (stmtCacheSize == 0) return "";
+        long h = stmtHits.get();
+        long miss = stmtMisses.get();
+        return String.format(" stmtCache=%d hits=%d misses=%d hitRate=%.1f%% evictions=%d",
+                stmtCacheSize, h, miss, h + miss == 0 ? 0.0 : 100.0 * h / (h + miss), stmtEvictions.get());
+    }
+
+    void closeAll() {
+        Slot s;
+        while ((s = idle.poll()) != null) {
+            closeQuietly(s.raw);
+            total.decrementAndGet();
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable c) {
+        try { c.close(); } catch (Exception ignored) {}
+    }
+}
@@ -1,7 +1,22 @@
 package com.example.coachbot;
 
+import com.example.coachbot.migration.Migrator;
+import com.example.coachbot.migration.OnlineRebuild;
+
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class Db {
 
@@ -16,475 +31,433 @@ public class Db {
         return (a != null && !a.isBlank()) ? a : ((b != null && !b.isBlank()) ? b : c);
     }
 
-    /** Подключение + безопасные PRAGMA + автосоздание каталога */
-    public static Connection connect() throws SQLException {
+    private static int intEnv(String key, int def) {
+        try {
+            String v = System.getenv(key);
+            return (v == null || v.isBlank()) ? def : Integer.parseInt(v.trim());
+        } catch (Exception e) { return def; }
+    }
+
+    // Пулы: один писатель (SQLite всё равно сериализует запись) + несколько читателей
+    private static final ConnectionPool WRITER;
+    private static final ConnectionPool READERS;
+    // Единственный писатель: все записи идут через его очередь и фиксируются пачками (group commit)
+    private static final DbWriter ACTOR;
+    // сколько синхронный вызов ждёт писателя
+    private static final long AWAIT_MS;
+
+    static {
         ensureParentDir(DB_PATH);
-        Connection c = DriverManager.getConnection("jdbc:sqlite:" + DB_PATH);
-        try (Statement st = c.createStatement()) {
-            st.execute("PRAGMA journal_mode=WAL");
-            st.execute("PRAGMA synchronous=NORMAL");
-            st.execute("PRAGMA busy_timeout=5000");
-            st.execute("PRAGMA foreign_keys=ON");
-        } catch (SQLException ignored) {}
-        return c;
+        String url = "jdbc:sqlite:" + DB_PATH;
+        long leakMs = intEnv("DB_LEAK_MS", 10_000);
+        boolean leakTrace = Boolean.parseBoolean(System.getenv().getOrDefault("DB_LEAK_TRACE", "false"));
+        // подготовленных запросов на соединение; 0 — без кэша
+        int stmtCache = intEnv("DB_STMT_CACHE", 64);
+        WRITER  = new ConnectionPool("writer", url, 1, false, 5_000, leakMs, leakTrace, stmtCache);
+        READERS = new ConnectionPool("reader", url, intEnv("DB_READERS", 4), true, 5_000, leakMs, leakTrace, stmtCache);
+        AWAIT_MS = intEnv("DB_AWAIT_MS", 30_000);
+        ACTOR = new DbWriter(WRITER,
+                intEnv("DB_WRITE_QUEUE", 10_000),
+                intEnv("DB_GROUP_COMMIT_MAX", 256),
+                intEnv("DB_GROUP_COMMIT_MS", 5),
+                AWAIT_MS);
+
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-leak-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        watchdog.scheduleAtFixedRate(() -> {
+            WRITER.detectLeaks();
+            READERS.detectLeaks();
+        }, 10, 10, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            ACTOR.shutdown(5_000);
+            WRITER.closeAll();
+            READERS.closeAll();
+        }, "db-pool-shutdown"));
     }
 
-    private static void ensureParentDir(String path) {
-        File f = new File(path).getAbsoluteFile();
-        File dir = f.getParentFile();
-        if (dir != null && !dir.exists()) dir.mkdirs();
+    /**
+     * Прямое соединение писателя из пула — только для инициализации/миграций.
+     * Обычные записи репозиториев идут через {@link #write} / {@link #call}.
+     */
+    public static Connection connect() throws SQLException {
+        return WRITER.acquire();
     }
 
-    /** Главная инициализация: миграции -> создание недостающих таблиц */
-    public static void init() throws Exception {
-        try (Connection c = connect()) {
-            c.setAutoCommit(false);
-            try {
-                migrateUsersTable(c);
-                migrateGroupsTable(c);
-                migrateSettingsTable(c);       // k/v -> key/value
-                migrateReportsTable(c);        // полноценная схема reports
-                migrateNormsTables(c);         // создаёт activity_norms и переносит из norms при наличии
-                migrateUserParamsTable(c);     // миграция user_params (старая -> новая)
-
-                createIfMissing(c, """
-                    CREATE TABLE IF NOT EXISTS nutrition_plans(
-                      user_id   TEXT NOT NULL,
-                      date      TEXT NOT NULL,
-                      calories  INTEGER,
-                      proteins  REAL,
-                      fats      REAL,
-                      carbs     REAL,
-                      set_by    TEXT,
-                      PRIMARY KEY(user_id,date)
-                    )
-                """);
-
-                createIfMissing(c, """
-                    CREATE TABLE IF NOT EXISTS workout_plans(
-                      user_id   TEXT NOT NULL,
-                      date      TEXT NOT NULL,
-                      text      TEXT,
-                      set_by    TEXT,
-                      PRIMARY KEY(user_id,date)
-                    )
-                """);
-
-                // Антидубли апдейтов (таблица, в которую пишет UpdatesRepo)
-                createIfMissing(c, """
-                    CREATE TABLE IF NOT EXISTS processed_updates(
-                      update_id INTEGER PRIMARY KEY
-                    )
-                """);
-
-                createIfMissing(c, """
-                    CREATE TABLE IF NOT EXISTS sent_notifications(
-                      type    TEXT NOT NULL,
-                      user_id TEXT NOT NULL,
-                      date    TEXT NOT NULL,
-                      PRIMARY KEY(type,user_id,date)
-                    )
-                """);
-
-                createIfMissing(c, """
-                    CREATE TABLE IF NOT EXISTS contacts(
-                      admin_id TEXT PRIMARY KEY,
-                      text     TEXT
-                    )
-                """);
-
-                // Таблица для состояний визардов
-                createIfMissing(c, """
-                    CREATE TABLE IF NOT EXISTS user_states(
-                      user_id TEXT PRIMARY KEY,
-                      type    TEXT,
-                      step    INTEGER,
-                      payload TEXT
-                    )
-                """);
-
-                // Индекс на группы по администратору — полезен при росте данных
-                createIfMissing(c, "CREATE INDEX IF NOT EXISTS idx_groups_admin ON groups(admin_id)");
-
-                // 📸 Новая таблица для нескольких фото еды в отчётах
-                createIfMissing(c, """
-                    CREATE TABLE IF NOT EXISTS report_photos(
-                      user_id    TEXT NOT NULL,
-                      date       TEXT NOT NULL,
-                      file_id    TEXT NOT NULL,
-                      created_at INTEGER,
-                      PRIMARY KEY(user_id,date,file_id)
-                    )
-                """);
-
-                ensureDefaultSetting(c, "evening_time", "19:00");
-
-                c.commit();
-            } catch (Exception e) {
-                c.rollback();
-                throw e;
-            } finally {
-                c.setAutoCommit(true);
-            }
-        }
+    /**
+     * Соединение только для чтения (query_only) — для SELECT-ов, не блокирует писателя.
+     * Если текущая единица работы уже что-то записала — соединение писателя поверх её записей (см. {@link Session}).
+     */
+    public static Connection connectRead() throws SQLException {
+        Session s = SESSION.get();
+        if (s != null && s.visible && s.committedOnly == 0) return s.read();
+        return READERS.acquire();
     }
 
-    /* ===================== Миграции ===================== */
+    /** Только зафиксированные данные (пул читателей) — для загрузки общих кэшей, которые видят все потоки. */
+    public static Connection connectCommitted() throws SQLException {
+        return READERS.acquire();
+    }
 
-    private static void migrateUsersTable(Connection c) throws SQLException {
-        boolean exists = tableExists(c, "users");
-        if (!exists) {
-            try (Statement st = c.createStatement()) {
-                st.execute("""
-                CREATE TABLE users(
-                  id         TEXT PRIMARY KEY,
-                  username   TEXT,
-                  first_name TEXT,
-                  role       TEXT NOT NULL DEFAULT 'USER',
-                  active     INTEGER NOT NULL DEFAULT 1
-                )
-            """);
-            }
-            return;
-        }
+    /**
+     * Пометить, что текущая единица работы записала key (кэш/таблица + id); вне её — ничего.
+     * Кэши по такому ключу до конца единицы работы читаются мимо себя, через {@link #connectRead()}.
+     */
+    public static void touch(String key) {
+        Session s = SESSION.get();
+        if (s != null) s.touched.add(key);
+    }
+
+    public static void touch(String ns, long id) {
+        Session s = SESSION.get();
+        if (s != null) s.touched.add(ns + ":" + id);
+    }
 
-        boolean hasId        = tableHasColumn(c, "users", "id");
-        boolean hasUsername  = tableHasColumn(c, "users", "username");
-        boolean hasFirstName = tableHasColumn(c, "users", "first_name");
-        boolean hasRole      = tableHasColumn(c, "users", "role");
-        boolean hasActive    = tableHasColumn(c, "users", "active");
+    /** Писала ли текущая единица работы key. */
+    public static boolean touched(String key) {
+        Session s = SESSION.get();
+        return s != null && !s.touched.isEmpty() && s.touched.contains(key);
+    }
 
-        if (hasId && hasUsername && hasFirstName && hasRole && hasActive) return;
+    public static boolean touched(String ns, long id) {
+        Session s = SESSION.get();
+        return s != null && !s.touched.isEmpty() && s.touched.contains(ns + ":" + id);
+    }
 
-        boolean hasTgId   = tableHasColumn(c, "users", "tg_id");
-        boolean hasUserId = tableHasColumn(c, "users", "user_id");
-        String srcIdCol = hasId ? "id" : (hasTgId ? "tg_id" : (hasUserId ? "user_id" : null));
+    /** Метрики пулов и писателя — для логов и /stats. */
+    public static String poolStats() {
+        return WRITER.stats() + "\n" + READERS.stats() + "\n" + ACTOR.stats();
+    }
 
-        try (Statement st = c.createStatement()) {
-            st.execute("""
-            CREATE TABLE users_new(
-              id         TEXT PRIMARY KEY,
-              username   TEXT,
-              first_name TEXT,
-              role       TEXT NOT NULL DEFAULT 'USER',
-              active     INTEGER NOT NULL DEFAULT 1
-            )
-        """);
-
-            if (srcIdCol != null) {
-                String selId        = srcIdCol;
-                String selUsername  = hasUsername  ? "username"   : "NULL";
-                String selFirstName = hasFirstName ? "first_name" : "NULL";
-                String selRole      = hasRole      ? "role"       : "'USER'";
-                String selActive    = hasActive    ? "active"     : "1";
-
-                String insert = "INSERT INTO users_new(id, username, first_name, role, active) " +
-                        "SELECT " + selId + ", " + selUsername + ", " + selFirstName + ", " + selRole + ", " + selActive + " FROM users";
-                st.execute(insert);
-            }
+    /* ===================== Запись через единственного писателя ===================== */
 
-            st.execute("DROP TABLE users");
-            st.execute("ALTER TABLE users_new RENAME TO users");
-        }
+    /** Операция записи с результатом, выполняется на соединении писателя. */
+    @FunctionalInterface
+    public interface Work<T> {
+        T run(Connection c) throws Exception;
     }
 
-    private static void migrateGroupsTable(Connection c) throws SQLException {
-        boolean exists = tableExists(c, "groups");
-        if (!exists) {
-            try (Statement st = c.createStatement()) {
-                st.execute("""
-                    CREATE TABLE groups(
-                      user_id  TEXT PRIMARY KEY,
-                      admin_id TEXT NOT NULL
-                    )
-                """);
-            }
-            return;
+    /** Чтение, выполняемое через {@link #readCommitted}. */
+    @FunctionalInterface
+    public interface Read<T> {
+        T run() throws Exception;
+    }
+
+    /** Операция записи без результата. */
+    @FunctionalInterface
+    public interface Update {
+        void run(Connection c) throws Exception;
+    }
+
+    /**
+     * Асинхронная запись. Вне единицы работы — сразу в очередь писателя;
+     * внутри {@link #session()} — копится и уходит одной атомарной группой при commit().
+     * Future завершается, когда запись зафиксирована.
+     */
+    public static CompletableFuture<Void> write(Update u) {
+        Work<Object> w = c -> { u.run(c); return null; };
+        Session s = SESSION.get();
+        if (s != null) return s.add(w, true);
+        return ACTOR.submit(List.of(w), false).thenApply(r -> null);
+    }
+
+    /**
+     * Запись служебной таблицы, которую обработчики не читают (например, водяной знак апдейтов):
+     * как {@link #write}, но не переводит чтения единицы работы на соединение писателя.
+     */
+    public static CompletableFuture<Void> writeUnread(Update u) {
+        Work<Object> w = c -> { u.run(c); return null; };
+        Session s = SESSION.get();
+        if (s != null) return s.add(w, false);
+        return ACTOR.submit(List.of(w), false).thenApply(r -> null);
+    }
+
+    /**
+     * Выполнить чтения r только по зафиксированным данным, даже внутри единицы работы с записями, —
+     * для загрузки общих кэшей: незафиксированное не должно попасть к другим потокам.
+     */
+    public static <T> T readCommitted(Read<T> r) throws Exception {
+        Session s = SESSION.get();
+        if (s == null) return r.run();
+        s.committedOnly++;
+        try {
+            return r.run();
+        } finally {
+            s.committedOnly--;
         }
+    }
 
-        try (Statement st = c.createStatement()) {
-            st.execute("""
-                CREATE TABLE IF NOT EXISTS groups_new(
-                  user_id  TEXT PRIMARY KEY,
-                  admin_id TEXT NOT NULL
-                )
-            """);
-            if (tableHasColumn(c, "groups", "user_id") && tableHasColumn(c, "groups", "admin_id")) {
-                st.execute("INSERT OR IGNORE INTO groups_new(user_id, admin_id) SELECT user_id, admin_id FROM groups");
-            } else if (tableHasColumn(c, "groups", "uid") && tableHasColumn(c, "groups", "aid")) {
-                st.execute("INSERT OR IGNORE INTO groups_new(user_id, admin_id) SELECT uid, aid FROM groups");
-            }
-            st.execute("DROP TABLE groups");
-            st.execute("ALTER TABLE groups_new RENAME TO groups");
+    /**
+     * Синхронная запись с результатом (когда решение зависит от текущих данных).
+     * Внутри единицы работы ничего не фиксирует: см. {@link Session}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T call(Work<T> w) throws Exception {
+        Session s = SESSION.get();
+        if (s == null) return (T) await(ACTOR.submit(List.of(w), false));
+        return (T) s.call(w);
+    }
+
+    /** Выполнить после фиксации текущей единицы работы (вне её — сразу). При откате не выполняется. */
+    public static void afterCommit(Runnable r) {
+        Session s = SESSION.get();
+        if (s == null) r.run();
+        else s.afterCommit.add(r);
+    }
+
+    private static Object await(CompletableFuture<Object> f) throws Exception {
+        try {
+            return f.get(AWAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof Exception ex) throw ex;
+            if (c instanceof Error er) throw er;
+            throw e;
+        } catch (TimeoutException e) {
+            throw new SQLException("db-writer did not answer in " + AWAIT_MS + " ms (queue: " + ACTOR.queueSize() + ")", e);
         }
     }
 
-    // settings: привести к key/value и перенести данные из старой схемы k/v
-    private static void migrateSettingsTable(Connection c) throws SQLException {
-        boolean exists = tableExists(c, "settings");
-        if (!exists) {
-            try (Statement st = c.createStatement()) {
-                st.execute("""
-                    CREATE TABLE settings(
-                      key TEXT PRIMARY KEY,
-                      value TEXT
-                    )
-                """);
+    /* ===================== Единица работы (одна на апдейт) ===================== */
+
+    private static final ThreadLocal<Session> SESSION = new ThreadLocal<>();
+
+    /**
+     * Открыть единицу работы, привязанную к текущему потоку: записи репозиториев внутри неё
+     * копятся и при {@link Session#commit()} уходят писателю одной атомарной группой —
+     * фиксируется либо всё, либо ничего. Без commit() при закрытии всё накопленное отбрасывается.
+     * Пока записей нет, чтения идут из пула читателей. После первой записи {@link #connectRead()} одалживает
+     * соединение писателя: тот применяет накопленное под SAVEPOINT, отдаёт соединение на время чтения
+     * и откатывает SAVEPOINT, когда его вернут. Так обработчик видит свои записи; писатель занят только
+     * на время самого чтения (сеть внутри единицы работы не трогаем — отправки идут через {@link #afterCommit}).
+     * Общие кэши грузятся только из зафиксированного ({@link #connectCommitted()}); ключи, которые единица
+     * работы записала ({@link #touch}), она читает мимо кэша.
+     *
+     * {@link #call} внутри единицы работы выполняется писателем поверх накопленных записей под SAVEPOINT,
+     * который тут же откатывается: вызывающий получает результат, но в БД ничего не попадает.
+     * Сама операция добавляется к накопленным и повторяется при commit(); если к этому моменту
+     * её результат изменился (данные успели поменять другие), commit() падает и вся группа откатывается.
+     *
+     * <pre>
+     * try (Db.Session tx = Db.session()) {
+     *     ...
+     *     tx.commit();
+     * }
+     * </pre>
+     */
+    public static Session session() {
+        if (SESSION.get() != null) throw new IllegalStateException("Db session already open in this thread");
+        Session s = new Session();
+        SESSION.set(s);
+        return s;
+    }
+
+    public static final class Session implements AutoCloseable {
+        private final List<Work<?>> pending = new ArrayList<>();
+        private final List<CompletableFuture<Void>> waiters = new ArrayList<>();
+        private final List<Runnable> afterCommit = new ArrayList<>();
+        private final HashSet<String> touched = new HashSet<>();
+        private DbWriter.Lease lease;  // одолженное соединение писателя, пока открыто хоть одно чтение
+        private int readers;
+        private boolean visible;       // есть записи, которые чтения должны видеть
+        private int committedOnly;     // внутри readCommitted
+
+        private Session() {}
+
+        private CompletableFuture<Void> add(Work<?> w, boolean visible) {
+            CompletableFuture<Void> f = new CompletableFuture<>();
+            pending.add(w);
+            if (visible) this.visible = true;
+            waiters.add(f);
+            if (lease != null) {
+                // запись посреди чтения: применяем и на одолженном, чтобы следующие чтения её видели
+                try {
+                    onLease(w);
+                } catch (Exception e) {
+                    e.printStackTrace(); // повторится и упадёт при commit()
+                }
             }
-            return;
+            return f;
         }
-        boolean hasKey = tableHasColumn(c, "settings", "key");
-        boolean hasValue = tableHasColumn(c, "settings", "value");
-        if (hasKey && hasValue) return;
 
-        boolean hasK = tableHasColumn(c, "settings", "k");
-        boolean hasV = tableHasColumn(c, "settings", "v");
-
-        try (Statement st = c.createStatement()) {
-            st.execute("""
-                CREATE TABLE settings_new(
-                  key TEXT PRIMARY KEY,
-                  value TEXT
-                )
-            """);
-            if (hasK && hasV) {
-                st.execute("INSERT OR IGNORE INTO settings_new(key,value) SELECT k,v FROM settings");
+        private Object call(Work<?> w) throws Exception {
+            Object probe;
+            if (lease != null) {
+                probe = onLease(w); // писатель сейчас ждёт возврата соединения — идти к нему в очередь нельзя
+            } else {
+                List<Work<?>> ops = new ArrayList<>(pending);
+                ops.add(w);
+                probe = await(ACTOR.submit(ops, true));
             }
-            st.execute("DROP TABLE settings");
-            st.execute("ALTER TABLE settings_new RENAME TO settings");
+            visible = true;
+            pending.add(c -> {
+                Object r = w.run(c);
+                if (!Objects.equals(r, probe)) {
+                    throw new SQLException("Db.call result changed before commit: " + probe + " -> " + r);
+                }
+                return r;
+            });
+            return probe;
         }
-    }
 
-    // reports: создать или пересобрать полную схему
-    private static void migrateReportsTable(Connection c) throws SQLException {
-        boolean exists = tableExists(c, "reports");
-        if (!exists) {
+        private Object onLease(Work<?> w) throws Exception {
+            Connection c = lease.connection;
             try (Statement st = c.createStatement()) {
-                st.execute("""
-                    CREATE TABLE reports(
-                      user_id    TEXT NOT NULL,
-                      date       TEXT NOT NULL,
-                      sleep      REAL,
-                      steps      INTEGER,
-                      water      REAL,
-                      kcal       INTEGER,
-                      p          REAL,
-                      f          REAL,
-                      c          REAL,
-                      note       TEXT,
-                      photo_id   TEXT,
-                      created_at INTEGER,
-                      PRIMARY KEY(user_id,date)
-                    )
-                """);
+                st.execute("SAVEPOINT lent");
+                try {
+                    Object r = w.run(c);
+                    st.execute("RELEASE lent");
+                    return r;
+                } catch (Exception e) {
+                    st.execute("ROLLBACK TO lent");
+                    st.execute("RELEASE lent");
+                    throw e;
+                }
             }
-            return;
         }
 
-        String[] required = {"user_id","date","sleep","steps","water","kcal","p","f","c","note","photo_id","created_at"};
-        boolean ok = true;
-        for (String col : required) if (!tableHasColumn(c, "reports", col)) { ok = false; break; }
-        if (ok) return;
-
-        try (Statement st = c.createStatement()) {
-            st.execute("""
-                CREATE TABLE reports_new(
-                  user_id    TEXT NOT NULL,
-                  date       TEXT NOT NULL,
-                  sleep      REAL,
-                  steps      INTEGER,
-                  water      REAL,
-                  kcal       INTEGER,
-                  p          REAL,
-                  f          REAL,
-                  c          REAL,
-                  note       TEXT,
-                  photo_id   TEXT,
-                  created_at INTEGER,
-                  PRIMARY KEY(user_id,date)
-                )
-            """);
-
-            String selSleep = tableHasColumn(c,"reports","sleep") ? "sleep" : "NULL";
-            String selSteps = tableHasColumn(c,"reports","steps") ? "steps" : "NULL";
-            String selWater = tableHasColumn(c,"reports","water") ? "water" : "NULL";
-            String selKcal  = tableHasColumn(c,"reports","kcal")  ? "kcal"  : "NULL";
-            String selP     = tableHasColumn(c,"reports","p")     ? "p"     : "NULL";
-            String selF     = tableHasColumn(c,"reports","f")     ? "f"     : "NULL";
-            String selC     = tableHasColumn(c,"reports","c")     ? "c"     : "NULL";
-            String selNote  = tableHasColumn(c,"reports","note")  ? "note"  : "NULL";
-            String selPhoto = tableHasColumn(c,"reports","photo_id") ? "photo_id" : "NULL";
-            String selCreated = tableHasColumn(c,"reports","created_at") ? "created_at" : "NULL";
-
-            String insert = "INSERT OR IGNORE INTO reports_new(user_id,date,sleep,steps,water,kcal,p,f,c,note,photo_id,created_at) " +
-                    "SELECT user_id,date,"+selSleep+","+selSteps+","+selWater+","+selKcal+","+selP+","+selF+","+selC+","+selNote+","+selPhoto+","+selCreated+" FROM reports";
-            st.execute(insert);
-
-            st.execute("DROP TABLE reports");
-            st.execute("ALTER TABLE reports_new RENAME TO reports");
+        /** Соединение для чтения поверх накопленных записей; close() возвращает его писателю (после последнего чтения). */
+        private Connection read() throws SQLException {
+            if (lease == null) {
+                try {
+                    lease = (DbWriter.Lease) await(ACTOR.lend(new ArrayList<>(pending)));
+                } catch (SQLException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new SQLException("read inside a Db session failed", e);
+                }
+            }
+            readers++;
+            DbWriter.Lease l = lease;
+            boolean[] closed = {false};
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, m, args) -> {
+                        if (m.getName().equals("close")) {
+                            if (!closed[0]) {
+                                closed[0] = true;
+                                if (--readers == 0) returnLease();
+                            }
+                            return null;
+                        }
+                        if (m.getName().equals("isClosed")) return closed[0] || l.expired();
+                        if (closed[0] || l.expired()) throw new SQLException("lent db-writer connection is closed");
+                        try {
+                            return m.invoke(l.connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
         }
-    }
 
-    // нормы: целевая таблица activity_norms; перенос из старой norms, если была
-    private static void migrateNormsTables(Connection c) throws SQLException {
-        createIfMissing(c, """
-            CREATE TABLE IF NOT EXISTS activity_norms(
-              user_id      TEXT NOT NULL,
-              date         TEXT NOT NULL,
-              water_liters REAL,
-              steps        INTEGER,
-              sleep_hours  REAL,
-              set_by       TEXT,
-              PRIMARY KEY(user_id,date)
-            )
-        """);
-
-        if (tableExists(c, "norms")) {
-            boolean hasUser = tableHasColumn(c,"norms","user_id");
-            boolean hasDate = tableHasColumn(c,"norms","date");
-            boolean hasWater= tableHasColumn(c,"norms","water");
-            boolean hasSteps= tableHasColumn(c,"norms","steps");
-            boolean hasSleep= tableHasColumn(c,"norms","sleep");
-            boolean hasBy   = tableHasColumn(c,"norms","set_by");
-            if (hasUser && hasDate) {
-                String w = hasWater? "water":"NULL";
-                String s = hasSteps? "steps":"NULL";
-                String sl= hasSleep? "sleep":"NULL";
-                String by= hasBy? "set_by":"NULL";
-                try (Statement st = c.createStatement()) {
-                    st.execute("INSERT OR IGNORE INTO activity_norms(user_id,date,water_liters,steps,sleep_hours,set_by) " +
-                            "SELECT user_id,date,"+w+","+s+","+sl+","+by+" FROM norms");
-                } catch (SQLException ignored) {}
-            }
+        private void returnLease() {
+            if (lease == null) return;
+            lease.release();
+            lease = null;
+            readers = 0;
         }
-    }
 
-    /**
-     * Миграция таблицы user_params (используется визард «Мои параметры»).
-     * Целевая схема (старая совместимая):
-     *   user_params(
-     *     user_id TEXT PRIMARY KEY,
-     *     weight REAL, waist REAL,
-     *     chest_exhale REAL, chest_relaxed REAL, chest_inhale REAL,
-     *     biceps_relaxed REAL, biceps_flex REAL,
-     *     photo_id TEXT,
-     *     updated_at INTEGER
-     *   )
-     */
-    private static void migrateUserParamsTable(Connection c) throws SQLException {
-        boolean exists = tableExists(c, "user_params");
-        if (!exists) {
-            try (Statement st = c.createStatement()) {
-                st.execute("""
-                    CREATE TABLE user_params(
-                      user_id TEXT PRIMARY KEY,
-                      weight REAL,
-                      waist REAL,
-                      chest_exhale REAL,
-                      chest_relaxed REAL,
-                      chest_inhale REAL,
-                      biceps_relaxed REAL,
-                      biceps_flex REAL,
-                      photo_id TEXT,
-                      updated_at INTEGER
-                    )
-                """);
-            }
-            return;
+        /** Зафиксировать всё, что накоплено в рамках единицы работы. */
+        public void commit() throws Exception {
+            if (lease != null) throw new IllegalStateException("commit() with a read connection still open");
+            CompletableFuture<Object> f = submitPending();
+            List<Runnable> hooks = takeHooks();
+            if (f != null) await(f);
+            runHooks(hooks);
         }
 
-        String[] required = {
-                "user_id","weight","waist",
-                "chest_exhale","chest_relaxed","chest_inhale",
-                "biceps_relaxed","biceps_flex",
-                "photo_id","updated_at"
-        };
-        boolean ok = true;
-        for (String col : required) if (!tableHasColumn(c, "user_params", col)) { ok = false; break; }
-        if (ok) return;
+        /**
+         * Как {@link #commit()}, но не ждёт писателя: накопленное уходит в очередь, а future завершается
+         * после фиксации и хуков {@link #afterCommit} (они выполняются в общем пуле, не в потоке вызова).
+         * Для рассылок: единицы работы многих получателей попадают в одну групповую транзакцию писателя,
+         * каждая под своим SAVEPOINT, — ошибка одного не откатывает остальных.
+         */
+        public CompletableFuture<Void> commitAsync() {
+            if (lease != null) throw new IllegalStateException("commitAsync() with a read connection still open");
+            CompletableFuture<Object> f = submitPending();
+            List<Runnable> hooks = takeHooks();
+            if (f == null) return CompletableFuture.runAsync(() -> runHooks(hooks));
+            return f.thenRunAsync(() -> runHooks(hooks));
+        }
 
-        try (Statement st = c.createStatement()) {
-            st.execute("""
-                CREATE TABLE user_params_new(
-                  user_id TEXT PRIMARY KEY,
-                  weight REAL,
-                  waist REAL,
-                  chest_exhale REAL,
-                  chest_relaxed REAL,
-                  chest_inhale REAL,
-                  biceps_relaxed REAL,
-                  biceps_flex REAL,
-                  photo_id TEXT,
-                  updated_at INTEGER
-                )
-            """);
-
-            String selWeight = tableHasColumn(c,"user_params","weight") ? "weight" : "NULL";
-            String selWaist  = tableHasColumn(c,"user_params","waist")  ? "waist"  : "NULL";
-
-            String selChEx   = tableHasColumn(c,"user_params","chest_exhale")  ? "chest_exhale"  : "NULL";
-            String selChRl   =
-                    tableHasColumn(c,"user_params","chest_relaxed")   ? "chest_relaxed" :
-                            (tableHasColumn(c,"user_params","chest_relax")    ? "chest_relax" :
-                                    tableHasColumn(c,"user_params","chest_rel")      ? "chest_rel" : "NULL");
-            String selChIn   = tableHasColumn(c,"user_params","chest_inhale")  ? "chest_inhale"  : "NULL";
-
-            String selBiRl   = tableHasColumn(c,"user_params","biceps_relaxed")? "biceps_relaxed": "NULL";
-            String selBiFx   = tableHasColumn(c,"user_params","biceps_flex")   ? "biceps_flex"   : "NULL";
-
-            String selPhoto  = tableHasColumn(c,"user_params","photo_id")      ? "photo_id"      : "NULL";
-            String selUpd    = tableHasColumn(c,"user_params","updated_at")    ? "updated_at"    : "NULL";
-
-            String insert = "INSERT OR IGNORE INTO user_params_new(" +
-                    "user_id,weight,waist,chest_exhale,chest_relaxed,chest_inhale,biceps_relaxed,biceps_flex,photo_id,updated_at" +
-                    ") SELECT user_id,"+selWeight+","+selWaist+","+selChEx+","+selChRl+","+selChIn+","+
-                    selBiRl+","+selBiFx+","+selPhoto+","+selUpd+" FROM user_params";
-            st.execute(insert);
-
-            st.execute("DROP TABLE user_params");
-            st.execute("ALTER TABLE user_params_new RENAME TO user_params");
+        private CompletableFuture<Object> submitPending() {
+            if (pending.isEmpty()) return null;
+            List<Work<?>> ops = new ArrayList<>(pending);
+            List<CompletableFuture<Void>> ws = new ArrayList<>(waiters);
+            pending.clear();
+            waiters.clear();
+
+            // ждём уже завершения futures записей: их обработчики (сброс кэшей) успевают до возврата из commit()
+            return ACTOR.submit(ops, false).whenComplete((r, e) -> {
+                for (CompletableFuture<Void> w : ws) {
+                    if (e == null) w.complete(null); else w.completeExceptionally(e);
+                }
+            });
         }
-    }
 
-    /* ===================== Вспомогательные ===================== */
+        private List<Runnable> takeHooks() {
+            List<Runnable> hooks = new ArrayList<>(afterCommit);
+            afterCommit.clear();
+            return hooks;
+        }
 
-    private static boolean tableExists(Connection c, String table) {
-        try (PreparedStatement ps = c.prepareStatement(
-                "SELECT name FROM sqlite_master WHERE type='table' AND name=?")) {
-            ps.setString(1, table);
-            try (ResultSet rs = ps.executeQuery()) {
-                return rs.next();
+        private static void runHooks(List<Runnable> hooks) {
+            for (Runnable r : hooks) {
+                try { r.run(); } catch (Exception e) { e.printStackTrace(); }
             }
-        } catch (Exception ignored) { return false; }
+        }
+
+        @Override
+        public void close() {
+            SESSION.remove();
+            returnLease();
+            for (CompletableFuture<Void> w : waiters) w.cancel(false);
+            pending.clear();
+            waiters.clear();
+            afterCommit.clear();
+            touched.clear();
+        }
     }
 
-    private static boolean tableHasColumn(Connection c, String table, String column) {
-        try (PreparedStatement ps = c.prepareStatement("PRAGMA table_info(" + table + ")")) {
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    String name = rs.getString("name");
-                    if (column.equalsIgnoreCase(name)) return true;
-                }
-            }
-        } catch (Exception ignored) {}
-        return false;
+    private static void ensureParentDir(String path) {
+        File f = new File(path).getAbsoluteFile();
+        File dir = f.getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
     }
 
-    private static void createIfMissing(Connection c, String createSql) throws SQLException {
-        try (Statement st = c.createStatement()) { st.execute(createSql); }
+    /**
+     * Главная инициализация: версионные миграции схемы (на актуальной БД — одно чтение user_version),
+     * затем фоновое продолжение незавершённых онлайн-пересборок таблиц.
+     */
+    public static void init() throws Exception {
+        try (Connection c = connect()) {
+            Migrator.migrate(c);
+            ensureIncrementalVacuum(c);
+        }
+        OnlineRebuild.startBackground();
     }
 
-    private static void ensureDefaultSetting(Connection c, String key, String value) {
-        try (PreparedStatement ps = c.prepareStatement("SELECT value FROM settings WHERE key=?")) {
-            ps.setString(1, key);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return;
-            }
-        } catch (Exception ignored) {}
-        try (PreparedStatement ins = c.prepareStatement("INSERT INTO settings(key,value) VALUES(?,?)")) {
-            ins.setString(1, key);
-            ins.setString(2, value);
-            ins.executeUpdate();
-        } catch (Exception ignored) {}
+    /**
+     * Освобождённые страницы RetentionService возвращает через incremental_vacuum — нужен auto_vacuum=INCREMENTAL.
+     * Новая БД получает его при создании; старую переводит разовый VACUUM (перезапись всего файла),
+     * поэтому только по явному DB_AUTO_VACUUM_CONVERT=true.
+     */
+    private static void ensureIncrementalVacuum(Connection c) throws SQLException {
+        int mode;
+        try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery("PRAGMA auto_vacuum")) {
+            mode = rs.next() ? rs.getInt(1) : 0;
+        }
+        if (mode == 2) return;
+        if (!Boolean.parseBoolean(System.getenv().getOrDefault("DB_AUTO_VACUUM_CONVERT", "false"))) {
+            System.out.println("[db] auto_vacuum is not INCREMENTAL: freed pages stay in the file; set DB_AUTO_VACUUM_CONVERT=true once to convert");
+            return;
+        }
+        long t0 = System.currentTimeMillis();
+        try (Statement st = c.createStatement()) {
+            st.execute("PRAGMA auto_vacuum=INCREMENTAL");
+            st.execute("VACUUM");
+        }
+        System.out.printf("[db] converted to auto_vacuum=INCREMENTAL in %d ms%n", System.currentTimeMillis() - t0);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,245 @@
+package com.example.coachbot;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Единственный писатель БД (actor).
+ *
+ * Все записи репозиториев приходят сюда единицами ({@link Unit}) через очередь.
+ * Поток писателя забирает из очереди пачку единиц и фиксирует их ОДНОЙ транзакцией (group commit):
+ * каждая единица выполняется под своим SAVEPOINT, так что ошибка в одной не откатывает соседние.
+ * Первая единица пачки ждёт попутчиков не дольше maxDelayMs.
+ * Пробная единица (probe) выполняется так же, но её SAVEPOINT всегда откатывается — нужен только результат.
+ * Одалживание (lend): после операций единицы соединение отдаётся вызывающему потоку для чтения ({@link Lease}),
+ * писатель ждёт его возврата и откатывает SAVEPOINT — так сессия читает поверх своих незафиксированных записей.
+ * Ошибки единиц пишутся в лог: у записей «выстрелил и забыл» future никто не ждёт.
+ */
+final class DbWriter {
+
+    /** Атомарная группа операций; результат — значение последней операции. */
+    static final class Unit {
+        final List<Db.Work<?>> ops;
+        final boolean probe;
+        final boolean lend;
+        final CompletableFuture<Object> done = new CompletableFuture<>();
+        final long enqueuedAt = System.nanoTime();
+
+        Unit(List<Db.Work<?>> ops, boolean probe, boolean lend) {
+            this.ops = ops;
+            this.probe = probe;
+            this.lend = lend;
+        }
+    }
+
+    /** Соединение писателя, одолженное на время чтения. Вернуть — {@link #release()}; всё сделанное на нём откатится. */
+    static final class Lease {
+        final Connection connection;
+        private final CountDownLatch returned = new CountDownLatch(1);
+        private volatile boolean expired;
+
+        private Lease(Connection connection) {
+            this.connection = connection;
+        }
+
+        void release() {
+            returned.countDown();
+        }
+
+        /** Писатель не дождался возврата и забрал соединение — пользоваться им больше нельзя. */
+        boolean expired() {
+            return expired;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final BlockingQueue<Unit> queue;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final long lendMs;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // метрики
+    private final AtomicLong units = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failedUnits = new AtomicLong();
+    private final AtomicLong failedCommits = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private final AtomicLong queueNanos = new AtomicLong();
+    private volatile int maxBatchSeen;
+
+    DbWriter(ConnectionPool pool, int capacity, int maxBatch, long maxDelayMs, long lendMs) {
+        this.pool = pool;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMs));
+        this.lendMs = lendMs;
+        this.thread = new Thread(this::loop, "db-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Поставить единицу в очередь; при переполнении очереди — ждём (backpressure).
+     * probe — выполнить и откатить (результат без изменений в БД).
+     */
+    CompletableFuture<Object> submit(List<Db.Work<?>> ops, boolean probe) {
+        return enqueue(new Unit(ops, probe, false));
+    }
+
+    /**
+     * Выполнить ops и одолжить соединение писателя вызывающему (результат — {@link Lease}).
+     * Пока оно не возвращено (но не дольше lendMs), писатель стоит — только для коротких чтений.
+     */
+    CompletableFuture<Object> lend(List<Db.Work<?>> ops) {
+        return enqueue(new Unit(ops, true, true));
+    }
+
+    private CompletableFuture<Object> enqueue(Unit u) {
+        if (Thread.currentThread() == thread) {
+            throw new IllegalStateException("Nested write from the db-writer thread");
+        }
+        if (!running) {
+            u.done.completeExceptionally(stopped());
+            return u.done;
+        }
+        try {
+            queue.put(u);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            u.done.completeExceptionally(e);
+            return u.done;
+        }
+        // писатель мог остановиться между проверкой и put — тогда единицу уже никто не заберёт
+        if (!thread.isAlive() && queue.remove(u)) u.done.completeExceptionally(stopped());
+        return u.done;
+    }
+
+    private void loop() {
+        List<Unit> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Unit first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - batch.size());
+
+                // окно group commit: ждём попутчиков, но не дольше maxDelay от первой единицы
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    Unit next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+
+                execute(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (Throwable t) {
+                t.printStackTrace();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void execute(List<Unit> batch) {
+        long t0 = System.nanoTime();
+        for (Unit u : batch) queueNanos.addAndGet(t0 - u.enqueuedAt);
+
+        Object[] results = new Object[batch.size()];
+        Throwable[] errors = new Throwable[batch.size()];
+        try (Connection c = pool.acquire()) {
+            c.setAutoCommit(false);
+            try (Statement sp = c.createStatement()) {
+                for (int i = 0; i < batch.size(); i++) {
+                    sp.execute("SAVEPOINT unit");
+                    try {
+                        Object last = null;
+                        for (Db.Work<?> op : batch.get(i).ops) last = op.run(c);
+                        results[i] = batch.get(i).lend ? lendOut(batch.get(i), c) : last;
+                        if (batch.get(i).probe) sp.execute("ROLLBACK TO unit");
+                        sp.execute("RELEASE unit");
+                    } catch (Throwable e) {
+                        errors[i] = e;
+                        sp.execute("ROLLBACK TO unit");
+                        sp.execute("RELEASE unit");
+                    }
+                }
+            }
+            c.commit();
+        } catch (Throwable e) {
+            failedCommits.incrementAndGet();
+            for (int i = 0; i < batch.size(); i++) if (errors[i] == null) errors[i] = e;
+        }
+
+        commitNanos.addAndGet(System.nanoTime() - t0);
+        batches.incrementAndGet();
+        units.addAndGet(batch.size());
+        if (batch.size() > maxBatchSeen) maxBatchSeen = batch.size();
+
+        for (int i = 0; i < batch.size(); i++) {
+            Unit u = batch.get(i);
+            if (u.lend && results[i] != null) continue; // уже отдана и возвращена
+            if (errors[i] == null) {
+                u.done.complete(results[i]);
+            } else {
+                failedUnits.incrementAndGet();
+                System.err.println("[db-writer] write failed: " + errors[i]);
+                errors[i].printStackTrace();
+                u.done.completeExceptionally(errors[i]);
+            }
+        }
+    }
+
+    /** Отдать соединение вызывающему и дождаться его возврата. */
+    private Lease lendOut(Unit u, Connection c) throws InterruptedException {
+        Lease l = new Lease(c);
+        u.done.complete(l);
+        if (!l.returned.await(lendMs, TimeUnit.MILLISECONDS)) {
+            l.expired = true;
+            System.err.println("[db-writer] lent connection not returned in " + lendMs + " ms, taking it back");
+        }
+        return l;
+    }
+
+    /** Остановить приём и дописать то, что уже в очереди; не успевшее — завершить ошибкой. */
+    void shutdown(long timeoutMs) {
+        running = false;
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) return; // ещё пишет — очередь остаётся за ним
+        for (Unit u; (u = queue.poll()) != null; ) u.done.completeExceptionally(stopped());
+    }
+
+    private static IllegalStateException stopped() {
+        return new IllegalStateException("db-writer is stopped");
+    }
+
+    int queueSize() {
+        return queue.size();
+    }
+
+    String stats() {
+        long b = batches.get();
+        long u = units.get();
+        return String.format("writer-actor: queue=%d units=%d batches=%d avgBatch=%.2f maxBatch=%d avgCommit=%.2fms avgQueue=%.2fms failedUnits=%d failedCommits=%d",
+                queue.size(), u, b,
+                b == 0 ? 0.0 : u / (double) b, maxBatchSeen,
+                b == 0 ? 0.0 : commitNanos.get() / 1_000_000.0 / b,
+                u == 0 ? 0.0 : queueNanos.get() / 1_000_000.0 / u,
+                failedUnits.get(), failedCommits.get());
+    }
+}
@@ -1,16 +1,70 @@
 package com.example.coachbot;
 
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Клавиатуры бота.
+ *
+ * Постоянные клавиатуры собираются один раз при загрузке класса и отдаются одним и тем же
+ * неизменяемым объектом ({@link Frozen}) вместе с готовым JSON — Jackson их повторно не обходит.
+ * В параметризованных (пейджер, напоминание) постоянные строки общие, заново создаётся только
+ * строка с id/номером страницы. Возвращённые клавиатуры менять нельзя.
+ */
 public class Keyboards {
 
     /* ========================= Общие утилиты ========================= */
 
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /**
+     * Неизменяемая клавиатура с заранее сериализованным JSON.
+     * Строки — неизменяемые списки, setKeyboard после создания запрещён.
+     */
+    static final class Frozen extends InlineKeyboardMarkup {
+        private static final long serialVersionUID = 1L; // не сериализуется; для -Xlint
+
+        private final transient RawValue json;
+        private final transient boolean frozen;
+
+        Frozen(List<List<InlineKeyboardButton>> rows) {
+            super(List.copyOf(rows));
+            this.json = new RawValue(serialize(getKeyboard()));
+            this.frozen = true;
+        }
+
+        @Override
+        public void setKeyboard(List<List<InlineKeyboardButton>> keyboard) {
+            if (frozen) throw new UnsupportedOperationException("shared keyboard is immutable");
+            super.setKeyboard(keyboard);
+        }
+
+        /** Готовый JSON вместо обхода кнопок при каждой отправке. */
+        @JsonValue
+        public RawValue json() {
+            return json;
+        }
+
+        private static String serialize(List<List<InlineKeyboardButton>> rows) {
+            try {
+                // обычная разметка той же структуры — без @JsonValue, иначе рекурсия
+                return JSON.writeValueAsString(new InlineKeyboardMarkup(rows));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
     private static InlineKeyboardButton btn(String text, String cb) {
         InlineKeyboardButton b = new InlineKeyboardButton();
         b.setText(text);
@@ -25,198 +79,179 @@ public class Keyboards {
         return b;
     }
 
+    private static List<InlineKeyboardButton> row(String text, String cb) {
+        return List.of(btn(text, cb));
+    }
+
+    // общие строки
+    private static final List<InlineKeyboardButton> BACK_MENU = row("🔙 Вернуться в меню", "menu:main");
+    private static final List<InlineKeyboardButton> BACK_ADMIN = row("🔙 Вернуться в админ-панель", "menu:admin");
+    private static final List<InlineKeyboardButton> TO_ADMIN = row("🔙 В админ-панель", "menu:admin");
+    private static final List<InlineKeyboardButton> PARAMS_CANCEL = row("✖️ Отменить ввод", "params:cancel");
+    private static final List<InlineKeyboardButton> REPORT_CANCEL = row("✖️ Отменить заполнение", "report:cancel");
+
     /* ========================= Главное меню ========================= */
 
+    // [isAdmin][isSuper]
+    private static final Frozen[][] MAIN_MENU = new Frozen[2][2];
+
+    static {
+        for (int a = 0; a < 2; a++) {
+            for (int s = 0; s < 2; s++) {
+                List<List<InlineKeyboardButton>> rows = new ArrayList<>();
+                rows.add(row("🍽 План питания", "menu:food"));
+                rows.add(row("🏋️‍♀️ Тренировка", "menu:workout"));
+                rows.add(row("📊 Нормы активности", "menu:norms"));
+                rows.add(row("📝 Отчёт", "menu:report"));
+                rows.add(row("📏 Мои параметры", "menu:params"));
+                rows.add(row("📞 Контакты тренера", "menu:contact"));
+                rows.add(List.of(urlBtn("🤝 Аренда бота", "https://t.me/Shagindanil")));
+                if (a == 1) rows.add(row("🔧 Админ-панель", "menu:admin"));
+                if (s == 1) rows.add(row("🛡 Супер-админ", "menu:super"));
+                MAIN_MENU[a][s] = new Frozen(rows);
+            }
+        }
+    }
+
+    private static final Frozen BACK_TO_MENU = new Frozen(List.of(BACK_MENU));
+    private static final Frozen BACK_TO_ADMIN = new Frozen(List.of(BACK_ADMIN));
+
     public static InlineKeyboardMarkup inlineMainMenu(boolean isAdmin, boolean isSuper) {
-        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
-        rows.add(List.of(btn("🍽 План питания", "menu:food")));
-        rows.add(List.of(btn("🏋️‍♀️ Тренировка", "menu:workout")));
-        rows.add(List.of(btn("📊 Нормы активности", "menu:norms")));
-        rows.add(List.of(btn("📝 Отчёт", "menu:report")));
-        rows.add(List.of(btn("📏 Мои параметры", "menu:params")));
-        rows.add(List.of(btn("📞 Контакты тренера", "menu:contact")));
-        rows.add(List.of(urlBtn("🤝 Аренда бота", "https://t.me/Shagindanil")));
-        if (isAdmin) rows.add(List.of(btn("🔧 Админ-панель", "menu:admin")));
-        if (isSuper) rows.add(List.of(btn("🛡 Супер-админ", "menu:super")));
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(rows);
-        return m;
+        return MAIN_MENU[isAdmin ? 1 : 0][isSuper ? 1 : 0];
     }
 
     public static InlineKeyboardMarkup backToMenu() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(List.of(btn("🔙 Вернуться в меню", "menu:main"))));
-        return m;
+        return BACK_TO_MENU;
     }
 
     public static InlineKeyboardMarkup backToAdmin() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(List.of(btn("🔙 Вернуться в админ-панель", "menu:admin"))));
-        return m;
+        return BACK_TO_ADMIN;
     }
 
     /* ========================= Панели админов ========================= */
 
+    private static final Frozen ADMIN_PANEL = new Frozen(List.of(
+            row("👥 Мои клиенты", "admin:my"),
+            row("➕ Добавить клиента", "admin:groupadd"),
+            row("➖ Удалить клиента", "admin:groupdel"),
+            row("📞 Мои контакты", "admin:contact"),
+            row("⏰ Время рассылки", "admin:settime")));
+
+    private static final Frozen SUPER_ADMIN_PANEL = new Frozen(List.of(
+            row("➕ Добавить админа", "super:add"),
+            row("➖ Удалить админа", "super:del"),
+            TO_ADMIN,
+            row("🔙 В главное меню", "menu:main")));
+
+    private static final Frozen SUPER_ADMIN_BACK = new Frozen(List.of(
+            row("🔙 Супер-админ панель", "menu:super"),
+            row("🔙 Админ-панель", "menu:admin")));
+
     public static InlineKeyboardMarkup adminPanel() {
-        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
-        rows.add(List.of(btn("👥 Мои клиенты", "admin:my")));
-        rows.add(List.of(btn("➕ Добавить клиента", "admin:groupadd")));
-        rows.add(List.of(btn("➖ Удалить клиента", "admin:groupdel")));
-        rows.add(List.of(btn("📞 Мои контакты", "admin:contact")));
-        rows.add(List.of(btn("⏰ Время рассылки", "admin:settime")));
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(rows);
-        return m;
+        return ADMIN_PANEL;
     }
 
     public static InlineKeyboardMarkup superAdminPanel() {
-        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
-        rows.add(List.of(btn("➕ Добавить админа", "super:add")));
-        rows.add(List.of(btn("➖ Удалить админа", "super:del")));
-        rows.add(List.of(btn("🔙 В админ-панель", "menu:admin")));
-        rows.add(List.of(btn("🔙 В главное меню", "menu:main")));
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(rows);
-        return m;
+        return SUPER_ADMIN_PANEL;
     }
 
     public static InlineKeyboardMarkup superAdminBack() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(
-                List.of(btn("🔙 Супер-админ панель", "menu:super")),
-                List.of(btn("🔙 Админ-панель", "menu:admin"))
-        ));
-        return m;
+        return SUPER_ADMIN_BACK;
     }
 
     /* ========================= Кнопки отмен/спец ========================= */
 
+    private static final Frozen CONTACT_CANCEL_ONLY = new Frozen(List.of(row("✖️ Отменить ввод", "contact:cancel")));
+    private static final Frozen REPORT_CANCEL_ONLY = new Frozen(List.of(REPORT_CANCEL));
+    private static final Frozen REPORT_SKIP_OR_CANCEL = new Frozen(List.of(row("⏭ Пропустить", "report:skip"), REPORT_CANCEL));
+    private static final Frozen PARAMS_CANCEL_ONLY = new Frozen(List.of(PARAMS_CANCEL));
+    private static final Frozen PARAMS_SKIP_OR_CANCEL = new Frozen(List.of(row("⏭ Пропустить замер", "params:skip"), PARAMS_CANCEL));
+    private static final Frozen GO_PARAMS = new Frozen(List.of(
+            row("📏 Заполнить параметры", "menu:params"),
+            row("🔙 В меню", "menu:main")));
+
     public static InlineKeyboardMarkup contactCancelOnly() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(List.of(btn("✖️ Отменить ввод", "contact:cancel"))));
-        return m;
+        return CONTACT_CANCEL_ONLY;
     }
 
     public static InlineKeyboardMarkup reportCancel() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(List.of(btn("✖️ Отменить заполнение", "report:cancel"))));
-        return m;
+        return REPORT_CANCEL_ONLY;
     }
 
     public static InlineKeyboardMarkup reportSkipOrCancel() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
-        rows.add(List.of(btn("⏭ Пропустить", "report:skip")));
-        rows.add(List.of(btn("✖️ Отменить заполнение", "report:cancel")));
-        m.setKeyboard(rows);
-        return m;
+        return REPORT_SKIP_OR_CANCEL;
     }
 
     public static InlineKeyboardMarkup paramsCancelOnly() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(List.of(btn("✖️ Отменить ввод", "params:cancel"))));
-        return m;
+        return PARAMS_CANCEL_ONLY;
     }
 
     public static InlineKeyboardMarkup paramsSkipOrCancel() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(
-                List.of(btn("⏭ Пропустить замер", "params:skip")),
-                List.of(btn("✖️ Отменить ввод", "params:cancel"))
-        ));
-        return m;
+        return PARAMS_SKIP_OR_CANCEL;
     }
 
     public static InlineKeyboardMarkup inlineGoParams() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(
-                List.of(btn("📏 Заполнить параметры", "menu:params")),
-                List.of(btn("🔙 В меню", "menu:main"))
-        ));
-        return m;
+        return GO_PARAMS;
     }
 
-    public static InlineKeyboardMarkup remindParamsAndBack(String userId) {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(
-                List.of(btn("🔔 Напомнить о параметрах", "params:remind:" + userId)),
-                List.of(btn("🔙 Вернуться в админ-панель", "menu:admin"))
-        ));
-        return m;
+    public static InlineKeyboardMarkup remindParamsAndBack(long userId) {
+        return new InlineKeyboardMarkup(List.of(row("🔔 Напомнить о параметрах", "params:remind:" + userId), BACK_ADMIN));
     }
 
     /* ========================= План тренировок: завершение ========================= */
 
+    private static final Frozen PLAN_FINALIZE = new Frozen(List.of(row("✅ Установить план", "plan:finish"), BACK_MENU));
+    private static final Frozen ALL_PLAN_FINALIZE = new Frozen(List.of(row("✅ Завершить план", "all:plan_finish"), BACK_ADMIN));
+
     /** Старая кнопка — всё ещё используется в обычном PlanWizard */
     public static InlineKeyboardMarkup planFinalizeButton() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(
-                List.of(btn("✅ Установить план", "plan:finish")),
-                List.of(btn("🔙 Вернуться в меню", "menu:main"))
-        ));
-        return m;
+        return PLAN_FINALIZE;
     }
 
     /** Новая кнопка — завершение шага плана внутри единого визарда */
     public static InlineKeyboardMarkup allPlanFinalizeButton() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(
-                List.of(btn("✅ Завершить план", "all:plan_finish")),
-                List.of(btn("🔙 Вернуться в админ-панель", "menu:admin"))
-        ));
-        return m;
+        return ALL_PLAN_FINALIZE;
     }
 
     /* ========================= Пейджер и быстрые даты ========================= */
 
     public static InlineKeyboardMarkup pager(String base, int page, int pages) {
-        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
-        List<InlineKeyboardButton> nav = new ArrayList<>();
-        nav.add(btn("⬅️", base + ":" + Math.max(1, page - 1)));
-        nav.add(btn("📄 " + page + "/" + pages, "noop"));
-        nav.add(btn("➡️", base + ":" + Math.min(pages, page + 1)));
-        rows.add(nav);
-        rows.add(List.of(btn("🔙 Вернуться в админ-панель", "menu:admin")));
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(rows);
-        return m;
+        return new InlineKeyboardMarkup(List.of(List.of(
+                btn("⬅️", base + ":" + Math.max(1, page - 1)),
+                btn("📄 " + page + "/" + pages, "noop"),
+                btn("➡️", base + ":" + Math.min(pages, page + 1))), BACK_ADMIN));
     }
 
-    public static InlineKeyboardMarkup dateQuickPick(String base, LocalDate today) {
-        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
-        List<InlineKeyboardButton> r1 = new ArrayList<>();
-        List<InlineKeyboardButton> r2 = new ArrayList<>();
-        List<InlineKeyboardButton> r3 = new ArrayList<>();
-
-        r1.add(btn("1 день", base + ":1"));
-        r1.add(btn("2 день", base + ":2"));
-        r1.add(btn("3 день", base + ":3"));
-
-        r2.add(btn("4 день", base + ":4"));
-        r2.add(btn("5 день", base + ":5"));
-        r2.add(btn("6 день", base + ":6"));
-
-        r3.add(btn("7 день", base + ":7"));
+    /**
+     * Пейджер с курсорами (keyset): «base:p:стр:ключ» — назад, «base:n:стр:ключ» — вперёд.
+     * Стрелка показывается, только если соседняя страница есть (prev/next не null).
+     */
+    public static InlineKeyboardMarkup cursorPager(String base, int page, Long prev, Long next) {
+        List<InlineKeyboardButton> nav = new ArrayList<>(3);
+        if (prev != null) nav.add(btn("⬅️", base + ":p:" + (page - 1) + ":" + prev));
+        nav.add(btn("📄 " + page, "noop"));
+        if (next != null) nav.add(btn("➡️", base + ":n:" + (page + 1) + ":" + next));
+        return new InlineKeyboardMarkup(List.of(List.copyOf(nav), BACK_ADMIN));
+    }
 
-        rows.add(r1);
-        rows.add(r2);
-        rows.add(r3);
-        rows.add(List.of(btn("🔙 Вернуться в админ-панель", "menu:admin")));
+    // base — константы из кода, поэтому набор ключей маленький
+    private static final Map<String, Frozen> DATE_PICKS = new ConcurrentHashMap<>();
 
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(rows);
-        return m;
+    /** Дни 1–7 не зависят от даты: клавиатура на каждый base собирается один раз. */
+    public static InlineKeyboardMarkup dateQuickPick(String base, LocalDate today) {
+        return DATE_PICKS.computeIfAbsent(base, b -> new Frozen(List.of(
+                List.of(btn("1 день", b + ":1"), btn("2 день", b + ":2"), btn("3 день", b + ":3")),
+                List.of(btn("4 день", b + ":4"), btn("5 день", b + ":5"), btn("6 день", b + ":6")),
+                List.of(btn("7 день", b + ":7")),
+                BACK_ADMIN)));
     }
 
     /* ========================= Вечерняя рассылка (кнопка отчёта) ========================= */
 
+    private static final Frozen REPORT_BUTTON = new Frozen(List.of(row("📝 Заполнить отчёт", "report:start"), BACK_MENU));
+
     public static InlineKeyboardMarkup reportButton() {
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(List.of(
-                List.of(btn("📝 Заполнить отчёт", "report:start")),
-                List.of(btn("🔙 Вернуться в меню", "menu:main"))
-        ));
-        return m;
+        return REPORT_BUTTON;
     }
 
     public static InlineKeyboardMarkup paramsPhotoStep() {
@@ -226,14 +261,11 @@ public class Keyboards {
     /* ========================= Меню действий по выбранному клиенту ========================= */
 
     public static InlineKeyboardMarkup adminClientActions(String userId) {
-        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
         // ⬇⬇⬇ БЫЛО 3 кнопки -> теперь одна
-        rows.add(List.of(btn("🧩 Написать программу", "client:set:" + userId)));
-        rows.add(List.of(btn("📝 Отчёты клиента", "client:reports:" + userId)));
-        rows.add(List.of(btn("📏 Параметры клиента", "client:params:" + userId)));
-        rows.add(List.of(btn("🔙 В админ-панель", "menu:admin")));
-        InlineKeyboardMarkup m = new InlineKeyboardMarkup();
-        m.setKeyboard(rows);
-        return m;
-    }
-}
\ No newline at end of file
+        return new InlineKeyboardMarkup(List.of(
+                row("🧩 Написать программу", "client:set:" + userId),
+                row("📝 Отчёты клиента", "client:reports:" + userId),
+                row("📏 Параметры клиента", "client:params:" + userId),
+                TO_ADMIN));
+    }
+}
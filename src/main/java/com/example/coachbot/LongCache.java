@@ -0,0 +1,189 @@
+package com.example.coachbot;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Ограниченный кэш с ключом long (Telegram id) без боксинга.
+ *
+ *  - открытая адресация с линейным пробированием, удаление сдвигом назад (без «надгробий»);
+ *  - вытеснение CLOCK: при переполнении стрелка пропускает недавно прочитанные записи;
+ *  - необязательный TTL — страховка от правок БД в обход репозиториев;
+ *  - счётчики попаданий/промахов для /stats.
+ *
+ * Инвалидация из записи: {@link #put}/{@link #remove} увеличивают поколение, и загрузка, начатая до них,
+ * свой (уже устаревший) результат в кэш не положит.
+ * null-значения не хранятся — «нет записи» вызывающий кодирует своим значением-маркером.
+ */
+public final class LongCache<V> {
+
+    /** Загрузка значения при промахе (обычно — SELECT из пула читателей). */
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load(long key) throws Exception;
+    }
+
+    private static final List<LongCache<?>> ALL = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final int mask;
+    private final long[] keys;
+    private final Object[] vals;
+    private final long[] expires;
+    private final boolean[] used;
+    private int size;
+    private int hand;
+    private long generation;
+
+    private final LongProbing.Table cells = new LongProbing.Table() {
+        public boolean occupied(int i) { return vals[i] != null; }
+        public long keyAt(int i) { return keys[i]; }
+        public void move(int from, int to) {
+            keys[to] = keys[from];
+            vals[to] = vals[from];
+            expires[to] = expires[from];
+            used[to] = used[from];
+        }
+        public void free(int i) { vals[i] = null; used[i] = false; }
+    };
+
+    // метрики (под монитором кэша)
+    private long hits, misses, evictions, expired;
+
+    public LongCache(String name, int maxSize, long ttlMs) {
+        this.name = name;
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlNanos = ttlMs <= 0 ? 0 : ttlMs * 1_000_000L;
+        int cap = Integer.highestOneBit(this.maxSize * 2 - 1) << 1; // степень двойки, заполнение ≤ 50%
+        this.mask = cap - 1;
+        this.keys = new long[cap];
+        this.vals = new Object[cap];
+        this.expires = new long[cap];
+        this.used = new boolean[cap];
+        ALL.add(this);
+    }
+
+    /** Значение из кэша или null (промах/истёк срок). */
+    @SuppressWarnings("unchecked")
+    public synchronized V get(long key) {
+        int i = find(key);
+        if (i >= 0 && ttlNanos > 0 && System.nanoTime() - expires[i] > 0) {
+            expired++;
+            delete(i);
+            i = -1;
+        }
+        if (i < 0) { misses++; return null; }
+        hits++;
+        used[i] = true;
+        return (V) vals[i];
+    }
+
+    /**
+     * Значение из кэша, при промахе — загрузка вне блокировки и запись в кэш.
+     * Промах грузится только из зафиксированного; ключ, записанный текущей единицей работы Db ({@link #touch}),
+     * читается мимо кэша — она видит свою запись.
+     */
+    public V get(long key, Loader<V> loader) throws Exception {
+        if (Db.touched(name, key)) return loader.load(key);
+        V v = get(key);
+        if (v != null) return v;
+        long gen;
+        synchronized (this) { gen = generation; }
+        v = Db.readCommitted(() -> loader.load(key));
+        if (v != null) {
+            synchronized (this) {
+                if (gen == generation) insert(key, v);
+            }
+        }
+        return v;
+    }
+
+    /** Запись из репозитория (write-through): загрузки, начатые раньше, её не перезапишут. */
+    public synchronized void put(long key, V value) {
+        if (value == null) { remove(key); return; }
+        generation++;
+        insert(key, value);
+    }
+
+    /** Ключ записывается в текущей единице работы Db (вне её — ничего). */
+    public void touch(long key) {
+        Db.touch(name, key);
+    }
+
+    public synchronized void remove(long key) {
+        generation++;
+        int i = find(key);
+        if (i >= 0) delete(i);
+    }
+
+    public synchronized void clear() {
+        generation++;
+        java.util.Arrays.fill(vals, null);
+        size = 0;
+    }
+
+    /* ===================== таблица ===================== */
+
+    private int slot(long key) {
+        return LongProbing.slot(key, mask);
+    }
+
+    private int find(long key) {
+        for (int i = slot(key); vals[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) return i;
+        }
+        return -1;
+    }
+
+    private void insert(long key, Object value) {
+        int i = find(key);
+        if (i < 0) {
+            if (size >= maxSize) evictOne();
+            i = slot(key);
+            while (vals[i] != null) i = (i + 1) & mask;
+            keys[i] = key;
+            size++;
+        }
+        vals[i] = value;
+        used[i] = false;
+        if (ttlNanos > 0) expires[i] = System.nanoTime() + ttlNanos;
+    }
+
+    /** CLOCK: первая запись без отметки об использовании; отмеченным даём второй шанс. */
+    private void evictOne() {
+        while (true) {
+            hand = (hand + 1) & mask;
+            if (vals[hand] == null) continue;
+            if (used[hand]) { used[hand] = false; continue; }
+            evictions++;
+            delete(hand);
+            return;
+        }
+    }
+
+    /** Удаление с обратным сдвигом: следующие записи цепочки переезжают ближе к своему слоту. */
+    private void delete(int i) {
+        LongProbing.delete(cells, i, mask);
+        size--;
+    }
+
+    /* ===================== метрики ===================== */
+
+    public synchronized String stats() {
+        long total = hits + misses;
+        return String.format("%s: size=%d/%d hits=%d misses=%d hitRate=%.1f%% evictions=%d expired=%d",
+                name, size, maxSize, hits, misses, total == 0 ? 0.0 : 100.0 * hits / total, evictions, expired);
+    }
+
+    /** Все созданные кэши — для /stats. */
+    public static String allStats() {
+        StringBuilder sb = new StringBuilder();
+        for (LongCache<?> c : ALL) {
+            if (sb.length() > 0) sb.append("\n");
+            sb.append(c.stats());
+        }
+        return sb.toString();
+    }
+}
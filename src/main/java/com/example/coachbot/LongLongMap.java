@@ -0,0 +1,84 @@
+package com.example.coachbot;
+
+import java.util.Arrays;
+
+/**
+ * Отображение long → long без боксинга (та же схема, что у {@link LongSet}, ядро — {@link LongProbing}).
+ * Long.MIN_VALUE как ключ хранить нельзя. Не потокобезопасно — синхронизирует владелец.
+ */
+public final class LongLongMap {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private long[] vals;
+    private int size;
+
+    private final LongProbing.Table cells = new LongProbing.Table() {
+        public boolean occupied(int i) { return keys[i] != EMPTY; }
+        public long keyAt(int i) { return keys[i]; }
+        public void move(int from, int to) { keys[to] = keys[from]; vals[to] = vals[from]; }
+        public void free(int i) { keys[i] = EMPTY; }
+    };
+
+    public LongLongMap() { this(8); }
+
+    public LongLongMap(int expected) {
+        int cap = LongProbing.capacityFor(expected);
+        keys = new long[cap];
+        vals = new long[cap];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public int size() { return size; }
+
+    /** Значение или missing, если ключа нет. */
+    public long get(long key, long missing) {
+        int mask = keys.length - 1;
+        for (int i = LongProbing.slot(key, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) return vals[i];
+        }
+        return missing;
+    }
+
+    public void put(long key, long value) {
+        if (key == EMPTY) throw new IllegalArgumentException("Long.MIN_VALUE is reserved");
+        if ((size + 1) * 2 > keys.length) rehash(keys.length * 2);
+        int mask = keys.length - 1;
+        int i = LongProbing.slot(key, mask);
+        for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) { vals[i] = value; return; }
+        }
+        keys[i] = key;
+        vals[i] = value;
+        size++;
+    }
+
+    /** true — ключ был. */
+    public boolean remove(long key) {
+        int mask = keys.length - 1;
+        int i = LongProbing.slot(key, mask);
+        for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] != key) continue;
+            LongProbing.delete(cells, i, mask);
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    private void rehash(int cap) {
+        long[] oldK = keys, oldV = vals;
+        keys = new long[cap];
+        vals = new long[cap];
+        Arrays.fill(keys, EMPTY);
+        int mask = cap - 1;
+        for (int n = 0; n < oldK.length; n++) {
+            if (oldK[n] == EMPTY) continue;
+            int i = LongProbing.slot(oldK[n], mask);
+            while (keys[i] != EMPTY) i = (i + 1) & mask;
+            keys[i] = oldK[n];
+            vals[i] = oldV[n];
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.coachbot;
+
+/**
+ * Общее ядро таблиц с ключом long и открытой адресацией ({@link LongSet}, {@link LongLongMap}, {@link LongObjMap}, {@link LongCache}):
+ * хэш слота, ёмкость и удаление сдвигом назад (без «надгробий»).
+ */
+final class LongProbing {
+
+    private LongProbing() {}
+
+    /** Ячейки конкретной таблицы: как понять, что занята, и как перенести/освободить все её массивы. */
+    interface Table {
+        boolean occupied(int i);
+        long keyAt(int i);
+        void move(int from, int to);
+        void free(int i);
+    }
+
+    /** Степень двойки с заполнением ≤ 50%. */
+    static int capacityFor(int expected) {
+        return Integer.highestOneBit(Math.max(4, expected * 2) - 1) << 1;
+    }
+
+    static int slot(long v, int mask) {
+        long h = v * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /** Освободить занятую ячейку i: хвост цепочки подтягивается, чтобы поиск не обрывался на дыре. */
+    static void delete(Table t, int i, int mask) {
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (!t.occupied(j)) break;
+            int home = slot(t.keyAt(j), mask);
+            // запись в j может занять i, только если её слот не лежит циклически в (i, j]
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (stays) continue;
+            t.move(j, i);
+            i = j;
+        }
+        t.free(i);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.coachbot;
+
+import java.util.Arrays;
+
+/**
+ * Множество long без боксинга: открытая адресация, линейное пробирование, удаление сдвигом назад.
+ * Long.MIN_VALUE — маркер пустой ячейки, хранить его нельзя (Telegram id всегда положительные).
+ * Не потокобезопасно — синхронизирует владелец.
+ */
+public final class LongSet {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] table;
+    private int size;
+
+    private final LongProbing.Table cells = new LongProbing.Table() {
+        public boolean occupied(int i) { return table[i] != EMPTY; }
+        public long keyAt(int i) { return table[i]; }
+        public void move(int from, int to) { table[to] = table[from]; }
+        public void free(int i) { table[i] = EMPTY; }
+    };
+
+    public LongSet() { this(8); }
+
+    public LongSet(int expected) {
+        table = new long[LongProbing.capacityFor(expected)];
+        Arrays.fill(table, EMPTY);
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public boolean contains(long v) {
+        int mask = table.length - 1;
+        for (int i = LongProbing.slot(v, mask); table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] == v) return true;
+        }
+        return false;
+    }
+
+    /** true — элемента не было. */
+    public boolean add(long v) {
+        if (v == EMPTY) throw new IllegalArgumentException("Long.MIN_VALUE is reserved");
+        if ((size + 1) * 2 > table.length) rehash(table.length * 2);
+        int mask = table.length - 1;
+        int i = LongProbing.slot(v, mask);
+        for (; table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] == v) return false;
+        }
+        table[i] = v;
+        size++;
+        return true;
+    }
+
+    /** true — элемент был. */
+    public boolean remove(long v) {
+        int mask = table.length - 1;
+        int i = LongProbing.slot(v, mask);
+        for (; table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] != v) continue;
+            LongProbing.delete(cells, i, mask);
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    /** Элементы по возрастанию (копия). */
+    public long[] toSortedArray() {
+        long[] out = new long[size];
+        int n = 0;
+        for (long v : table) if (v != EMPTY) out[n++] = v;
+        Arrays.sort(out);
+        return out;
+    }
+
+    private void rehash(int cap) {
+        long[] old = table;
+        table = new long[cap];
+        Arrays.fill(table, EMPTY);
+        int mask = cap - 1;
+        for (long v : old) {
+            if (v == EMPTY) continue;
+            int i = LongProbing.slot(v, mask);
+            while (table[i] != EMPTY) i = (i + 1) & mask;
+            table[i] = v;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.coachbot;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Асинхронная отправка в Telegram.
+ *
+ * Вызовы API раскладываются по фиксированному набору потоков-отправителей по id чата: у каждого потока
+ * своя ограниченная очередь, поэтому сообщения одного чата уходят строго по порядку, а разные чаты — параллельно.
+ * Обработчик апдейта и рассылка не ждут сети; результат (или ошибка) — в возвращаемом future.
+ * При заполненной очереди {@link #send} ждёт (backpressure на производителя).
+ *
+ * Лимиты Telegram соблюдает {@link RateLimiter}: поток держит вызовы по чатам и берёт следующим чат,
+ * которому раньше всех можно отправлять, — ждущий своего слота чат не задерживает остальные чаты потока.
+ * Ошибки разбирает {@link RetryPolicy}: повтор встаёт в начало очереди своего чата (порядок сохраняется)
+ * с задержкой, future завершается только после успеха или окончательной ошибки.
+ */
+final class OutboundSender {
+
+    /** Вызов Telegram API, выполняется в потоке отправителя. */
+    @FunctionalInterface
+    interface Call<T> {
+        T run() throws Exception;
+    }
+
+    // вызовы без чата (ответы на callback) — только под общим лимитом
+    private static final long NO_CHAT = Long.MIN_VALUE;
+    private static final long SWEEP_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final class Job<T> {
+        final long chat;
+        final Call<T> call;
+        final CompletableFuture<T> done = new CompletableFuture<>();
+        final long enqueuedAt = System.nanoTime();
+        int attempts;
+
+        Job(long chat, Call<T> call) { this.chat = chat; this.call = call; }
+    }
+
+    /** Очередь вызовов одного чата внутри потока и его бакет. */
+    private static final class Chat {
+        final long id;
+        final ArrayDeque<Job<?>> jobs = new ArrayDeque<>();
+        final RateLimiter.Bucket bucket = new RateLimiter.Bucket();
+        long readyAt;
+
+        Chat(long id) { this.id = id; }
+    }
+
+    // единственный отправитель процесса — для /stats
+    private static volatile OutboundSender current;
+
+    private final List<BlockingQueue<Job<?>>> queues;
+    private final Thread[] workers;
+    private final int capacity;
+    private final RateLimiter limiter;
+    private final RetryPolicy retry;
+    private final AtomicInteger held = new AtomicInteger(); // разобраны из очередей, ждут слота
+    private volatile boolean running = true;
+
+    // метрики
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong queueNanos = new AtomicLong();
+    private final AtomicLong callNanos = new AtomicLong();
+    private volatile int maxDepthSeen;
+    private volatile long maxWaitNanos;
+
+    OutboundSender(int workers, int capacityPerWorker, RateLimiter limiter, RetryPolicy retry) {
+        int n = Math.max(1, workers);
+        this.capacity = Math.max(1, capacityPerWorker);
+        this.limiter = limiter;
+        this.retry = retry;
+        this.queues = new ArrayList<>(n);
+        this.workers = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            BlockingQueue<Job<?>> q = new LinkedBlockingQueue<>(capacity);
+            queues.add(q);
+            Thread t = new Thread(new Worker(q), "tg-send-" + i);
+            t.setDaemon(true);
+            this.workers[i] = t;
+            t.start();
+        }
+        current = this;
+    }
+
+    /** Поставить вызов в очередь чата chatId (строка из метода API: id или @username). */
+    <T> CompletableFuture<T> send(String chatId, Call<T> call) {
+        return enqueue(chatKey(chatId), chatId, call);
+    }
+
+    /**
+     * Вызов, не привязанный к чату (ответ на callback): только общий лимит и повторы.
+     * key лишь распределяет такие вызовы по потокам.
+     */
+    <T> CompletableFuture<T> sendNoChat(String key, Call<T> call) {
+        return enqueue(NO_CHAT, key, call);
+    }
+
+    private <T> CompletableFuture<T> enqueue(long chat, String chatId, Call<T> call) {
+        Job<T> j = new Job<>(chat, call);
+        if (!running) {
+            j.done.completeExceptionally(new IllegalStateException("sender is stopped"));
+            return j.done;
+        }
+        int h = chat == NO_CHAT ? (chatId == null ? 0 : chatId.hashCode()) : (int) (chat ^ (chat >>> 32));
+        BlockingQueue<Job<?>> q = queues.get(Math.floorMod(h, queues.size()));
+        try {
+            if (!q.offer(j)) {
+                blocked.incrementAndGet();
+                q.put(j);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            j.done.completeExceptionally(e);
+            return j.done;
+        }
+        int depth = q.size();
+        if (depth > maxDepthSeen) maxDepthSeen = depth;
+        return j.done;
+    }
+
+    /** Числовой id чата; @username — NO_CHAT. */
+    private static long chatKey(String chatId) {
+        if (chatId == null) return NO_CHAT;
+        try {
+            return Long.parseLong(chatId.trim());
+        } catch (NumberFormatException e) {
+            return NO_CHAT;
+        }
+    }
+
+    /**
+     * Поток-отправитель: забирает вызовы из своей очереди (не больше capacity на руках),
+     * раскладывает по чатам и выполняет чат с самым ранним разрешённым временем.
+     */
+    private final class Worker implements Runnable {
+        private final BlockingQueue<Job<?>> incoming;
+        private final Map<Long, Chat> chats = new HashMap<>();
+        private final PriorityQueue<Chat> ready = new PriorityQueue<>((a, b) -> Long.compare(a.readyAt, b.readyAt));
+        private int pending;
+        private long lastSweep = System.nanoTime();
+
+        Worker(BlockingQueue<Job<?>> incoming) { this.incoming = incoming; }
+
+        @Override
+        public void run() {
+            try {
+                while (running || pending > 0 || !incoming.isEmpty()) {
+                    Chat head = ready.peek();
+                    long now = System.nanoTime();
+                    long wait = head == null ? TimeUnit.SECONDS.toNanos(1) : head.readyAt - now;
+                    if (wait > 0) {
+                        if (pending < capacity) {
+                            Job<?> j = incoming.poll(wait, TimeUnit.NANOSECONDS);
+                            while (j != null) {
+                                accept(j);
+                                j = pending < capacity ? incoming.poll() : null;
+                            }
+                        } else {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+                        continue;
+                    }
+                    ready.poll();
+                    Job<?> j = head.jobs.poll();
+                    long g = limiter.reserveGlobal(System.nanoTime());
+                    if (g > 0) TimeUnit.NANOSECONDS.sleep(g);
+                    long again = execute(j);
+                    long at = System.nanoTime();
+                    if (head.id != NO_CHAT) limiter.sent(head.id, head.bucket, at);
+                    if (again >= 0) {
+                        // повтор раньше следующих сообщений чата; retry_after сдвигает и лимит чата
+                        head.jobs.addFirst(j);
+                        head.bucket.tat = Math.max(head.bucket.tat, at + again);
+                        head.readyAt = at + again;
+                        ready.add(head);
+                        continue;
+                    }
+                    pending--;
+                    held.decrementAndGet();
+                    if (!head.jobs.isEmpty()) schedule(head, System.nanoTime());
+                    sweep();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void accept(Job<?> j) {
+            Chat c = chats.computeIfAbsent(j.chat, Chat::new);
+            c.jobs.add(j);
+            pending++;
+            held.incrementAndGet();
+            if (c.jobs.size() == 1) schedule(c, System.nanoTime());
+        }
+
+        private void schedule(Chat c, long now) {
+            c.readyAt = c.id == NO_CHAT ? now : limiter.readyAt(c.id, c.bucket, now);
+            ready.add(c);
+        }
+
+        /** Раз в минуту забываем чаты без вызовов с погашенным лимитом. */
+        private void sweep() {
+            long now = System.nanoTime();
+            if (now - lastSweep < SWEEP_NANOS) return;
+            lastSweep = now;
+            for (Iterator<Chat> it = chats.values().iterator(); it.hasNext(); ) {
+                Chat c = it.next();
+                if (c.jobs.isEmpty() && RateLimiter.idle(c.bucket, now)) it.remove();
+            }
+        }
+    }
+
+    /** Выполнить вызов. Возвращает задержку до повтора (нс) или -1, если future уже завершён. */
+    private <T> long execute(Job<T> j) {
+        long t0 = System.nanoTime();
+        if (j.attempts++ == 0) {
+            long waited = t0 - j.enqueuedAt;
+            queueNanos.addAndGet(waited);
+            if (waited > maxWaitNanos) maxWaitNanos = waited;
+        }
+        try {
+            T r = j.call.run();
+            sent.incrementAndGet();
+            retry.succeeded();
+            j.done.complete(r);
+            return -1;
+        } catch (Throwable e) {
+            long again = retry.onFailure(e, j.attempts, j.chat);
+            if (again >= 0) return again;
+            failed.incrementAndGet();
+            j.done.completeExceptionally(e);
+            return -1;
+        } finally {
+            callNanos.addAndGet(System.nanoTime() - t0);
+        }
+    }
+
+    /** Дождаться отправки уже поставленного (не дольше timeoutMs) и остановить потоки. */
+    void shutdown(long timeoutMs) {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Thread t : workers) {
+            try {
+                t.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    String stats() {
+        int queued = 0;
+        for (BlockingQueue<Job<?>> q : queues) queued += q.size();
+        long done = sent.get() + failed.get();
+        return String.format("outbound: workers=%d queued=%d/%d held=%d maxDepth=%d sent=%d failed=%d blocked=%d " +
+                        "avgWait=%.1fms maxWait=%.1fms avgCall=%.1fms%n%s",
+                queues.size(), queued, queues.size() * capacity, held.get(), maxDepthSeen, sent.get(), failed.get(),
+                blocked.get(), done == 0 ? 0.0 : queueNanos.get() / 1e6 / done, maxWaitNanos / 1e6,
+                done == 0 ? 0.0 : callNanos.get() / 1e6 / done, limiter.stats() + "\n" + retry.stats());
+    }
+
+    /** Строка для /stats (пусто, если отправитель не создан). */
+    static String currentStats() {
+        OutboundSender s = current;
+        return s == null ? "" : s.stats();
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.coachbot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Лимиты Telegram на отправку: ~30 сообщений/с на бота, ~1/с в личный чат, ~20/мин в группу.
+ *
+ * Каждый лимит — token bucket в форме GCRA: хранится «теоретическое время» следующего слота (tat);
+ * отправка разрешена с tat - tolerance, где tolerance = (burst - 1) * interval.
+ * Лимитер не отказывает, а говорит, когда можно: вызовы планируются на ближайший разрешённый момент.
+ *
+ * Общий лимит — один на процесс (под монитором), лимиты чатов живут в потоках OutboundSender:
+ * каждый чат обслуживает ровно один поток, поэтому состояние чата без синхронизации.
+ */
+final class RateLimiter {
+
+    /** Состояние лимита одного чата (принадлежит потоку-отправителю). */
+    static final class Bucket {
+        long tat = System.nanoTime(); // nanoTime бывает отрицательным — «пустой» бакет начинается с текущего момента
+    }
+
+    private final long globalInterval, globalTolerance;
+    private final long chatInterval, chatTolerance;
+    private final long groupInterval, groupTolerance;
+    private long globalTat = System.nanoTime();
+
+    // метрики
+    private final AtomicLong globalWaits = new AtomicLong();
+    private final AtomicLong globalWaitNanos = new AtomicLong();
+    private final AtomicLong chatDelays = new AtomicLong();
+
+    RateLimiter(int globalPerSec, int globalBurst, int chatPerSec, int chatBurst, int groupPerMin, int groupBurst) {
+        this.globalInterval = interval(1_000_000_000L, globalPerSec);
+        this.globalTolerance = tolerance(globalInterval, globalBurst);
+        this.chatInterval = interval(1_000_000_000L, chatPerSec);
+        this.chatTolerance = tolerance(chatInterval, chatBurst);
+        this.groupInterval = interval(60_000_000_000L, groupPerMin);
+        this.groupTolerance = tolerance(groupInterval, groupBurst);
+    }
+
+    /** Лимиты из ENV (0 в *_PER_* — лимит выключен). */
+    static RateLimiter fromEnv() {
+        return new RateLimiter(
+                intEnv("RATE_GLOBAL_PER_SEC", 30), intEnv("RATE_GLOBAL_BURST", 30),
+                intEnv("RATE_CHAT_PER_SEC", 1), intEnv("RATE_CHAT_BURST", 3),
+                intEnv("RATE_GROUP_PER_MIN", 20), intEnv("RATE_GROUP_BURST", 3));
+    }
+
+    private static long interval(long periodNanos, int count) {
+        return count <= 0 ? 0 : periodNanos / count;
+    }
+
+    private static long tolerance(long interval, int burst) {
+        return interval * (Math.max(1, burst) - 1);
+    }
+
+    /**
+     * Занять слот общего лимита. Возвращает, сколько наносекунд ждать до своего слота (0 — сразу).
+     * Слот закреплён за вызывающим, так что после ожидания он отправляет без повторной проверки.
+     */
+    long reserveGlobal(long now) {
+        if (globalInterval == 0) return 0;
+        long wait;
+        synchronized (this) {
+            long start = Math.max(now, globalTat - globalTolerance);
+            globalTat = Math.max(globalTat, start) + globalInterval;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            globalWaits.incrementAndGet();
+            globalWaitNanos.addAndGet(wait);
+        }
+        return wait;
+    }
+
+    /** Когда чату можно отправить следующее (nanoTime). Группы — отрицательные id. */
+    long readyAt(long chatId, Bucket b, long now) {
+        long at = b.tat - (chatId < 0 ? groupTolerance : chatTolerance);
+        if (at > now) chatDelays.incrementAndGet();
+        return at;
+    }
+
+    /** Учесть отправку в чат в момент now. */
+    void sent(long chatId, Bucket b, long now) {
+        b.tat = Math.max(b.tat, now) + (chatId < 0 ? groupInterval : chatInterval);
+    }
+
+    /** Бакет больше не нужен: долг по нему погашен, новый ведёт себя так же. */
+    static boolean idle(Bucket b, long now) {
+        return b.tat <= now;
+    }
+
+    String stats() {
+        long waits = globalWaits.get();
+        return String.format("rate: globalWaits=%d avgGlobalWait=%.1fms chatDelays=%d",
+                waits, waits == 0 ? 0.0 : globalWaitNanos.get() / 1e6 / waits, chatDelays.get());
+    }
+
+    private static int intEnv(String key, int def) {
+        try {
+            String v = System.getenv(key);
+            return (v == null || v.isBlank()) ? def : Integer.parseInt(v.trim());
+        } catch (Exception e) { return def; }
+    }
+}
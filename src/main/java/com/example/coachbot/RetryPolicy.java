@@ -0,0 +1,114 @@
+package com.example.coachbot;
+
+import org.telegram.telegrambots.meta.api.objects.ResponseParameters;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiValidationException;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Что делать с ошибкой вызова Telegram API.
+ *
+ *  - 429 — ждём retry_after из ответа (или backoff, если его нет) и повторяем;
+ *  - 5xx и сетевые ошибки — повтор с экспоненциальной задержкой и полным джиттером;
+ *  - 403 (бот заблокирован, пользователь удалён, бота выгнали) и «chat not found» — чат недоступен
+ *    навсегда: повторов нет, вызывается onBlocked (помечаем пользователя неактивным);
+ *  - остальное (400, невалидный запрос, ошибки кода) — постоянная ошибка, без повторов.
+ * Повторов не больше maxAttempts - 1; отправка после 5xx/обрыва может задублироваться — лучше, чем потеряться.
+ */
+final class RetryPolicy {
+
+    enum Outcome { OK, RETRY_AFTER, TRANSIENT, BLOCKED, PERMANENT, GAVE_UP }
+
+    private final int maxAttempts;
+    private final long baseNanos;
+    private final long capNanos;
+    private final LongConsumer onBlocked;
+    private final Map<Outcome, AtomicLong> counters = new EnumMap<>(Outcome.class);
+
+    RetryPolicy(int maxAttempts, long baseMs, long capMs, LongConsumer onBlocked) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, baseMs));
+        this.capNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(baseMs, capMs));
+        this.onBlocked = onBlocked;
+        for (Outcome o : Outcome.values()) counters.put(o, new AtomicLong());
+    }
+
+    void succeeded() {
+        counters.get(Outcome.OK).incrementAndGet();
+    }
+
+    /**
+     * Решение по ошибке attempt-й попытки (с 1) вызова в чат chatId.
+     * Возвращает задержку до повтора в наносекундах или -1 — не повторять.
+     */
+    long onFailure(Throwable e, int attempt, long chatId) {
+        Outcome o = classify(e);
+        long delay = switch (o) {
+            case RETRY_AFTER -> retryAfterNanos(e, attempt);
+            case TRANSIENT -> backoff(attempt);
+            default -> -1;
+        };
+        if (delay >= 0 && attempt >= maxAttempts) {
+            o = Outcome.GAVE_UP;
+            delay = -1;
+        }
+        counters.get(o).incrementAndGet();
+        if (o == Outcome.BLOCKED && chatId > 0) {
+            try { onBlocked.accept(chatId); } catch (Exception ex) { ex.printStackTrace(); }
+        }
+        if (delay >= 0) {
+            System.err.printf("[send] %s for chat %d, retry %d/%d in %d ms: %s%n", o, chatId, attempt,
+                    maxAttempts - 1, TimeUnit.NANOSECONDS.toMillis(delay), e.getMessage());
+        } else if (o == Outcome.BLOCKED) {
+            System.err.printf("[send] chat %d is unreachable: %s%n", chatId, e.getMessage());
+        } else {
+            e.printStackTrace();
+        }
+        return delay;
+    }
+
+    static Outcome classify(Throwable e) {
+        if (e instanceof TelegramApiRequestException re && re.getErrorCode() != null) {
+            int code = re.getErrorCode();
+            if (code == 429) return Outcome.RETRY_AFTER;
+            if (code >= 500) return Outcome.TRANSIENT;
+            if (code == 403) return Outcome.BLOCKED;
+            String r = re.getApiResponse();
+            if (code == 400 && r != null && r.toLowerCase().contains("chat not found")) return Outcome.BLOCKED;
+            return Outcome.PERMANENT;
+        }
+        // проверка запроса на нашей стороне (пустой текст, нет chat_id) — повтор не поможет
+        if (e instanceof TelegramApiValidationException) return Outcome.PERMANENT;
+        // без кода ответа — до Telegram не дошли (таймаут, обрыв соединения)
+        if (e instanceof TelegramApiException) return Outcome.TRANSIENT;
+        return Outcome.PERMANENT;
+    }
+
+    private long retryAfterNanos(Throwable e, int attempt) {
+        ResponseParameters p = ((TelegramApiRequestException) e).getParameters();
+        Integer sec = p == null ? null : p.getRetryAfter();
+        if (sec == null || sec <= 0) return backoff(attempt);
+        // небольшой запас, чтобы ожидающие чаты не ударили в одну и ту же секунду
+        return TimeUnit.SECONDS.toNanos(sec) + ThreadLocalRandom.current().nextLong(baseNanos);
+    }
+
+    /** Full jitter: случайно в [0, min(cap, base * 2^(attempt-1))]. */
+    private long backoff(int attempt) {
+        long max = baseNanos << Math.min(attempt - 1, 20);
+        if (max <= 0 || max > capNanos) max = capNanos;
+        return ThreadLocalRandom.current().nextLong(max + 1);
+    }
+
+    String stats() {
+        StringBuilder sb = new StringBuilder("retry:");
+        counters.forEach((o, n) -> sb.append(' ').append(o.name().toLowerCase()).append('=').append(n.get()));
+        return sb.toString();
+    }
+}
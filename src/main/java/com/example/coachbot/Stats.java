@@ -0,0 +1,33 @@
+package com.example.coachbot;
+
+import com.example.coachbot.migration.OnlineRebuild;
+import com.example.coachbot.repo.AssetRepo;
+import com.example.coachbot.repo.OutboxRepo;
+import com.example.coachbot.repo.UpdatesRepo;
+import com.example.coachbot.service.RetentionService;
+
+/** Сводка внутренних метрик для команды /stats (только супер-админы). */
+public class Stats {
+
+    public static String report() {
+        StringBuilder sb = new StringBuilder("📈 Метрики\n");
+        sb.append("\nDB pool:\n").append(Db.poolStats()).append("\n");
+        sb.append("\n").append(UpdatesRepo.stats()).append("\n");
+        String dispatch = UpdateDispatcher.currentStats();
+        if (!dispatch.isEmpty()) sb.append(dispatch).append("\n");
+        String outbound = OutboundSender.currentStats();
+        if (!outbound.isEmpty()) sb.append(outbound).append("\n");
+        sb.append(AssetRepo.stats()).append("\n");
+        sb.append(OutboxRepo.stats()).append("\n");
+        sb.append("\nCaches:\n").append(LongCache.allStats()).append("\n");
+        String callbacks = CallbackRouter.currentStats();
+        if (!callbacks.isEmpty()) sb.append("\nCallbacks:\n").append(callbacks).append("\n");
+        String wizards = WizardType.stats();
+        if (!wizards.isEmpty()) sb.append("\nWizards:\n").append(wizards).append("\n");
+        String rebuilds = OnlineRebuild.stats();
+        if (!rebuilds.isEmpty()) sb.append("\nRebuilds:\n").append(rebuilds).append("\n");
+        String retention = RetentionService.stats();
+        if (!retention.isEmpty()) sb.append("\nRetention:\n").append(retention).append("\n");
+        return sb.toString().trim();
+    }
+}
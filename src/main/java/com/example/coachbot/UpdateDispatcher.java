@@ -0,0 +1,139 @@
+package com.example.coachbot;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Параллельная обработка апдейтов с сохранением порядка внутри пользователя.
+ *
+ * Апдейты раскладываются по полосам (stripes) по id пользователя; полоса — последовательная очередь,
+ * которую разбирает один виртуальный поток, пока в ней есть работа. Апдейты одного пользователя
+ * всегда попадают в одну полосу и обрабатываются строго по порядку, разные полосы — параллельно.
+ * Медленный execute() к Telegram или ожидание писателя БД задерживает только свою полосу.
+ *
+ * Число апдейтов в работе (в очередях + обрабатываемых) ограничено maxInFlight:
+ * при переполнении {@link #submit} ждёт, и поток long polling перестаёт забирать новые (backpressure).
+ */
+final class UpdateDispatcher {
+
+    @FunctionalInterface
+    interface Handler {
+        void handle(Update u) throws Exception;
+    }
+
+    /** Последовательная очередь полосы; running — её сейчас разбирает поток. */
+    private static final class Stripe {
+        final ArrayDeque<Update> queue = new ArrayDeque<>();
+        boolean running;
+    }
+
+    // единственный диспетчер процесса — для /stats
+    private static volatile UpdateDispatcher current;
+
+    private final Handler handler;
+    private final Stripe[] stripes;
+    private final int mask;
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final ThreadFactory threads = Thread.ofVirtual().name("update-", 0).factory();
+
+    // метрики
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong handleNanos = new AtomicLong();
+    private volatile int maxDepthSeen;
+
+    UpdateDispatcher(Handler handler, int stripes, int maxInFlight) {
+        this.handler = handler;
+        int n = Integer.highestOneBit(Math.max(1, stripes) * 2 - 1); // степень двойки
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) this.stripes[i] = new Stripe();
+        this.mask = n - 1;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.permits = new Semaphore(this.maxInFlight);
+        current = this;
+    }
+
+    /** Поставить апдейт в полосу его пользователя; при maxInFlight апдейтов в работе — ждём. */
+    void submit(Update u) throws InterruptedException {
+        if (!permits.tryAcquire()) {
+            blocked.incrementAndGet();
+            permits.acquire();
+        }
+        submitted.incrementAndGet();
+        Stripe s = stripes[LongProbing.slot(userKey(u), mask)];
+        boolean start;
+        synchronized (s) {
+            s.queue.add(u);
+            queued.incrementAndGet();
+            if (s.queue.size() > maxDepthSeen) maxDepthSeen = s.queue.size();
+            start = !s.running;
+            s.running = true;
+        }
+        if (start) threads.newThread(() -> drain(s)).start();
+    }
+
+    private void drain(Stripe s) {
+        active.incrementAndGet();
+        try {
+            while (true) {
+                Update u;
+                synchronized (s) {
+                    u = s.queue.poll();
+                    if (u == null) { s.running = false; return; }
+                }
+                queued.decrementAndGet();
+                long t0 = System.nanoTime();
+                try {
+                    handler.handle(u);
+                    completed.incrementAndGet();
+                } catch (Throwable e) {
+                    failed.incrementAndGet();
+                    e.printStackTrace();
+                } finally {
+                    handleNanos.addAndGet(System.nanoTime() - t0);
+                    permits.release();
+                }
+            }
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    /** Ключ порядка — отправитель; если его нет — чат. */
+    static long userKey(Update u) {
+        User from = null;
+        if (u.hasMessage()) from = u.getMessage().getFrom();
+        else if (u.hasCallbackQuery()) from = u.getCallbackQuery().getFrom();
+        else if (u.hasEditedMessage()) from = u.getEditedMessage().getFrom();
+        else if (u.hasMyChatMember()) from = u.getMyChatMember().getFrom();
+        if (from != null) return from.getId();
+        if (u.hasChannelPost()) return u.getChannelPost().getChatId();
+        return 0;
+    }
+
+    String stats() {
+        long done = completed.get() + failed.get();
+        return String.format("dispatch: stripes=%d inFlight=%d/%d queued=%d activeStripes=%d maxDepth=%d " +
+                        "submitted=%d done=%d failed=%d blocked=%d avgHandle=%.1fms",
+                stripes.length, maxInFlight - permits.availablePermits(), maxInFlight, queued.get(), active.get(),
+                maxDepthSeen, submitted.get(), completed.get(), failed.get(), blocked.get(),
+                done == 0 ? 0.0 : handleNanos.get() / 1e6 / done);
+    }
+
+    /** Строка для /stats (пусто, если диспетчер не создан). */
+    static String currentStats() {
+        UpdateDispatcher d = current;
+        return d == null ? "" : d.stats();
+    }
+}
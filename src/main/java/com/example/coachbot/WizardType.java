@@ -0,0 +1,134 @@
+package com.example.coachbot;
+
+import com.example.coachbot.repo.StateRepo;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Типы состояний (визардов) из StateRepo — имя константы совпадает со строкой в БД.
+ *
+ * Каждый визард объявляет:
+ *  - какие кнопки разрешены, пока он активен («*» в конце — префикс; просто «*» — любые);
+ *  - клавиатуру отмены, с которой показывается предупреждение о заблокированной кнопке;
+ *  - обработчик сообщений — в {@code CoachBot.registerWizards()}.
+ * Тип по строке — одно обращение к хэш-таблице, счётчики визардов — в /stats.
+ */
+enum WizardType {
+
+    // пользовательские
+    REPORT(false, Keyboards::reportSkipOrCancel, "report:cancel", "report:skip"),
+    PARAMS(false, null, "*"),
+
+    // админские
+    CONTACT(true, Keyboards::contactCancelOnly, "contact:cancel"),
+    ASK_SET_CAL(true, Keyboards::backToAdmin, "pick:setcal*", "date:setcal*"),
+    ASK_SET_PLAN(true, Keyboards::backToAdmin, "pick:setplan*", "date:setplan*"),
+    ASK_SET_NORM(true, Keyboards::backToAdmin, "pick:setnorm*", "date:setnorm*"),
+    ASK_GROUP_ADD(true, Keyboards::backToAdmin, "pick:groupadd*"),
+    ASK_GROUP_DEL(true, Keyboards::backToAdmin, "pick:groupdel*"),
+    ASK_ADMIN_ADD(true, Keyboards::backToAdmin),
+    ASK_ADMIN_DEL(true, Keyboards::backToAdmin, "pick:admindel*"),
+    ASK_SET_TIME(true, Keyboards::backToAdmin),
+    ASK_REPORTS_VIEW(true, Keyboards::backToAdmin, "pick:reports*"),
+    ASK_PARAMS_VIEW(true, Keyboards::backToAdmin, "pick:params*"),
+    ASK_CLIENT_PICK(true, Keyboards::backToAdmin, "pick:client*"),
+
+    // старые визарды (совместимость)
+    SET_CAL(true, Keyboards::backToAdmin),
+    SET_PLAN(true, Keyboards::backToAdmin, "plan:finish"),
+    SET_NORM(true, Keyboards::backToAdmin),
+    SET_ALL(true, Keyboards::backToAdmin, "setall:plan:finish", "all:plan_finish", "date:setall*");
+
+    /** Обработчик сообщения в состоянии визарда; false — сообщение не его (обрабатывается дальше как обычное). */
+    @FunctionalInterface
+    interface Handler {
+        boolean handle(Message m, long tgId, String text, StateRepo.State st) throws Exception;
+    }
+
+    private static final String ADMIN_BUSY =
+            "Вы в процессе админ-действия. Завершите текущий шаг или вернитесь в админ-панель.";
+    private static final String REPORT_BUSY =
+            "Вы в процессе записи отчёта. Для отмены или пропуска используйте кнопки ниже.";
+
+    private static final Map<String, WizardType> BY_NAME = new HashMap<>();
+    static {
+        for (WizardType t : values()) BY_NAME.put(t.name(), t);
+    }
+
+    final boolean admin;
+    private final Supplier<InlineKeyboardMarkup> cancelKeyboard;
+    private final String[] exact;
+    private final String[] prefixes;
+
+    // метрики
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+
+    WizardType(boolean admin, Supplier<InlineKeyboardMarkup> cancelKeyboard, String... allowed) {
+        this.admin = admin;
+        this.cancelKeyboard = cancelKeyboard;
+        int np = 0;
+        for (String a : allowed) if (a.endsWith("*")) np++;
+        this.exact = new String[allowed.length - np];
+        this.prefixes = new String[np];
+        int ie = 0, ip = 0;
+        for (String a : allowed) {
+            if (a.endsWith("*")) prefixes[ip++] = a.substring(0, a.length() - 1);
+            else exact[ie++] = a;
+        }
+    }
+
+    /** Тип по строке из StateRepo или null (нет состояния / неизвестный тип — визард не активен). */
+    static WizardType of(StateRepo.State st) {
+        return st == null || st.type() == null ? null : BY_NAME.get(st.type());
+    }
+
+    /** Можно ли нажать кнопку data, пока визард активен. Выход в меню разрешён всегда. */
+    boolean allows(String data) {
+        if ("menu:main".equals(data) || "menu:admin".equals(data)) return true;
+        if (data == null) return false;
+        for (String e : exact) if (e.equals(data)) return true;
+        for (String p : prefixes) if (data.startsWith(p)) return true;
+        blocked.incrementAndGet();
+        return false;
+    }
+
+    /** Текст предупреждения о заблокированной кнопке. */
+    String busyText() {
+        return admin ? ADMIN_BUSY : REPORT_BUSY;
+    }
+
+    InlineKeyboardMarkup cancelKeyboard() {
+        return cancelKeyboard == null ? Keyboards.backToMenu() : cancelKeyboard.get();
+    }
+
+    /** Вызвать обработчик визарда с учётом времени. */
+    boolean handle(Handler h, Message m, long tgId, String text, StateRepo.State st) throws Exception {
+        long t0 = System.nanoTime();
+        try {
+            return h.handle(m, tgId, text, st);
+        } finally {
+            messages.incrementAndGet();
+            nanos.addAndGet(System.nanoTime() - t0);
+        }
+    }
+
+    /** Строки для /stats (только визарды, в которых что-то происходило). */
+    static String stats() {
+        StringBuilder sb = new StringBuilder();
+        for (WizardType t : values()) {
+            long n = t.messages.get(), b = t.blocked.get();
+            if (n == 0 && b == 0) continue;
+            if (sb.length() > 0) sb.append("\n");
+            sb.append(String.format("%s: messages=%d avg=%.1fms blockedButtons=%d",
+                    t.name(), n, n == 0 ? 0.0 : t.nanos.get() / 1e6 / n, b));
+        }
+        return sb.toString();
+    }
+}
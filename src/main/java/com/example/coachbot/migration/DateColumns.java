@@ -0,0 +1,59 @@
+package com.example.coachbot.migration;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Формат колонки date в таблицах с датами.
+ *
+ * После V3 дата хранится как epoch-day INTEGER. Пока таблицу пересобирает {@link OnlineRebuild},
+ * живая таблица ещё старая (ISO TEXT), поэтому формат определяется по объявленному типу колонки —
+ * один PRAGMA на таблицу, дальше из кэша. Переключение кэша делает сама пересборка внутри транзакции
+ * подмены, так что записи писателя после неё сразу идут в новом формате.
+ */
+public final class DateColumns {
+
+    private static final Map<String, Boolean> EPOCH = new ConcurrentHashMap<>();
+
+    private DateColumns() {}
+
+    /** Привязать дату к параметру запроса в формате таблицы. */
+    public static void set(PreparedStatement ps, int index, String table, LocalDate date) throws SQLException {
+        if (isEpoch(ps.getConnection(), table)) ps.setLong(index, date.toEpochDay());
+        else ps.setString(index, date.toString());
+    }
+
+    /** Прочитать дату в любом из двух форматов. */
+    public static LocalDate get(ResultSet rs, String column) throws SQLException {
+        Object v = rs.getObject(column);
+        if (v == null) return null;
+        if (v instanceof Number n) return LocalDate.ofEpochDay(n.longValue());
+        return LocalDate.parse(v.toString());
+    }
+
+    private static boolean isEpoch(Connection c, String table) throws SQLException {
+        Boolean cached = EPOCH.get(table);
+        if (cached != null) return cached;
+        // putIfAbsent: не затираем значение, которое успела выставить подмена таблицы
+        boolean epoch = detect(c, table);
+        Boolean prev = EPOCH.putIfAbsent(table, epoch);
+        return prev != null ? prev : epoch;
+    }
+
+    /** Таблица пересобрана — перечитать формат на соединении, которое видит новую схему. */
+    static void refresh(Connection c, String table) throws SQLException {
+        EPOCH.put(table, detect(c, table));
+    }
+
+    /** Подмена не зафиксировалась — формат определим заново при следующем обращении. */
+    static void forget(String table) {
+        EPOCH.remove(table);
+    }
+
+    private static boolean detect(Connection c, String table) throws SQLException {
+        String type = Schema.declaredType(c, table, "date");
+        return type != null && type.startsWith("INT");
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.coachbot.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Один шаг схемы БД.
+ *
+ * Шаги применяются строго по возрастанию version, каждый — в своей транзакции.
+ * После применения номер записывается в PRAGMA user_version, а сам шаг — в schema_migrations
+ * вместе с checksum. Уже применённые шаги менять нельзя: добавляйте новый.
+ */
+public interface Migration {
+
+    int version();
+
+    String description();
+
+    void apply(Connection c) throws SQLException;
+
+    /** Отпечаток содержимого шага; если он изменился после применения — запуск остановится. */
+    String checksum();
+}
@@ -0,0 +1,100 @@
+package com.example.coachbot.migration;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Версионные миграции схемы.
+ *
+ * Текущая версия хранится в PRAGMA user_version (заголовок файла БД), поэтому на актуальной
+ * схеме старт стоит одного чтения целого. Если есть неприменённые шаги — сверяем checksum
+ * уже применённых с журналом schema_migrations и применяем новые по одному, каждый в своей транзакции.
+ */
+public final class Migrator {
+
+    /** Все шаги по порядку. Новый шаг — новый класс в конец списка. */
+    private static final List<Migration> ALL = List.of(
+            new V1Baseline(),
+            new V2UserParamsColumns(),
+            new V3NumericKeys(),
+            new V4UpdateWatermark(),
+            new V5StateTimestamps(),
+            new V6PickerIndexes(),
+            new V7Assets(),
+            new V8Outbox()
+    );
+
+    private Migrator() {}
+
+    public static int latestVersion() {
+        return ALL.get(ALL.size() - 1).version();
+    }
+
+    public static void migrate(Connection c) throws SQLException {
+        int current = Schema.userVersion(c);
+        int latest = latestVersion();
+        if (current == latest) return;
+        if (current > latest) {
+            throw new SQLException("DB schema version " + current + " is newer than this build supports (" + latest + ")");
+        }
+
+        boolean auto = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try {
+            Schema.exec(c, """
+                CREATE TABLE IF NOT EXISTS schema_migrations(
+                  version     INTEGER PRIMARY KEY,
+                  description TEXT NOT NULL,
+                  checksum    TEXT NOT NULL,
+                  applied_at  INTEGER NOT NULL
+                )
+            """);
+            verifyApplied(c, current);
+            c.commit();
+
+            for (Migration m : ALL) {
+                if (m.version() <= current) continue;
+                long t0 = System.currentTimeMillis();
+                try {
+                    m.apply(c);
+                    try (PreparedStatement ps = c.prepareStatement(
+                            "INSERT OR REPLACE INTO schema_migrations(version,description,checksum,applied_at) VALUES(?,?,?,?)")) {
+                        ps.setInt(1, m.version());
+                        ps.setString(2, m.description());
+                        ps.setString(3, m.checksum());
+                        ps.setLong(4, System.currentTimeMillis() / 1000L);
+                        ps.executeUpdate();
+                    }
+                    Schema.exec(c, "PRAGMA user_version = " + m.version());
+                    c.commit();
+                } catch (SQLException e) {
+                    c.rollback();
+                    throw new SQLException("Migration V" + m.version() + " (" + m.description() + ") failed", e);
+                }
+                System.out.printf("[db] migration V%d applied: %s (%d ms)%n",
+                        m.version(), m.description(), System.currentTimeMillis() - t0);
+            }
+        } finally {
+            c.setAutoCommit(auto);
+        }
+    }
+
+    /** Применённые шаги не должны меняться задним числом. */
+    private static void verifyApplied(Connection c, int current) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT version, checksum FROM schema_migrations")) {
+            while (rs.next()) applied.put(rs.getInt(1), rs.getString(2));
+        }
+        for (Migration m : ALL) {
+            if (m.version() > current) break;
+            String sum = applied.get(m.version());
+            if (sum != null && !sum.equals(m.checksum())) {
+                throw new SQLException("Checksum mismatch for applied migration V" + m.version()
+                        + " (" + m.description() + "): db=" + sum + " code=" + m.checksum());
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.coachbot.migration;
+
+import com.example.coachbot.Db;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Онлайн-пересборка таблицы без остановки бота.
+ *
+ *  1) {@link #schedule} (внутри миграции, быстро): создаёт теневую таблицу {@code <t>__new} с целевой схемой,
+ *     триггеры на живой таблице, которые зеркалят каждую запись в тень, и строку прогресса в schema_rebuilds;
+ *  2) фоновый поток {@link #startBackground} копирует старые строки порциями по rowid через писателя Db
+ *     (каждая порция + прогресс — одна транзакция), между порциями уступает место обычной записи;
+ *  3) когда строки кончились — в одной транзакции: триггеры и старая таблица удаляются, тень переименовывается,
+ *     индексы создаются заново.
+ *
+ * Пока идёт копирование, бот работает с живой таблицей как обычно. Прогресс хранится в БД,
+ * после рестарта копирование продолжается с last_rowid.
+ *
+ * В выражениях колонок {@code {r}} — ссылка на строку источника: при копировании она пустая,
+ * в триггерах — NEW./OLD.
+ */
+public final class OnlineRebuild {
+
+    /** Описание пересборки: целевая схема и откуда брать каждую колонку. */
+    public record Plan(String table, String ddl, List<String> columns, List<String> exprs,
+                       List<String> key, List<String> keyExprs, List<String> indexes) {
+
+        /** Колонки берутся из одноимённых колонок источника. ddl — CREATE TABLE с %s вместо имени. */
+        public static Plan sameColumns(String table, String ddl, List<String> columns, List<String> key, String... indexes) {
+            return new Plan(table, ddl, columns, refs(columns), key, refs(key), Arrays.asList(indexes));
+        }
+
+        private static List<String> refs(List<String> cols) {
+            List<String> out = new ArrayList<>(cols.size());
+            for (String col : cols) out.add("{r}" + col);
+            return out;
+        }
+    }
+
+    private static final int CHUNK = intEnv("DB_REBUILD_CHUNK", 5_000);
+    private static final long PAUSE_MS = intEnv("DB_REBUILD_PAUSE_MS", 50);
+
+    // прогресс для /stats: таблица -> строка статуса
+    private static final Map<String, String> PROGRESS = new ConcurrentHashMap<>();
+
+    private OnlineRebuild() {}
+
+    /* ===================== постановка (внутри миграции) ===================== */
+
+    public static void schedule(Connection c, Plan p) throws SQLException {
+        ensureTable(c);
+        String t = p.table();
+        String shadow = t + "__new";
+        // новая постановка заменяет незавершённую: прежние триггеры и копия сбрасываются
+        dropShadow(c, t);
+        Schema.exec(c, p.ddl().formatted(shadow));
+
+        String cols = String.join(",", p.columns());
+        String newRow = render(p.exprs(), "NEW.");
+        Schema.exec(c, "CREATE TRIGGER " + t + "__rb_ins AFTER INSERT ON " + t + " BEGIN " +
+                "INSERT OR REPLACE INTO " + shadow + "(" + cols + ") VALUES(" + newRow + "); END");
+        Schema.exec(c, "CREATE TRIGGER " + t + "__rb_upd AFTER UPDATE ON " + t + " BEGIN " +
+                "DELETE FROM " + shadow + " WHERE " + keyMatch(p, "OLD.") + "; " +
+                "INSERT OR REPLACE INTO " + shadow + "(" + cols + ") VALUES(" + newRow + "); END");
+        Schema.exec(c, "CREATE TRIGGER " + t + "__rb_del AFTER DELETE ON " + t + " BEGIN " +
+                "DELETE FROM " + shadow + " WHERE " + keyMatch(p, "OLD.") + "; END");
+
+        try (PreparedStatement ps = c.prepareStatement("""
+                INSERT OR REPLACE INTO schema_rebuilds(table_name, columns, exprs, key_cols, indexes, last_rowid, copied, status, started_at, updated_at)
+                VALUES(?,?,?,?,?,0,0,'COPYING',?,?)
+            """)) {
+            long now = System.currentTimeMillis() / 1000L;
+            ps.setString(1, t);
+            ps.setString(2, String.join("\n", p.columns()));
+            ps.setString(3, String.join("\n", p.exprs()));
+            ps.setString(4, String.join("\n", p.key()));
+            ps.setString(5, String.join("\n", p.indexes()));
+            ps.setLong(6, now);
+            ps.setLong(7, now);
+            ps.executeUpdate();
+        }
+        System.out.printf("[db] online rebuild of '%s' scheduled%n", t);
+    }
+
+    /** Есть ли незавершённая пересборка таблицы (чтобы миграция не ставила её повторно). */
+    public static boolean pending(Connection c, String table) throws SQLException {
+        if (!Schema.tableExists(c, "schema_rebuilds")) return false;
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT 1 FROM schema_rebuilds WHERE table_name=? AND status<>'DONE'")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) { return rs.next(); }
+        }
+    }
+
+    /**
+     * Индекс на таблицу, которая, возможно, ещё пересобирается: создаём на живой таблице
+     * и дописываем в план, чтобы он пережил подмену (DROP TABLE удаляет индексы старой).
+     */
+    public static void addIndex(Connection c, String table, String ddl) throws SQLException {
+        Schema.exec(c, ddl);
+        if (!pending(c, table)) return;
+        try (PreparedStatement ps = c.prepareStatement(
+                "UPDATE schema_rebuilds SET indexes = CASE WHEN indexes='' THEN ?1 ELSE indexes || char(10) || ?1 END " +
+                        "WHERE table_name=?2 AND instr(indexes, ?1) = 0")) {
+            ps.setString(1, ddl);
+            ps.setString(2, table);
+            ps.executeUpdate();
+        }
+    }
+
+    /** Отменить незавершённую пересборку (например, таблицу пересоздали целиком). */
+    public static void cancel(Connection c, String table) throws SQLException {
+        if (!pending(c, table)) return;
+        dropShadow(c, table);
+        try (PreparedStatement ps = c.prepareStatement("DELETE FROM schema_rebuilds WHERE table_name=?")) {
+            ps.setString(1, table);
+            ps.executeUpdate();
+        }
+    }
+
+    private static void dropShadow(Connection c, String t) throws SQLException {
+        Schema.exec(c, "DROP TRIGGER IF EXISTS " + t + "__rb_ins");
+        Schema.exec(c, "DROP TRIGGER IF EXISTS " + t + "__rb_upd");
+        Schema.exec(c, "DROP TRIGGER IF EXISTS " + t + "__rb_del");
+        Schema.exec(c, "DROP TABLE IF EXISTS " + t + "__new");
+    }
+
+    private static void ensureTable(Connection c) throws SQLException {
+        Schema.exec(c, """
+            CREATE TABLE IF NOT EXISTS schema_rebuilds(
+              table_name TEXT PRIMARY KEY,
+              columns    TEXT NOT NULL,
+              exprs      TEXT NOT NULL,
+              key_cols   TEXT NOT NULL,
+              indexes    TEXT NOT NULL,
+              last_rowid INTEGER NOT NULL,
+              copied     INTEGER NOT NULL,
+              status     TEXT NOT NULL,
+              started_at INTEGER NOT NULL,
+              updated_at INTEGER NOT NULL
+            )
+        """);
+    }
+
+    /* ===================== фоновое копирование ===================== */
+
+    /** Запустить копирование незавершённых пересборок в фоне (после миграций). */
+    public static void startBackground() {
+        Thread t = new Thread(OnlineRebuild::runAll, "db-rebuild");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void runAll() {
+        try {
+            List<Job> jobs = new ArrayList<>();
+            try (Connection c = Db.connectRead()) {
+                if (!Schema.tableExists(c, "schema_rebuilds")) return;
+                try (Statement st = c.createStatement();
+                     ResultSet rs = st.executeQuery(
+                             "SELECT table_name, columns, exprs, key_cols, indexes, last_rowid, copied FROM schema_rebuilds WHERE status<>'DONE'")) {
+                    while (rs.next()) {
+                        jobs.add(new Job(rs.getString(1), lines(rs.getString(2)), lines(rs.getString(3)),
+                                lines(rs.getString(4)), lines(rs.getString(5)), rs.getLong(6), rs.getLong(7)));
+                    }
+                }
+            }
+            for (Job j : jobs) run(j);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private record Job(String table, List<String> columns, List<String> exprs, List<String> key,
+                       List<String> indexes, long lastRowid, long copied) {}
+
+    private static void run(Job j) throws Exception {
+        String t = j.table();
+        String shadow = t + "__new";
+        String insert = "INSERT OR IGNORE INTO " + shadow + "(" + String.join(",", j.columns()) + ") " +
+                "SELECT " + render(j.exprs(), "") + " FROM " + t + " WHERE rowid > ? AND rowid <= ?";
+        long last = j.lastRowid();
+        long copied = j.copied();
+        long t0 = System.currentTimeMillis();
+
+        while (true) {
+            final long from = last;
+            long[] step = Db.call(c -> {
+                long upTo;
+                try (PreparedStatement ps = c.prepareStatement(
+                        "SELECT max(rowid), count(*) FROM (SELECT rowid FROM " + t + " WHERE rowid > ? ORDER BY rowid LIMIT ?)")) {
+                    ps.setLong(1, from);
+                    ps.setInt(2, CHUNK);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        rs.next();
+                        if (rs.getLong(2) == 0) return null;
+                        upTo = rs.getLong(1);
+                    }
+                }
+                int n;
+                try (PreparedStatement ps = c.prepareStatement(insert)) {
+                    ps.setLong(1, from);
+                    ps.setLong(2, upTo);
+                    n = ps.executeUpdate();
+                }
+                try (PreparedStatement ps = c.prepareStatement(
+                        "UPDATE schema_rebuilds SET last_rowid=?, copied=copied+?, updated_at=? WHERE table_name=?")) {
+                    ps.setLong(1, upTo);
+                    ps.setLong(2, n);
+                    ps.setLong(3, System.currentTimeMillis() / 1000L);
+                    ps.setString(4, t);
+                    ps.executeUpdate();
+                }
+                return new long[]{upTo, n};
+            });
+            if (step == null) break;
+            last = step[0];
+            copied += step[1];
+            PROGRESS.put(t, String.format("%s: copying, rows=%d last_rowid=%d", t, copied, last));
+            Thread.sleep(PAUSE_MS); // уступаем писателя обычным апдейтам
+        }
+
+        try {
+            Db.call(c -> {
+                Schema.exec(c, "DROP TRIGGER IF EXISTS " + t + "__rb_ins");
+                Schema.exec(c, "DROP TRIGGER IF EXISTS " + t + "__rb_upd");
+                Schema.exec(c, "DROP TRIGGER IF EXISTS " + t + "__rb_del");
+                Schema.exec(c, "DROP TABLE " + t);
+                Schema.exec(c, "ALTER TABLE " + shadow + " RENAME TO " + t);
+                for (String idx : j.indexes()) Schema.exec(c, idx);
+                try (PreparedStatement ps = c.prepareStatement(
+                        "UPDATE schema_rebuilds SET status='DONE', updated_at=? WHERE table_name=?")) {
+                    ps.setLong(1, System.currentTimeMillis() / 1000L);
+                    ps.setString(2, t);
+                    ps.executeUpdate();
+                }
+                // следующие единицы писателя (в той же транзакции) уже пишут в формате новой таблицы
+                DateColumns.refresh(c, t);
+                return null;
+            });
+        } catch (Exception e) {
+            DateColumns.forget(t);
+            throw e;
+        }
+        PROGRESS.put(t, String.format("%s: done, rows=%d in %d ms", t, copied, System.currentTimeMillis() - t0));
+        System.out.printf("[db] online rebuild of '%s' finished: %d rows%n", t, copied);
+    }
+
+    /** Строки прогресса для /stats (пусто, если пересборок не было). */
+    public static String stats() {
+        return String.join("\n", PROGRESS.values());
+    }
+
+    /* ===================== helpers ===================== */
+
+    private static String render(List<String> exprs, String row) {
+        List<String> out = new ArrayList<>(exprs.size());
+        for (String e : exprs) out.add(e.replace("{r}", row));
+        return String.join(",", out);
+    }
+
+    private static String keyMatch(Plan p, String row) {
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < p.key().size(); i++) {
+            parts.add(p.key().get(i) + " IS " + p.keyExprs().get(i).replace("{r}", row));
+        }
+        return String.join(" AND ", parts);
+    }
+
+    private static List<String> lines(String s) {
+        return s == null || s.isEmpty() ? List.of() : Arrays.asList(s.split("\n"));
+    }
+
+    private static int intEnv(String key, int def) {
+        try {
+            String v = System.getenv(key);
+            return (v == null || v.isBlank()) ? def : Integer.parseInt(v.trim());
+        } catch (Exception e) { return def; }
+    }
+}
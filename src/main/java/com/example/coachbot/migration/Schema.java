@@ -0,0 +1,106 @@
+package com.example.coachbot.migration;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** Вспомогательные запросы к метаданным схемы — только для миграций, не для горячих путей. */
+public final class Schema {
+
+    private Schema() {}
+
+    public static boolean tableExists(Connection c, String table) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT 1 FROM sqlite_master WHERE type='table' AND name=?")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /** Все колонки таблицы (в нижнем регистре) одним PRAGMA; пустое множество — если таблицы нет. */
+    public static Set<String> columns(Connection c, String table) throws SQLException {
+        Set<String> out = new HashSet<>();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) out.add(rs.getString("name").toLowerCase(Locale.ROOT));
+        }
+        return out;
+    }
+
+    /** Колонки первичного ключа по порядку (пусто — ключа нет, только rowid). */
+    public static List<String> primaryKey(Connection c, String table) throws SQLException {
+        TreeMap<Integer, String> pk = new TreeMap<>();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                int pos = rs.getInt("pk");
+                if (pos > 0) pk.put(pos, rs.getString("name").toLowerCase(Locale.ROOT));
+            }
+        }
+        return new ArrayList<>(pk.values());
+    }
+
+    /** Объявленный тип колонки в верхнем регистре (null — нет такой колонки). */
+    public static String declaredType(Connection c, String table, String column) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    String type = rs.getString("type");
+                    return type == null ? "" : type.toUpperCase(Locale.ROOT);
+                }
+            }
+        }
+        return null;
+    }
+
+    public static boolean isEmpty(Connection c, String table) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT 1 FROM " + table + " LIMIT 1")) {
+            return !rs.next();
+        }
+    }
+
+    /** Добавить недостающие колонки (ADD COLUMN — мгновенно, без копирования строк). defs: "name TYPE ...". */
+    public static void addMissingColumns(Connection c, String table, String... defs) throws SQLException {
+        Set<String> have = columns(c, table);
+        for (String def : defs) {
+            String name = def.substring(0, def.indexOf(' '));
+            if (!have.contains(name)) exec(c, "ALTER TABLE " + table + " ADD COLUMN " + def);
+        }
+    }
+
+    public static void exec(Connection c, String sql) throws SQLException {
+        try (Statement st = c.createStatement()) { st.execute(sql); }
+    }
+
+    public static int userVersion(Connection c) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /** SHA-256 (первые 16 hex-символов) от частей описания шага. */
+    public static String checksum(String... parts) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String p : parts) {
+                md.update(p.strip().getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(md.digest()).substring(0, 16);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
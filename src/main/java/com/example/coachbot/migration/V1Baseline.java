@@ -0,0 +1,282 @@
+package com.example.coachbot.migration;
+
+import java.sql.*;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Базовая схема — то, что раньше делал Db.init() при каждом старте.
+ *
+ * Идемпотентна: на новой БД создаёт таблицы, на старой (user_version = 0) приводит
+ * унаследованные схемы users/groups/settings/reports/norms/user_params к актуальным
+ * без копирования строк в стартовой транзакции (см. {@link OnlineRebuild}).
+ */
+final class V1Baseline implements Migration {
+
+    private static final String USERS = """
+            CREATE TABLE %s(
+              id         TEXT PRIMARY KEY,
+              username   TEXT,
+              first_name TEXT,
+              role       TEXT NOT NULL DEFAULT 'USER',
+              active     INTEGER NOT NULL DEFAULT 1
+            )""";
+
+    private static final String GROUPS = """
+            CREATE TABLE IF NOT EXISTS %s(
+              user_id  TEXT PRIMARY KEY,
+              admin_id TEXT NOT NULL
+            )""";
+
+    private static final String SETTINGS = """
+            CREATE TABLE %s(
+              key TEXT PRIMARY KEY,
+              value TEXT
+            )""";
+
+    private static final String REPORTS = """
+            CREATE TABLE %s(
+              user_id    TEXT NOT NULL,
+              date       TEXT NOT NULL,
+              sleep      REAL,
+              steps      INTEGER,
+              water      REAL,
+              kcal       INTEGER,
+              p          REAL,
+              f          REAL,
+              c          REAL,
+              note       TEXT,
+              photo_id   TEXT,
+              created_at INTEGER,
+              PRIMARY KEY(user_id,date)
+            )""";
+
+    private static final String USER_PARAMS = """
+            CREATE TABLE %s(
+              user_id TEXT PRIMARY KEY,
+              weight REAL,
+              waist REAL,
+              chest_exhale REAL,
+              chest_relaxed REAL,
+              chest_inhale REAL,
+              biceps_relaxed REAL,
+              biceps_flex REAL,
+              photo_id TEXT,
+              updated_at INTEGER
+            )""";
+
+    // Таблицы без унаследованных вариантов — просто создаём при отсутствии
+    private static final String[] SIMPLE = {
+            """
+            CREATE TABLE IF NOT EXISTS activity_norms(
+              user_id      TEXT NOT NULL,
+              date         TEXT NOT NULL,
+              water_liters REAL,
+              steps        INTEGER,
+              sleep_hours  REAL,
+              set_by       TEXT,
+              PRIMARY KEY(user_id,date)
+            )""",
+            """
+            CREATE TABLE IF NOT EXISTS nutrition_plans(
+              user_id   TEXT NOT NULL,
+              date      TEXT NOT NULL,
+              calories  INTEGER,
+              proteins  REAL,
+              fats      REAL,
+              carbs     REAL,
+              set_by    TEXT,
+              PRIMARY KEY(user_id,date)
+            )""",
+            """
+            CREATE TABLE IF NOT EXISTS workout_plans(
+              user_id   TEXT NOT NULL,
+              date      TEXT NOT NULL,
+              text      TEXT,
+              set_by    TEXT,
+              PRIMARY KEY(user_id,date)
+            )""",
+            // Антидубли апдейтов (с V4 заменена на update_watermark)
+            """
+            CREATE TABLE IF NOT EXISTS processed_updates(
+              update_id INTEGER PRIMARY KEY
+            )""",
+            """
+            CREATE TABLE IF NOT EXISTS sent_notifications(
+              type    TEXT NOT NULL,
+              user_id TEXT NOT NULL,
+              date    TEXT NOT NULL,
+              PRIMARY KEY(type,user_id,date)
+            )""",
+            """
+            CREATE TABLE IF NOT EXISTS contacts(
+              admin_id TEXT PRIMARY KEY,
+              text     TEXT
+            )""",
+            // Таблица для состояний визардов
+            """
+            CREATE TABLE IF NOT EXISTS user_states(
+              user_id TEXT PRIMARY KEY,
+              type    TEXT,
+              step    INTEGER,
+              payload TEXT
+            )""",
+            // 📸 Несколько фото еды в отчётах
+            """
+            CREATE TABLE IF NOT EXISTS report_photos(
+              user_id    TEXT NOT NULL,
+              date       TEXT NOT NULL,
+              file_id    TEXT NOT NULL,
+              created_at INTEGER,
+              PRIMARY KEY(user_id,date,file_id)
+            )""",
+            // Индекс на группы по администратору
+            "CREATE INDEX IF NOT EXISTS idx_groups_admin ON groups(admin_id)"
+    };
+
+    @Override public int version() { return 1; }
+
+    @Override public String description() { return "baseline schema (legacy init)"; }
+
+    @Override
+    public String checksum() {
+        String[] parts = new String[SIMPLE.length + 5];
+        parts[0] = USERS; parts[1] = GROUPS; parts[2] = SETTINGS; parts[3] = REPORTS; parts[4] = USER_PARAMS;
+        System.arraycopy(SIMPLE, 0, parts, 5, SIMPLE.length);
+        return Schema.checksum(parts);
+    }
+
+    @Override
+    public void apply(Connection c) throws SQLException {
+        migrateUsers(c);
+        migrateGroups(c);
+        migrateSettings(c);      // k/v -> key/value
+        migrateReports(c);       // полноценная схема reports
+        migrateUserParams(c);    // старая совместимая схема; новые колонки — в V2
+        for (String ddl : SIMPLE) Schema.exec(c, ddl);
+        migrateNorms(c);         // перенос из старой norms при наличии
+        Schema.exec(c, "INSERT OR IGNORE INTO settings(key,value) VALUES('evening_time','19:00')");
+    }
+
+    /* ===================== унаследованные схемы ===================== */
+    // Недостающие колонки добавляются ADD COLUMN, старые имена — RENAME COLUMN: это правка метаданных,
+    // строки не копируются. Если у таблицы не тот первичный ключ, её пересобирает OnlineRebuild в фоне.
+
+    private static void migrateUsers(Connection c) throws SQLException {
+        if (!Schema.tableExists(c, "users")) {
+            Schema.exec(c, USERS.formatted("users"));
+            return;
+        }
+        List<String> target = List.of("id", "username", "first_name", "role", "active");
+        if (shaped(c, "users", target, List.of("id"))) return;
+        Set<String> cols = Schema.columns(c, "users");
+        if (!cols.contains("id")) {
+            String srcId = cols.contains("tg_id") ? "tg_id" : (cols.contains("user_id") ? "user_id" : null);
+            if (srcId == null) {
+                // без id строки всё равно бесполезны
+                Schema.exec(c, "DROP TABLE users");
+                Schema.exec(c, USERS.formatted("users"));
+                return;
+            }
+            Schema.exec(c, "ALTER TABLE users RENAME COLUMN " + srcId + " TO id");
+        }
+        Schema.addMissingColumns(c, "users",
+                "username TEXT", "first_name TEXT",
+                "role TEXT NOT NULL DEFAULT 'USER'", "active INTEGER NOT NULL DEFAULT 1");
+        rebuildIfKeyDiffers(c, "users", USERS, target, List.of("id"));
+    }
+
+    private static void migrateGroups(Connection c) throws SQLException {
+        if (!Schema.tableExists(c, "groups")) {
+            Schema.exec(c, GROUPS.formatted("groups"));
+            return;
+        }
+        if (shaped(c, "groups", List.of("user_id", "admin_id"), List.of("user_id"))) return;
+        Set<String> cols = Schema.columns(c, "groups");
+        if (!cols.contains("user_id") && cols.contains("uid")) Schema.exec(c, "ALTER TABLE groups RENAME COLUMN uid TO user_id");
+        if (!cols.contains("admin_id") && cols.contains("aid")) Schema.exec(c, "ALTER TABLE groups RENAME COLUMN aid TO admin_id");
+        Schema.addMissingColumns(c, "groups", "user_id TEXT", "admin_id TEXT");
+        rebuildIfKeyDiffers(c, "groups", GROUPS, List.of("user_id", "admin_id"), List.of("user_id"),
+                "CREATE INDEX IF NOT EXISTS idx_groups_admin ON groups(admin_id)");
+    }
+
+    private static void migrateSettings(Connection c) throws SQLException {
+        if (!Schema.tableExists(c, "settings")) {
+            Schema.exec(c, SETTINGS.formatted("settings"));
+            return;
+        }
+        if (shaped(c, "settings", List.of("key", "value"), List.of("key"))) return;
+        Set<String> cols = Schema.columns(c, "settings");
+        if (!cols.contains("key") && cols.contains("k")) Schema.exec(c, "ALTER TABLE settings RENAME COLUMN k TO key");
+        if (!cols.contains("value") && cols.contains("v")) Schema.exec(c, "ALTER TABLE settings RENAME COLUMN v TO value");
+        Schema.addMissingColumns(c, "settings", "key TEXT", "value TEXT");
+        rebuildIfKeyDiffers(c, "settings", SETTINGS, List.of("key", "value"), List.of("key"));
+    }
+
+    private static void migrateReports(Connection c) throws SQLException {
+        if (!Schema.tableExists(c, "reports")) {
+            Schema.exec(c, REPORTS.formatted("reports"));
+            return;
+        }
+        List<String> target = List.of("user_id","date","sleep","steps","water","kcal","p","f","c","note","photo_id","created_at");
+        if (shaped(c, "reports", target, List.of("user_id", "date"))) return;
+        Schema.addMissingColumns(c, "reports",
+                "sleep REAL", "steps INTEGER", "water REAL", "kcal INTEGER",
+                "p REAL", "f REAL", "c REAL", "note TEXT", "photo_id TEXT", "created_at INTEGER");
+        rebuildIfKeyDiffers(c, "reports", REPORTS, target, List.of("user_id", "date"));
+    }
+
+    private static void migrateNorms(Connection c) throws SQLException {
+        if (!Schema.tableExists(c, "norms")) return;
+        Set<String> cols = Schema.columns(c, "norms");
+        if (!cols.contains("user_id") || !cols.contains("date")) return;
+        try {
+            Schema.exec(c, "INSERT OR IGNORE INTO activity_norms(user_id,date,water_liters,steps,sleep_hours,set_by) " +
+                    "SELECT user_id,date," + pick(cols, "water") + "," + pick(cols, "steps") + "," +
+                    pick(cols, "sleep") + "," + pick(cols, "set_by") + " FROM norms");
+        } catch (SQLException ignored) {}
+    }
+
+    private static void migrateUserParams(Connection c) throws SQLException {
+        if (!Schema.tableExists(c, "user_params")) {
+            Schema.exec(c, USER_PARAMS.formatted("user_params"));
+            return;
+        }
+        List<String> target = List.of("user_id","weight","waist","chest_exhale","chest_relaxed","chest_inhale",
+                "biceps_relaxed","biceps_flex","photo_id","updated_at");
+        if (shaped(c, "user_params", target, List.of("user_id"))) return;
+        Set<String> cols = Schema.columns(c, "user_params");
+        if (!cols.contains("chest_relaxed")) {
+            if (cols.contains("chest_relax")) Schema.exec(c, "ALTER TABLE user_params RENAME COLUMN chest_relax TO chest_relaxed");
+            else if (cols.contains("chest_rel")) Schema.exec(c, "ALTER TABLE user_params RENAME COLUMN chest_rel TO chest_relaxed");
+        }
+        Schema.addMissingColumns(c, "user_params",
+                "weight REAL", "waist REAL", "chest_exhale REAL", "chest_relaxed REAL", "chest_inhale REAL",
+                "biceps_relaxed REAL", "biceps_flex REAL", "photo_id TEXT", "updated_at INTEGER");
+        rebuildIfKeyDiffers(c, "user_params", USER_PARAMS, target, List.of("user_id"));
+    }
+
+    /** Таблица уже нужной формы (все колонки и первичный ключ) — трогать нечего. */
+    private static boolean shaped(Connection c, String table, List<String> columns, List<String> key) throws SQLException {
+        return Schema.columns(c, table).containsAll(columns) && Schema.primaryKey(c, table).equals(key);
+    }
+
+    /**
+     * Без нужного первичного ключа не работают UPSERT-ы репозиториев. Ставим фоновую пересборку,
+     * а до её конца пробуем закрыть разрыв уникальным индексом (не выйдет, если в данных есть дубли).
+     */
+    private static void rebuildIfKeyDiffers(Connection c, String table, String ddl, List<String> columns,
+                                            List<String> key, String... indexes) throws SQLException {
+        if (Schema.primaryKey(c, table).equals(key) || OnlineRebuild.pending(c, table)) return;
+        try {
+            Schema.exec(c, "CREATE UNIQUE INDEX IF NOT EXISTS " + table + "__rb_key ON " + table + "(" + String.join(",", key) + ")");
+        } catch (SQLException e) {
+            System.err.printf("[db] %s: duplicate keys, upserts wait for the rebuild: %s%n", table, e.getMessage());
+        }
+        OnlineRebuild.schedule(c, OnlineRebuild.Plan.sameColumns(table, ddl, columns, key, indexes));
+    }
+
+    private static String pick(Set<String> cols, String col) {
+        return cols.contains(col) ? col : "NULL";
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.coachbot.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Расширенные параметры тела: талия на двух уровнях, бицепс по рукам, бёдра, ягодицы, галифе.
+ * Раньше ParamsRepo досоздавал эти колонки на каждом чтении/записи; часть БД их уже имеет,
+ * поэтому добавляем только отсутствующие.
+ */
+final class V2UserParamsColumns implements Migration {
+
+    private static final String[] COLUMNS = {
+            "waist_navel REAL",          // было 'waist' в старых версиях
+            "waist_max REAL",
+            "chest_exhale REAL",
+            "chest_relaxed REAL",
+            "chest_inhale REAL",
+            "biceps_left_relaxed REAL",
+            "biceps_left_flex REAL",
+            "biceps_right_relaxed REAL",
+            "biceps_right_flex REAL",
+            "thigh_left REAL",
+            "thigh_right REAL",
+            "hips REAL",
+            "galife REAL",
+            "photo_id TEXT",
+            "updated_at INTEGER"
+    };
+
+    @Override public int version() { return 2; }
+
+    @Override public String description() { return "user_params: extended body measurements"; }
+
+    @Override public String checksum() { return Schema.checksum(COLUMNS); }
+
+    @Override
+    public void apply(Connection c) throws SQLException {
+        Schema.addMissingColumns(c, "user_params", COLUMNS);
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.coachbot.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Компактное хранение: Telegram id — INTEGER, даты — epoch-day INTEGER вместо ISO TEXT.
+ *
+ * Ключи (user_id,date) становятся двумя целыми: страницы индексов в разы меньше, сравнение дешевле.
+ * Таблицы с составным ключом — WITHOUT ROWID (сама таблица и есть индекс по ключу).
+ * Пустые таблицы пересоздаются сразу, с данными — пересобираются в фоне {@link OnlineRebuild};
+ * до подмены репозитории пишут даты в старом формате (см. {@link DateColumns}).
+ */
+final class V3NumericKeys implements Migration {
+
+    private static final String ID = "CAST({r}%s AS INTEGER)";
+    private static final String DAY = "CAST(julianday({r}%s) - 2440587.5 AS INTEGER)";
+
+    private record Target(String table, String ddl, List<String> columns, Set<String> ids,
+                          List<String> key, String... indexes) {}
+
+    private static final List<Target> TARGETS = List.of(
+            // INT, а не INTEGER: id не становится alias rowid, и rowid по-прежнему = порядок регистрации
+            new Target("users", """
+                    CREATE TABLE %s(
+                      id         INT PRIMARY KEY,
+                      username   TEXT,
+                      first_name TEXT,
+                      role       TEXT NOT NULL DEFAULT 'USER',
+                      active     INTEGER NOT NULL DEFAULT 1
+                    )""",
+                    List.of("id", "username", "first_name", "role", "active"), Set.of("id"), List.of("id")),
+            new Target("groups", """
+                    CREATE TABLE %s(
+                      user_id  INTEGER PRIMARY KEY,
+                      admin_id INTEGER NOT NULL
+                    )""",
+                    List.of("user_id", "admin_id"), Set.of("user_id", "admin_id"), List.of("user_id"),
+                    "CREATE INDEX IF NOT EXISTS idx_groups_admin ON groups(admin_id)"),
+            new Target("reports", """
+                    CREATE TABLE %s(
+                      user_id    INTEGER NOT NULL,
+                      date       INTEGER NOT NULL,
+                      sleep      REAL,
+                      steps      INTEGER,
+                      water      REAL,
+                      kcal       INTEGER,
+                      p          REAL,
+                      f          REAL,
+                      c          REAL,
+                      note       TEXT,
+                      photo_id   TEXT,
+                      created_at INTEGER,
+                      PRIMARY KEY(user_id,date)
+                    ) WITHOUT ROWID""",
+                    List.of("user_id", "date", "sleep", "steps", "water", "kcal", "p", "f", "c", "note", "photo_id", "created_at"),
+                    Set.of("user_id"), List.of("user_id", "date")),
+            // фото упорядочены по rowid внутри дня — оставляем rowid-таблицей
+            new Target("report_photos", """
+                    CREATE TABLE %s(
+                      user_id    INTEGER NOT NULL,
+                      date       INTEGER NOT NULL,
+                      file_id    TEXT NOT NULL,
+                      created_at INTEGER,
+                      PRIMARY KEY(user_id,date,file_id)
+                    )""",
+                    List.of("user_id", "date", "file_id", "created_at"), Set.of("user_id"), List.of("user_id", "date", "file_id")),
+            new Target("nutrition_plans", """
+                    CREATE TABLE %s(
+                      user_id   INTEGER NOT NULL,
+                      date      INTEGER NOT NULL,
+                      calories  INTEGER,
+                      proteins  REAL,
+                      fats      REAL,
+                      carbs     REAL,
+                      set_by    INTEGER,
+                      PRIMARY KEY(user_id,date)
+                    ) WITHOUT ROWID""",
+                    List.of("user_id", "date", "calories", "proteins", "fats", "carbs", "set_by"),
+                    Set.of("user_id", "set_by"), List.of("user_id", "date")),
+            new Target("workout_plans", """
+                    CREATE TABLE %s(
+                      user_id   INTEGER NOT NULL,
+                      date      INTEGER NOT NULL,
+                      text      TEXT,
+                      set_by    INTEGER,
+                      PRIMARY KEY(user_id,date)
+                    ) WITHOUT ROWID""",
+                    List.of("user_id", "date", "text", "set_by"), Set.of("user_id", "set_by"), List.of("user_id", "date")),
+            new Target("activity_norms", """
+                    CREATE TABLE %s(
+                      user_id      INTEGER NOT NULL,
+                      date         INTEGER NOT NULL,
+                      water_liters REAL,
+                      steps        INTEGER,
+                      sleep_hours  REAL,
+                      set_by       INTEGER,
+                      PRIMARY KEY(user_id,date)
+                    ) WITHOUT ROWID""",
+                    List.of("user_id", "date", "water_liters", "steps", "sleep_hours", "set_by"),
+                    Set.of("user_id", "set_by"), List.of("user_id", "date")),
+            new Target("sent_notifications", """
+                    CREATE TABLE %s(
+                      type    TEXT NOT NULL,
+                      user_id INTEGER NOT NULL,
+                      date    INTEGER NOT NULL,
+                      PRIMARY KEY(type,user_id,date)
+                    ) WITHOUT ROWID""",
+                    List.of("type", "user_id", "date"), Set.of("user_id"), List.of("type", "user_id", "date")),
+            new Target("contacts", """
+                    CREATE TABLE %s(
+                      admin_id INTEGER PRIMARY KEY,
+                      text     TEXT
+                    )""",
+                    List.of("admin_id", "text"), Set.of("admin_id"), List.of("admin_id")),
+            new Target("user_states", """
+                    CREATE TABLE %s(
+                      user_id INTEGER PRIMARY KEY,
+                      type    TEXT,
+                      step    INTEGER,
+                      payload TEXT
+                    )""",
+                    List.of("user_id", "type", "step", "payload"), Set.of("user_id"), List.of("user_id")),
+            new Target("user_params", """
+                    CREATE TABLE %s(
+                      user_id INTEGER PRIMARY KEY,
+                      weight REAL,
+                      waist REAL,
+                      chest_exhale REAL,
+                      chest_relaxed REAL,
+                      chest_inhale REAL,
+                      biceps_relaxed REAL,
+                      biceps_flex REAL,
+                      photo_id TEXT,
+                      updated_at INTEGER,
+                      waist_navel REAL,
+                      waist_max REAL,
+                      biceps_left_relaxed REAL,
+                      biceps_left_flex REAL,
+                      biceps_right_relaxed REAL,
+                      biceps_right_flex REAL,
+                      thigh_left REAL,
+                      thigh_right REAL,
+                      hips REAL,
+                      galife REAL
+                    )""",
+                    List.of("user_id", "weight", "waist", "chest_exhale", "chest_relaxed", "chest_inhale",
+                            "biceps_relaxed", "biceps_flex", "photo_id", "updated_at", "waist_navel", "waist_max",
+                            "biceps_left_relaxed", "biceps_left_flex", "biceps_right_relaxed", "biceps_right_flex",
+                            "thigh_left", "thigh_right", "hips", "galife"),
+                    Set.of("user_id"), List.of("user_id"))
+    );
+
+    @Override public int version() { return 3; }
+
+    @Override public String description() { return "integer telegram ids and epoch-day dates"; }
+
+    @Override
+    public String checksum() {
+        List<String> parts = new ArrayList<>();
+        for (Target t : TARGETS) {
+            parts.add(t.ddl());
+            parts.add(String.join(",", t.columns()));
+            parts.addAll(Arrays.asList(t.indexes()));
+        }
+        return Schema.checksum(parts.toArray(new String[0]));
+    }
+
+    @Override
+    public void apply(Connection c) throws SQLException {
+        for (Target t : TARGETS) {
+            String table = t.table();
+            if (alreadyNumeric(c, t)) continue;
+
+            if (Schema.isEmpty(c, table)) {
+                // нечего копировать — пересоздаём сразу (в т.ч. отменяя пересборку, поставленную V1)
+                OnlineRebuild.cancel(c, table);
+                Schema.exec(c, "DROP TABLE " + table);
+                Schema.exec(c, t.ddl().formatted(table));
+                for (String idx : t.indexes()) Schema.exec(c, idx);
+                continue;
+            }
+            // поставленная V1 пересборка (чужой ключ) заменяется этой: целевая схема та же, плюс новые типы
+            OnlineRebuild.schedule(c, new OnlineRebuild.Plan(table, t.ddl(), t.columns(), exprs(t, t.columns()),
+                    t.key(), exprs(t, t.key()), Arrays.asList(t.indexes())));
+        }
+    }
+
+    private static boolean alreadyNumeric(Connection c, Target t) throws SQLException {
+        for (String col : t.columns()) {
+            if (!t.ids().contains(col)) continue;
+            String type = Schema.declaredType(c, t.table(), col);
+            return type != null && type.startsWith("INT");
+        }
+        return false;
+    }
+
+    private static List<String> exprs(Target t, List<String> cols) {
+        List<String> out = new ArrayList<>(cols.size());
+        for (String col : cols) {
+            if (t.ids().contains(col)) out.add(ID.formatted(col));
+            else if (col.equals("date")) out.add(DAY.formatted(col));
+            else out.add("{r}" + col);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.coachbot.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Антидубли апдейтов: вместо строки на каждый update_id — одна строка с максимальным обработанным id.
+ * Стартовое значение берём из processed_updates, после чего таблица больше не нужна.
+ */
+final class V4UpdateWatermark implements Migration {
+
+    private static final String DDL = """
+            CREATE TABLE IF NOT EXISTS update_watermark(
+              id             INTEGER PRIMARY KEY CHECK(id = 1),
+              last_update_id INTEGER NOT NULL
+            )""";
+
+    @Override public int version() { return 4; }
+
+    @Override public String description() { return "update dedup watermark instead of processed_updates"; }
+
+    @Override public String checksum() { return Schema.checksum(DDL); }
+
+    @Override
+    public void apply(Connection c) throws SQLException {
+        Schema.exec(c, DDL);
+        if (Schema.tableExists(c, "processed_updates")) {
+            Schema.exec(c, "INSERT OR IGNORE INTO update_watermark(id, last_update_id) " +
+                    "SELECT 1, max(update_id) FROM processed_updates WHERE update_id IS NOT NULL HAVING count(*) > 0");
+            Schema.exec(c, "DROP TABLE processed_updates");
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.coachbot.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * user_states.updated_at — по нему RetentionService находит брошенные визарды.
+ * Существующим строкам ставим текущее время, чтобы они отсчитывали срок с момента обновления.
+ */
+final class V5StateTimestamps implements Migration {
+
+    private static final String DDL = """
+            CREATE TABLE %s(
+              user_id    INTEGER PRIMARY KEY,
+              type       TEXT,
+              step       INTEGER,
+              payload    TEXT,
+              updated_at INTEGER
+            )""";
+
+    @Override public int version() { return 5; }
+
+    @Override public String description() { return "user_states.updated_at for retention"; }
+
+    @Override public String checksum() { return Schema.checksum(DDL); }
+
+    @Override
+    public void apply(Connection c) throws SQLException {
+        Schema.addMissingColumns(c, "user_states", "updated_at INTEGER");
+        Schema.exec(c, "UPDATE user_states SET updated_at = CAST(strftime('%s','now') AS INTEGER) WHERE updated_at IS NULL");
+        // Если V3 ещё пересобирает таблицу, в тени нет новой колонки — ставим пересборку заново с ней
+        if (OnlineRebuild.pending(c, "user_states")) {
+            OnlineRebuild.schedule(c, new OnlineRebuild.Plan("user_states", DDL,
+                    List.of("user_id", "type", "step", "payload", "updated_at"),
+                    List.of("CAST({r}user_id AS INTEGER)", "{r}type", "{r}step", "{r}payload", "{r}updated_at"),
+                    List.of("user_id"), List.of("CAST({r}user_id AS INTEGER)"), List.of()));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.coachbot.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Индекс для keyset-пагинации списка админов: в idx_users_role записи одной роли лежат по rowid,
+ * поэтому «role='ADMIN' AND rowid < ? ORDER BY rowid DESC» — диапазон индекса без сортировки.
+ * Клиентам тренера хватает idx_groups_admin (user_id — alias rowid, он уже в индексе).
+ */
+final class V6PickerIndexes implements Migration {
+
+    private static final String USERS_ROLE = "CREATE INDEX IF NOT EXISTS idx_users_role ON users(role)";
+
+    @Override public int version() { return 6; }
+
+    @Override public String description() { return "users(role) index for keyset pickers"; }
+
+    @Override public String checksum() { return Schema.checksum(USERS_ROLE); }
+
+    @Override
+    public void apply(Connection c) throws SQLException {
+        OnlineRebuild.addIndex(c, "users", USERS_ROLE);
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.coachbot.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Реестр загруженных картинок: файл с диска → file_id, который вернул Telegram.
+ * size/mtime — чтобы заменённый на диске файл загрузился заново.
+ */
+final class V7Assets implements Migration {
+
+    private static final String DDL = """
+            CREATE TABLE IF NOT EXISTS assets(
+              name       TEXT PRIMARY KEY,
+              file_id    TEXT NOT NULL,
+              size       INTEGER NOT NULL,
+              mtime      INTEGER NOT NULL,
+              updated_at INTEGER NOT NULL
+            )""";
+
+    @Override public int version() { return 7; }
+
+    @Override public String description() { return "telegram file_id registry for static images"; }
+
+    @Override public String checksum() { return Schema.checksum(DDL); }
+
+    @Override
+    public void apply(Connection c) throws SQLException {
+        Schema.exec(c, DDL);
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.coachbot.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Исходящие сообщения рассылок (transactional outbox): строка пишется в той же транзакции, что и отметка
+ * о рассылке, отправляет её OutboxRelay. idem_key — ключ идемпотентности (повторная постановка — no-op).
+ * status: 0 — ждёт, 1 — взято отправителем до claimed_until, 2 — отправлено, 3 — ошибка.
+ */
+final class V8Outbox implements Migration {
+
+    private static final String DDL = """
+            CREATE TABLE IF NOT EXISTS outbox(
+              id            INTEGER PRIMARY KEY AUTOINCREMENT,
+              idem_key      TEXT NOT NULL UNIQUE,
+              chat_id       INTEGER NOT NULL,
+              photo         TEXT,
+              text          TEXT,
+              parse_mode    TEXT,
+              markup        TEXT,
+              status        INTEGER NOT NULL DEFAULT 0,
+              attempts      INTEGER NOT NULL DEFAULT 0,
+              claimed_until INTEGER,
+              last_error    TEXT,
+              created_at    INTEGER NOT NULL,
+              sent_at       INTEGER
+            )""";
+
+    // только незавершённые строки: выборка на захват не видит отправленную историю
+    private static final String INDEX = "CREATE INDEX IF NOT EXISTS idx_outbox_open ON outbox(id) WHERE status < 2";
+
+    @Override public int version() { return 8; }
+
+    @Override public String description() { return "transactional outbox for broadcasts"; }
+
+    @Override public String checksum() { return Schema.checksum(DDL, INDEX); }
+
+    @Override
+    public void apply(Connection c) throws SQLException {
+        Schema.exec(c, DDL);
+        Schema.exec(c, INDEX);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.coachbot.repo;
+
+import com.example.coachbot.Db;
+
+import java.io.File;
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * file_id статичных картинок (3.png, 4.png, 2.jpg, картинки визарда параметров).
+ * Файл грузится в Telegram один раз, дальше отправляется по file_id. Реестр в памяти,
+ * копия — в таблице assets (переживает рестарт). Запись действительна, пока размер и mtime файла
+ * на диске совпадают с сохранёнными.
+ */
+public class AssetRepo {
+
+    private record Asset(String fileId, long size, long mtime) {}
+
+    private static final Map<String, Asset> ASSETS = new ConcurrentHashMap<>();
+    private static final Map<String, Object> UPLOAD_LOCKS = new ConcurrentHashMap<>();
+    private static volatile boolean loaded;
+
+    private static final AtomicLong reused = new AtomicLong();
+    private static final AtomicLong uploads = new AtomicLong();
+    private static final AtomicLong stale = new AtomicLong();
+
+    /** Актуальный file_id для файла или null (не загружался / файл изменился). */
+    public static String fileId(File f) throws Exception {
+        ensureLoaded();
+        Asset a = ASSETS.get(f.getPath());
+        if (a == null || a.size() != f.length() || a.mtime() != f.lastModified()) return null;
+        reused.incrementAndGet();
+        return a.fileId();
+    }
+
+    /** Монитор загрузки файла: параллельные отправки ждут первую загрузку, а не грузят каждая свою. */
+    public static Object uploadLock(File f) {
+        return UPLOAD_LOCKS.computeIfAbsent(f.getPath(), k -> new Object());
+    }
+
+    public static CompletableFuture<Void> save(File f, String fileId) {
+        String name = f.getPath();
+        long size = f.length(), mtime = f.lastModified();
+        uploads.incrementAndGet();
+        ASSETS.put(name, new Asset(fileId, size, mtime));
+        return Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO assets(name,file_id,size,mtime,updated_at) VALUES(?,?,?,?,?) " +
+                            "ON CONFLICT(name) DO UPDATE SET file_id=excluded.file_id, size=excluded.size, " +
+                            "mtime=excluded.mtime, updated_at=excluded.updated_at")) {
+                ps.setString(1, name);
+                ps.setString(2, fileId);
+                ps.setLong(3, size);
+                ps.setLong(4, mtime);
+                ps.setLong(5, System.currentTimeMillis() / 1000L);
+                ps.executeUpdate();
+            }
+        });
+    }
+
+    /** Telegram отверг file_id — забываем, следующая отправка загрузит файл заново. */
+    public static CompletableFuture<Void> forget(File f) {
+        String name = f.getPath();
+        stale.incrementAndGet();
+        ASSETS.remove(name);
+        return Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement("DELETE FROM assets WHERE name=?")) {
+                ps.setString(1, name);
+                ps.executeUpdate();
+            }
+        });
+    }
+
+    private static void ensureLoaded() throws Exception {
+        if (loaded) return;
+        synchronized (AssetRepo.class) {
+            if (loaded) return;
+            try (Connection c = Db.connectCommitted();
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT name, file_id, size, mtime FROM assets")) {
+                while (rs.next()) {
+                    ASSETS.putIfAbsent(rs.getString(1), new Asset(rs.getString(2), rs.getLong(3), rs.getLong(4)));
+                }
+            }
+            loaded = true;
+        }
+    }
+
+    /** Строка для /stats. */
+    public static String stats() {
+        return String.format("assets: known=%d reused=%d uploads=%d stale=%d",
+                ASSETS.size(), reused.get(), uploads.get(), stale.get());
+    }
+}
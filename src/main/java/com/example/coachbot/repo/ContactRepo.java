@@ -3,24 +3,26 @@ package com.example.coachbot.repo;
 import com.example.coachbot.Db;
 
 import java.sql.*;
+import java.util.concurrent.CompletableFuture;
 
 public class ContactRepo {
-    public static void set(String adminId, String text) throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "INSERT INTO contacts(admin_id,text) VALUES(?,?) " +
-                             "ON CONFLICT(admin_id) DO UPDATE SET text=excluded.text"
-             )) {
-            ps.setString(1, adminId);
-            ps.setString(2, text);
-            ps.executeUpdate();
-        }
+    public static CompletableFuture<Void> set(long adminId, String text) {
+        return Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO contacts(admin_id,text) VALUES(?,?) " +
+                            "ON CONFLICT(admin_id) DO UPDATE SET text=excluded.text"
+            )) {
+                ps.setLong(1, adminId);
+                ps.setString(2, text);
+                ps.executeUpdate();
+            }
+        });
     }
 
-    public static String get(String adminId) throws Exception {
-        try (Connection c = Db.connect();
+    public static String get(long adminId) throws Exception {
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement("SELECT text FROM contacts WHERE admin_id=?")) {
-            ps.setString(1, adminId);
+            ps.setLong(1, adminId);
             try (ResultSet rs = ps.executeQuery()) { return rs.next() ? rs.getString(1) : null; }
         }
     }
@@ -1,86 +1,203 @@
 package com.example.coachbot.repo;
 
 import com.example.coachbot.Db;
+import com.example.coachbot.LongLongMap;
+import com.example.coachbot.LongObjMap;
+import com.example.coachbot.LongSet;
 
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
 
+/**
+ * Группы «тренер → клиенты».
+ *
+ * Принадлежность проверяется почти на каждом действии админа, поэтому вся таблица groups держится
+ * в памяти двумя индексами без боксинга: user → admin и admin → множество users. Загружается при первом
+ * обращении (запрос идёт вне блокировки, готовый индекс публикуется под ней), меняется только здесь и только
+ * после фиксации записи в БД. Изменение, зафиксированное во время загрузки, сдвигает поколение — такая загрузка
+ * не публикуется и повторяется, так что индекс всегда совпадает с зафиксированным состоянием таблицы.
+ * Единица работы, которая сама меняла группы, читает их запросом — вместе со своими ещё не зафиксированными изменениями.
+ */
 public class GroupRepo {
 
+    private static final long NO_ADMIN = Long.MIN_VALUE;
+    private static final String TOUCH = "groups";
+    private static final Object LOCK = new Object();
+    private static LongLongMap adminByUser;          // под LOCK; null — ещё не загружен
+    private static LongObjMap<LongSet> usersByAdmin;
+    private static long generation;                  // под LOCK; растёт с каждым зафиксированным изменением
+
     /** Добавить пользователя к админу. Вернёт true, если добавили; false — если уже прикреплён к какому-то тренеру (в т.ч. к этому). */
-    public static boolean addToAdmin(String adminId, String userId) throws Exception {
-        try (Connection c = Db.connect()) {
-
-            // 1) уже есть запись для этого user_id?
-            String owner = adminOf(userId, c);
-            if (owner != null) {
-                // Уже есть тренер — запрещаем (максимум один тренер на пользователя)
-                return false;
+    public static boolean addToAdmin(long adminId, long userId) throws Exception {
+        if (adminOf(userId) != null) return false; // быстрый отказ без очереди писателя
+        boolean added = Db.call(c -> {
+            // 1) уже есть запись для этого user_id? (источник истины — БД)
+            try (PreparedStatement ps = c.prepareStatement("SELECT 1 FROM groups WHERE user_id=?")) {
+                ps.setLong(1, userId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    // Уже есть тренер — запрещаем (максимум один тренер на пользователя)
+                    if (rs.next()) return false;
+                }
             }
 
             // 2) вставить
             try (PreparedStatement ps = c.prepareStatement(
                     "INSERT INTO groups(user_id, admin_id) VALUES(?,?)")) {
-                ps.setString(1, userId);
-                ps.setString(2, adminId);
+                ps.setLong(1, userId);
+                ps.setLong(2, adminId);
                 ps.executeUpdate();
                 return true;
             }
+        });
+        if (added) {
+            Db.touch(TOUCH);
+            Db.afterCommit(() -> {
+                synchronized (LOCK) {
+                    generation++;
+                    if (adminByUser != null) link(userId, adminId);
+                }
+            });
         }
+        return added;
     }
 
     /** Удалить пользователя из своей группы. True — если удалили; false — если такой пары нет. */
-    public static boolean removeFromAdmin(String adminId, String userId) throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement("DELETE FROM groups WHERE user_id=? AND admin_id=?")) {
-            ps.setString(1, userId);
-            ps.setString(2, adminId);
-            return ps.executeUpdate() > 0;
+    public static boolean removeFromAdmin(long adminId, long userId) throws Exception {
+        boolean removed = Db.call(c -> {
+            try (PreparedStatement ps = c.prepareStatement("DELETE FROM groups WHERE user_id=? AND admin_id=?")) {
+                ps.setLong(1, userId);
+                ps.setLong(2, adminId);
+                return ps.executeUpdate() > 0;
+            }
+        });
+        if (removed) {
+            Db.touch(TOUCH);
+            Db.afterCommit(() -> {
+                synchronized (LOCK) {
+                    generation++;
+                    if (adminByUser != null) unlink(userId);
+                }
+            });
         }
+        return removed;
     }
 
     /** Сколько пользователей у этого админа. */
-    public static int countUsersOfAdmin(String adminId) throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM groups WHERE admin_id=?")) {
-            ps.setString(1, adminId);
-            try (ResultSet rs = ps.executeQuery()) {
-                return rs.next() ? rs.getInt(1) : 0;
-            }
+    public static int countUsersOfAdmin(long adminId) throws Exception {
+        if (Db.touched(TOUCH)) return usersOfAdminOwn(adminId).length;
+        ensureLoaded();
+        synchronized (LOCK) {
+            LongSet s = usersByAdmin.get(adminId);
+            return s == null ? 0 : s.size();
         }
     }
 
-    /** Список user_id у админа (постранично). */
-    public static List<String> usersOfAdmin(String adminId, int limit, int offset) throws Exception {
-        List<String> out = new ArrayList<>();
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT user_id FROM groups WHERE admin_id=? ORDER BY user_id LIMIT ? OFFSET ?")) {
-            ps.setString(1, adminId);
-            ps.setInt(2, Math.max(1, limit));
-            ps.setInt(3, Math.max(0, offset));
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) out.add(rs.getString(1));
-            }
+    /** Все user_id у админа по возрастанию (копия — для рассылок). */
+    public static long[] usersOfAdmin(long adminId) throws Exception {
+        if (Db.touched(TOUCH)) return usersOfAdminOwn(adminId);
+        ensureLoaded();
+        synchronized (LOCK) {
+            LongSet s = usersByAdmin.get(adminId);
+            return s == null ? new long[0] : s.toSortedArray();
+        }
+    }
+
+    /**
+     * Клиенты админа для пикера, новые сверху (u.rowid DESC — порядок регистрации, как и раньше).
+     * Группа берётся по idx_groups_admin, сортируется только она — не вся таблица users.
+     */
+    public static UserRepo.Page clientsPage(long adminId, Long cursor, boolean forward, int size) throws Exception {
+        try (Connection c = Db.connectRead()) {
+            return UserRepo.keysetPage(c,
+                    "SELECT u.id, u.username, u.first_name, u.rowid FROM groups g " +
+                            "JOIN users u ON u.id = g.user_id " +
+                            "WHERE g.admin_id=? AND u.active=1",
+                    "u.rowid", adminId, cursor, forward, size);
         }
-        return out;
     }
 
     /** Узнать тренера пользователя. null — если не прикреплён. */
-    public static String adminOf(String userId) throws Exception {
-        try (Connection c = Db.connect()) {
-            return adminOf(userId, c);
+    public static Long adminOf(long userId) throws Exception {
+        if (Db.touched(TOUCH)) return adminOfOwn(userId);
+        ensureLoaded();
+        long a;
+        synchronized (LOCK) {
+            a = adminByUser.get(userId, NO_ADMIN);
+        }
+        return a == NO_ADMIN ? null : a;
+    }
+
+    /* ===================== свои изменения (мимо индекса) ===================== */
+
+    private static long[] usersOfAdminOwn(long adminId) throws Exception {
+        LongSet out = new LongSet();
+        try (Connection c = Db.connectRead();
+             PreparedStatement ps = c.prepareStatement("SELECT user_id FROM groups WHERE admin_id=?")) {
+            ps.setLong(1, adminId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(rs.getLong(1));
+            }
         }
+        return out.toSortedArray();
     }
 
-    // Внутренняя перегрузка — чтобы не открывать коннект дважды.
-    private static String adminOf(String userId, Connection c) throws Exception {
-        try (PreparedStatement ps = c.prepareStatement("SELECT admin_id FROM groups WHERE user_id=?")) {
-            ps.setString(1, userId);
+    private static Long adminOfOwn(long userId) throws Exception {
+        try (Connection c = Db.connectRead();
+             PreparedStatement ps = c.prepareStatement("SELECT admin_id FROM groups WHERE user_id=?")) {
+            ps.setLong(1, userId);
             try (ResultSet rs = ps.executeQuery()) {
-                return rs.next() ? rs.getString(1) : null;
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+
+    /* ===================== индекс ===================== */
+
+    /** Загрузить индекс, если его ещё нет. Запрос — вне LOCK: чтения других потоков и изменения групп его не ждут. */
+    private static void ensureLoaded() throws Exception {
+        while (true) {
+            long gen;
+            synchronized (LOCK) {
+                if (adminByUser != null) return;
+                gen = generation;
+            }
+            LongLongMap byUser = new LongLongMap(1024);
+            LongObjMap<LongSet> byAdmin = new LongObjMap<>();
+            try (Connection c = Db.connectCommitted();
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT user_id, admin_id FROM groups")) {
+                while (rs.next()) {
+                    long u = rs.getLong(1), a = rs.getLong(2);
+                    byUser.put(u, a);
+                    group(byAdmin, a).add(u);
+                }
+            }
+            synchronized (LOCK) {
+                if (adminByUser != null) return;  // опередил другой поток
+                if (generation != gen) continue;  // пока грузили, группы менялись — снимок мог их пропустить
+                adminByUser = byUser;
+                usersByAdmin = byAdmin;
+                return;
             }
         }
     }
-}
\ No newline at end of file
+
+    private static LongSet group(LongObjMap<LongSet> byAdmin, long adminId) {
+        LongSet s = byAdmin.get(adminId);
+        if (s == null) byAdmin.put(adminId, s = new LongSet());
+        return s;
+    }
+
+    private static void link(long userId, long adminId) {
+        unlink(userId);
+        adminByUser.put(userId, adminId);
+        group(usersByAdmin, adminId).add(userId);
+    }
+
+    private static void unlink(long userId) {
+        long prev = adminByUser.get(userId, NO_ADMIN);
+        if (prev == NO_ADMIN) return;
+        adminByUser.remove(userId);
+        LongSet s = usersByAdmin.get(prev);
+        if (s != null && s.remove(userId) && s.isEmpty()) usersByAdmin.remove(prev);
+    }
+}
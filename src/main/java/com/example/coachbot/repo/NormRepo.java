@@ -1,27 +1,39 @@
 package com.example.coachbot.repo;
 
 import com.example.coachbot.Db;
+import com.example.coachbot.LongCache;
+import com.example.coachbot.migration.DateColumns;
 import com.example.coachbot.Emojis;
 
 import java.sql.*;
 import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
 
 public class NormRepo {
-    public static void setNorms(String userId, LocalDate date, Double water, Integer steps, Double sleep, String by) throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "INSERT INTO activity_norms(user_id,date,water_liters,steps,sleep_hours,set_by) VALUES(?,?,?,?,?,?) " +
-                             "ON CONFLICT(user_id,date) DO UPDATE SET water_liters=excluded.water_liters, steps=excluded.steps, sleep_hours=excluded.sleep_hours, set_by=excluded.set_by")) {
-            ps.setString(1, userId); ps.setString(2, date.toString());
-            ps.setObject(3, water); ps.setObject(4, steps); ps.setObject(5, sleep);
-            ps.setString(6, by); ps.executeUpdate();
-        }
+
+    // Готовый текст норм на день (см. PlanRepo: тот же ключ и та же инвалидация)
+    private static final LongCache<String> NORMS_TEXT = new LongCache<>("norms_text", 5_000, 12 * 3_600_000L);
+
+    public static CompletableFuture<Void> setNorms(long userId, LocalDate date, Double water, Integer steps, Double sleep, long by) {
+        return PlanRepo.invalidateText(NORMS_TEXT, userId, date, Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO activity_norms(user_id,date,water_liters,steps,sleep_hours,set_by) VALUES(?,?,?,?,?,?) " +
+                            "ON CONFLICT(user_id,date) DO UPDATE SET water_liters=excluded.water_liters, steps=excluded.steps, sleep_hours=excluded.sleep_hours, set_by=excluded.set_by")) {
+                ps.setLong(1, userId); DateColumns.set(ps, 2, "activity_norms", date);
+                ps.setObject(3, water); ps.setObject(4, steps); ps.setObject(5, sleep);
+                ps.setLong(6, by); ps.executeUpdate();
+            }
+        }));
+    }
+
+    public static String getNormsText(long userId, LocalDate date) throws Exception {
+        return PlanRepo.cachedText(NORMS_TEXT, userId, date, k -> loadNormsText(userId, date));
     }
 
-    public static String getNormsText(String userId, LocalDate date) throws Exception {
-        try (Connection c = Db.connect(); PreparedStatement ps = c.prepareStatement(
+    private static String loadNormsText(long userId, LocalDate date) throws Exception {
+        try (Connection c = Db.connectRead(); PreparedStatement ps = c.prepareStatement(
                 "SELECT water_liters, steps, sleep_hours FROM activity_norms WHERE user_id=? AND date=?")) {
-            ps.setString(1, userId); ps.setString(2, date.toString());
+            ps.setLong(1, userId); DateColumns.set(ps, 2, "activity_norms", date);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
                     return String.format("%s Вода: %s л\n%s Шаги: %s\n%s Сон: %s ч",
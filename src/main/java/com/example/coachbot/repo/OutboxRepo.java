@@ -0,0 +1,154 @@
+package com.example.coachbot.repo;
+
+import com.example.coachbot.Db;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Исходящие сообщения рассылок (таблица outbox).
+ *
+ * Производитель ставит сообщение через {@link #enqueue} в своей единице работы — вместе с отметкой
+ * о рассылке оно фиксируется или откатывается целиком. Отправитель забирает пачку через {@link #claim}:
+ * строки атомарно помечаются взятыми до claimed_until (UPDATE … RETURNING на единственном писателе),
+ * поэтому несколько отправителей не возьмут одну строку дважды. Если отправитель упал, не отметив
+ * результат, срок захвата истекает и строку берут снова (доставка «хотя бы раз»).
+ */
+public class OutboxRepo {
+
+    public static final int NEW = 0, CLAIMED = 1, SENT = 2, FAILED = 3;
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final List<Runnable> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private static final AtomicLong enqueued = new AtomicLong();
+    private static final AtomicLong claimed = new AtomicLong();
+    private static final AtomicLong sent = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+
+    /** Сообщение из outbox. photo — путь к файлу картинки (тогда text — подпись) или null. */
+    public record Entry(long id, String key, long chatId, String photo, String text,
+                        String parseMode, InlineKeyboardMarkup markup, int attempts) {}
+
+    /** Вызывается после фиксации новых сообщений (в потоке писателя — только разбудить отправителя). */
+    public static void addListener(Runnable l) {
+        LISTENERS.add(l);
+    }
+
+    /**
+     * Поставить сообщение. Ключ уже есть — ничего не делаем (повторный тик, повторный callback).
+     */
+    public static CompletableFuture<Void> enqueue(String key, long chatId, String photo, String text,
+                                                  String parseMode, InlineKeyboardMarkup markup) throws Exception {
+        String kb = markup == null ? null : JSON.writeValueAsString(markup);
+        CompletableFuture<Void> f = Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO outbox(idem_key,chat_id,photo,text,parse_mode,markup,created_at) VALUES(?,?,?,?,?,?,?) " +
+                            "ON CONFLICT(idem_key) DO NOTHING")) {
+                ps.setString(1, key);
+                ps.setLong(2, chatId);
+                ps.setString(3, photo);
+                ps.setString(4, text);
+                ps.setString(5, parseMode);
+                ps.setString(6, kb);
+                ps.setLong(7, nowSec());
+                if (ps.executeUpdate() > 0) enqueued.incrementAndGet();
+            }
+        });
+        f.thenRun(() -> {
+            for (Runnable l : LISTENERS) {
+                try { l.run(); } catch (Exception e) { e.printStackTrace(); }
+            }
+        });
+        return f;
+    }
+
+    /**
+     * Взять до limit готовых к отправке сообщений на leaseSec секунд (по порядку постановки).
+     * Строки, которые брали уже maxAttempts раз и чей захват истёк, помечаются FAILED и больше не выдаются.
+     */
+    public static List<Entry> claim(int limit, long leaseSec, int maxAttempts) throws Exception {
+        List<Entry> out = Db.call(c -> {
+            long now = nowSec();
+            try (PreparedStatement ps = c.prepareStatement(
+                    "UPDATE outbox SET status=" + FAILED + ", last_error=? " +
+                            "WHERE status < 2 AND status=" + CLAIMED + " AND claimed_until < ? AND attempts >= ?")) {
+                ps.setString(1, "gave up after " + maxAttempts + " claims");
+                ps.setLong(2, now);
+                ps.setInt(3, maxAttempts);
+                failed.addAndGet(ps.executeUpdate());
+            }
+            List<Entry> rows = new ArrayList<>();
+            try (PreparedStatement ps = c.prepareStatement(
+                    "UPDATE outbox SET status=" + CLAIMED + ", claimed_until=?, attempts=attempts+1 " +
+                            "WHERE id IN (SELECT id FROM outbox WHERE status < 2 " +
+                            "AND (status=" + NEW + " OR claimed_until < ?) AND attempts < ? ORDER BY id LIMIT ?) " +
+                            "RETURNING id, idem_key, chat_id, photo, text, parse_mode, markup, attempts")) {
+                ps.setLong(1, now + leaseSec);
+                ps.setLong(2, now);
+                ps.setInt(3, maxAttempts);
+                ps.setInt(4, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String kb = rs.getString(7);
+                        rows.add(new Entry(rs.getLong(1), rs.getString(2), rs.getLong(3), rs.getString(4),
+                                rs.getString(5), rs.getString(6),
+                                kb == null ? null : JSON.readValue(kb, InlineKeyboardMarkup.class), rs.getInt(8)));
+                    }
+                }
+            }
+            return rows;
+        });
+        out.sort(Comparator.comparingLong(Entry::id)); // порядок RETURNING не гарантирован
+        claimed.addAndGet(out.size());
+        return out;
+    }
+
+    public static CompletableFuture<Void> markSent(long id) {
+        sent.incrementAndGet();
+        return Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "UPDATE outbox SET status=" + SENT + ", sent_at=?, last_error=NULL WHERE id=?")) {
+                ps.setLong(1, nowSec());
+                ps.setLong(2, id);
+                ps.executeUpdate();
+            }
+        });
+    }
+
+    /** Отправитель исчерпал повторы — сообщение больше не берётся. */
+    public static CompletableFuture<Void> markFailed(long id, String error) {
+        failed.incrementAndGet();
+        return Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "UPDATE outbox SET status=" + FAILED + ", last_error=? WHERE id=?")) {
+                ps.setString(1, error);
+                ps.setLong(2, id);
+                ps.executeUpdate();
+            }
+        });
+    }
+
+    /** Строка для /stats: незавершённые — по частичному индексу, остальное — счётчики процесса. */
+    public static String stats() {
+        long open = -1;
+        try (Connection c = Db.connectRead();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM outbox WHERE status < 2")) {
+            if (rs.next()) open = rs.getLong(1);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return String.format("outbox: open=%d enqueued=%d claimed=%d sent=%d failed=%d",
+                open, enqueued.get(), claimed.get(), sent.get(), failed.get());
+    }
+
+    private static long nowSec() { return System.currentTimeMillis() / 1000L; }
+}
@@ -3,11 +3,12 @@ package com.example.coachbot.repo;
 import com.example.coachbot.Db;
 
 import java.sql.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Хранилище параметров пользователя (текущие значения, перезапись при обновлении).
  *
- * Итоговая целевая схема (с авто-добавлением недостающих колонок):
+ * Итоговая целевая схема (колонки добавляются миграциями, см. migration.V2UserParamsColumns):
  *   user_params(
  *     user_id TEXT PRIMARY KEY,
  *     weight REAL,
@@ -30,95 +31,12 @@ import java.sql.*;
  */
 public class ParamsRepo {
 
-    /** Создаём таблицу при отсутствии и гарантируем наличие всех нужных колонок. */
-    private static void ensureTable(Connection c) throws SQLException {
-        // Базовая таблица (с минимальным набором колонок)
-        try (Statement st = c.createStatement()) {
-            st.execute("""
-                CREATE TABLE IF NOT EXISTS user_params(
-                  user_id TEXT PRIMARY KEY,
-                  weight REAL,
-                  waist_navel REAL,
-                  waist_max REAL,
-                  chest_exhale REAL,
-                  chest_relaxed REAL,
-                  chest_inhale REAL,
-                  biceps_left_relaxed REAL,
-                  biceps_left_flex REAL,
-                  biceps_right_relaxed REAL,
-                  biceps_right_flex REAL,
-                  thigh_left REAL,
-                  thigh_right REAL,
-                  hips REAL,
-                  galife REAL,
-                  photo_id TEXT,
-                  updated_at INTEGER
-                )
-            """);
-        }
-
-        // Поддержка старых схем: добавляем отсутствующие колонки безопасно
-        addColumnIfMissing(c, "user_params", "waist_navel", "REAL"); // было 'waist' в старых версиях
-        addColumnIfMissing(c, "user_params", "waist_max", "REAL");
-
-        addColumnIfMissing(c, "user_params", "chest_exhale", "REAL");
-        addColumnIfMissing(c, "user_params", "chest_relaxed", "REAL");
-        addColumnIfMissing(c, "user_params", "chest_inhale", "REAL");
-
-        // Раньше были только biceps_relaxed / biceps_flex — теперь храним отдельно по рукам
-        addColumnIfMissing(c, "user_params", "biceps_left_relaxed", "REAL");
-        addColumnIfMissing(c, "user_params", "biceps_left_flex", "REAL");
-        addColumnIfMissing(c, "user_params", "biceps_right_relaxed", "REAL");
-        addColumnIfMissing(c, "user_params", "biceps_right_flex", "REAL");
-
-        addColumnIfMissing(c, "user_params", "thigh_left", "REAL");
-        addColumnIfMissing(c, "user_params", "thigh_right", "REAL");
-        addColumnIfMissing(c, "user_params", "hips", "REAL");
-        addColumnIfMissing(c, "user_params", "galife", "REAL");
-
-        addColumnIfMissing(c, "user_params", "photo_id", "TEXT");
-        addColumnIfMissing(c, "user_params", "updated_at", "INTEGER");
-
-        // Совместимость со старым именем "waist" -> переносим в waist_navel при чтении/записи (делаем алиас на уровне upsert/getPretty)
-        if (tableHasColumn(c, "user_params", "waist")) {
-            // Ничего не дропаем — просто оставляем, чтобы не ломать старые данные; на запись используем новые поля
-            // при чтении будем пытаться взять waist_navel, иначе legacy "waist".
-        }
-    }
-
-    private static void addColumnIfMissing(Connection c, String table, String col, String ddlType) {
-        try (PreparedStatement ps = c.prepareStatement("PRAGMA table_info(" + table + ")")) {
-            boolean has = false;
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    if (col.equalsIgnoreCase(rs.getString("name"))) { has = true; break; }
-                }
-            }
-            if (!has) {
-                try (Statement st = c.createStatement()) {
-                    st.execute("ALTER TABLE " + table + " ADD COLUMN " + col + " " + ddlType);
-                }
-            }
-        } catch (SQLException ignore) { /* безопасно проигнорируем */ }
-    }
-
-    private static boolean tableHasColumn(Connection c, String table, String col) {
-        try (PreparedStatement ps = c.prepareStatement("PRAGMA table_info(" + table + ")")) {
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    if (col.equalsIgnoreCase(rs.getString("name"))) return true;
-                }
-            }
-        } catch (SQLException ignore) {}
-        return false;
-    }
-
     /* ================= записи ================= */
 
     /**
      * Upsert числа (все поля nullable). Время обновления проставляется всегда.
      */
-    public static void upsertNumbers(String userId,
+    public static CompletableFuture<Void> upsertNumbers(long userId,
                                      Double weight,
                                      Double waistNavel,
                                      Double waistMax,
@@ -126,9 +44,8 @@ public class ParamsRepo {
                                      Double biL_Rl, Double biL_Fx,
                                      Double biR_Rl, Double biR_Fx,
                                      Double thighL, Double thighR,
-                                     Double hips, Double galife) throws Exception {
-        try (Connection c = Db.connect()) {
-            ensureTable(c);
+                                     Double hips, Double galife) {
+        return Db.write(c -> {
             long now = System.currentTimeMillis() / 1000L;
             try (PreparedStatement ps = c.prepareStatement("""
                 INSERT INTO user_params(
@@ -156,7 +73,7 @@ public class ParamsRepo {
                   updated_at=excluded.updated_at
             """)) {
                 int i = 1;
-                ps.setString(i++, userId);
+                ps.setLong(i++, userId);
                 setNullable(ps, i++, weight);
                 setNullable(ps, i++, waistNavel);
                 setNullable(ps, i++, waistMax);
@@ -174,38 +91,36 @@ public class ParamsRepo {
                 ps.setLong(i, now);
                 ps.executeUpdate();
             }
-        }
+        });
     }
 
-    public static void setPhoto(String userId, String photoId) throws Exception {
-        try (Connection c = Db.connect()) {
-            ensureTable(c);
+    public static CompletableFuture<Void> setPhoto(long userId, String photoId) {
+        return Db.write(c -> {
             long now = System.currentTimeMillis()/1000L;
             try (PreparedStatement ps = c.prepareStatement("""
                 INSERT INTO user_params(user_id, photo_id, updated_at)
                 VALUES(?,?,?)
                 ON CONFLICT(user_id) DO UPDATE SET photo_id=excluded.photo_id, updated_at=excluded.updated_at
             """)) {
-                ps.setString(1, userId);
+                ps.setLong(1, userId);
                 ps.setString(2, photoId);
                 ps.setLong(3, now);
                 ps.executeUpdate();
             }
-        }
+        });
     }
 
-    public static String getPhotoId(String userId) throws Exception {
-        try (Connection c = Db.connect();
+    public static String getPhotoId(long userId) throws Exception {
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement("SELECT photo_id FROM user_params WHERE user_id=?")) {
-            ps.setString(1, userId);
+            ps.setLong(1, userId);
             try (ResultSet rs = ps.executeQuery()) { return rs.next()? rs.getString(1) : null; }
         }
     }
 
     /** Красиво отформатированные параметры (или null, если записей нет). */
-    public static String getPretty(String userId) throws Exception {
-        try (Connection c = Db.connect()) {
-            ensureTable(c);
+    public static String getPretty(long userId) throws Exception {
+        try (Connection c = Db.connectRead()) {
             try (PreparedStatement ps = c.prepareStatement("""
                 SELECT
                   weight,
@@ -218,7 +133,7 @@ public class ParamsRepo {
                   updated_at
                 FROM user_params WHERE user_id=?
             """)) {
-                ps.setString(1, userId);
+                ps.setLong(1, userId);
                 try (ResultSet rs = ps.executeQuery()) {
                     if (!rs.next()) return null;
 
@@ -283,7 +198,7 @@ public class ParamsRepo {
      * Метод-алиас под имя, которое ожидает остальной код.
      * Возвращает тот же текст, что и getPretty(userId).
      */
-    public static String getParamsText(String userId) throws Exception {
+    public static String getParamsText(long userId) throws Exception {
         return getPretty(userId);
     }
 
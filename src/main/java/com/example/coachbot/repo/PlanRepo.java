@@ -1,28 +1,66 @@
 package com.example.coachbot.repo;
 
 import com.example.coachbot.Db;
+import com.example.coachbot.LongCache;
+import com.example.coachbot.migration.DateColumns;
 
 import java.sql.*;
 import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
 
 public class PlanRepo {
 
-    public static void setNutrition(String userId, LocalDate date, Integer kcal, Double p, Double f, Double c, String by) throws Exception {
-        try (Connection conn = Db.connect();
-             PreparedStatement ps = conn.prepareStatement(
-                     "INSERT INTO nutrition_plans(user_id,date,calories,proteins,fats,carbs,set_by) " +
-                             "VALUES(?,?,?,?,?,?,?) ON CONFLICT(user_id,date) DO UPDATE SET calories=excluded.calories, proteins=excluded.proteins, fats=excluded.fats, carbs=excluded.carbs, set_by=excluded.set_by")) {
-            ps.setString(1, userId); ps.setString(2, date.toString()); ps.setObject(3, kcal);
-            ps.setObject(4, p); ps.setObject(5, f); ps.setObject(6, c); ps.setString(7, by);
-            ps.executeUpdate();
-        }
+    // Готовые тексты «на день» (в т.ч. «не задан»): меню, утренняя рассылка и отчёты читают их постоянно
+    private static final LongCache<String> NUTRITION_TEXT = new LongCache<>("nutrition_text", 5_000, 12 * 3_600_000L);
+    private static final LongCache<String> WORKOUT_TEXT = new LongCache<>("workout_text", 5_000, 12 * 3_600_000L);
+
+    /**
+     * Ключ (пользователь, день): user_id << 16 | epochDay (16 бит хватает на ~180 лет вокруг 1970).
+     * -1 — id не помещается в 47 бит, такой ключ не кэшируем.
+     */
+    static long dayKey(long userId, LocalDate date) {
+        if (userId < 0 || userId >= (1L << 47)) return -1;
+        return (userId << 16) | (date.toEpochDay() & 0xFFFF);
+    }
+
+    /** Текст из кэша или через loader; при записи — сброс сразу и после фиксации/отмены (см. UserRepo.invalidateRole). */
+    static String cachedText(LongCache<String> cache, long userId, LocalDate date,
+                             LongCache.Loader<String> loader) throws Exception {
+        long k = dayKey(userId, date);
+        return k < 0 ? loader.load(k) : cache.get(k, loader);
+    }
+
+    static CompletableFuture<Void> invalidateText(LongCache<String> cache, long userId, LocalDate date,
+                                                  CompletableFuture<Void> write) {
+        long k = dayKey(userId, date);
+        if (k < 0) return write;
+        cache.touch(k);
+        cache.remove(k);
+        write.whenComplete((r, e) -> cache.remove(k));
+        return write;
+    }
+
+    public static CompletableFuture<Void> setNutrition(long userId, LocalDate date, Integer kcal, Double p, Double f, Double c, long by) {
+        return invalidateText(NUTRITION_TEXT, userId, date, Db.write(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO nutrition_plans(user_id,date,calories,proteins,fats,carbs,set_by) " +
+                            "VALUES(?,?,?,?,?,?,?) ON CONFLICT(user_id,date) DO UPDATE SET calories=excluded.calories, proteins=excluded.proteins, fats=excluded.fats, carbs=excluded.carbs, set_by=excluded.set_by")) {
+                ps.setLong(1, userId); DateColumns.set(ps, 2, "nutrition_plans", date); ps.setObject(3, kcal);
+                ps.setObject(4, p); ps.setObject(5, f); ps.setObject(6, c); ps.setLong(7, by);
+                ps.executeUpdate();
+            }
+        }));
+    }
+
+    public static String getNutritionText(long userId, LocalDate date) throws Exception {
+        return cachedText(NUTRITION_TEXT, userId, date, k -> loadNutritionText(userId, date));
     }
 
-    public static String getNutritionText(String userId, LocalDate date) throws Exception {
-        try (Connection c = Db.connect();
+    private static String loadNutritionText(long userId, LocalDate date) throws Exception {
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement(
                      "SELECT calories,proteins,fats,carbs FROM nutrition_plans WHERE user_id=? AND date=?")) {
-            ps.setString(1, userId); ps.setString(2, date.toString());
+            ps.setLong(1, userId); DateColumns.set(ps, 2, "nutrition_plans", date);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
                     return String.format("%s Калории: %s\n%s Белки: %s\n%s Жиры: %s\n%s Углеводы: %s",
@@ -36,28 +74,32 @@ public class PlanRepo {
         return "План питания на сегодня не задан.";
     }
 
-    public static void addWorkoutLine(String userId, LocalDate date, String line, String by) throws Exception {
-        String existing = getWorkoutRaw(userId, date);
-        String merged = existing==null || existing.isBlank() ? line : existing + "\n" + line;
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "INSERT INTO workout_plans(user_id,date,text,set_by) VALUES(?,?,?,?) " +
-                             "ON CONFLICT(user_id,date) DO UPDATE SET text=excluded.text, set_by=excluded.set_by")) {
-            ps.setString(1, userId); ps.setString(2, date.toString());
-            ps.setString(3, merged); ps.setString(4, by);
-            ps.executeUpdate();
-        }
+    /** Дописать строку к плану тренировки. Склейка — в самом SQL, чтобы несколько строк в одной единице работы не теряли друг друга. */
+    public static CompletableFuture<Void> addWorkoutLine(long userId, LocalDate date, String line, long by) {
+        return invalidateText(WORKOUT_TEXT, userId, date, Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO workout_plans(user_id,date,text,set_by) VALUES(?,?,?,?) " +
+                            "ON CONFLICT(user_id,date) DO UPDATE SET text=CASE WHEN workout_plans.text IS NULL OR workout_plans.text='' " +
+                            "THEN excluded.text ELSE workout_plans.text || char(10) || excluded.text END, set_by=excluded.set_by")) {
+                ps.setLong(1, userId); DateColumns.set(ps, 2, "workout_plans", date);
+                ps.setString(3, line); ps.setLong(4, by);
+                ps.executeUpdate();
+            }
+        }));
     }
 
-    public static String getWorkoutRaw(String userId, LocalDate date) throws Exception {
-        try (Connection c = Db.connect(); PreparedStatement ps = c.prepareStatement("SELECT text FROM workout_plans WHERE user_id=? AND date=?")) {
-            ps.setString(1, userId); ps.setString(2, date.toString());
+    public static String getWorkoutRaw(long userId, LocalDate date) throws Exception {
+        try (Connection c = Db.connectRead(); PreparedStatement ps = c.prepareStatement("SELECT text FROM workout_plans WHERE user_id=? AND date=?")) {
+            ps.setLong(1, userId); DateColumns.set(ps, 2, "workout_plans", date);
             try (ResultSet rs = ps.executeQuery()) { return rs.next()?rs.getString(1):null; }
         }
     }
 
-    public static String getWorkoutText(String userId, LocalDate date) throws Exception {
-        String raw = getWorkoutRaw(userId, date);
+    public static String getWorkoutText(long userId, LocalDate date) throws Exception {
+        return cachedText(WORKOUT_TEXT, userId, date, k -> renderWorkout(getWorkoutRaw(userId, date)));
+    }
+
+    private static String renderWorkout(String raw) {
         if (raw==null || raw.isBlank()) return "План тренировки на сегодня не задан.";
         StringBuilder sb = new StringBuilder();
         int i=1;
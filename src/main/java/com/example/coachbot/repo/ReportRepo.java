@@ -2,12 +2,14 @@ package com.example.coachbot.repo;
 
 import com.example.coachbot.Db;
 import com.example.coachbot.Emojis;
+import com.example.coachbot.migration.DateColumns;
 import com.example.coachbot.TimeUtil;
 
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class ReportRepo {
 
@@ -37,12 +39,12 @@ public class ReportRepo {
     }
 
     /** Есть ли отчёт у пользователя за указанную дату (с учётом нашей логики суток в TimeUtil.today()) */
-    public static boolean existsFor(String userId, LocalDate date) throws Exception {
-        try (Connection c = Db.connect();
+    public static boolean existsFor(long userId, LocalDate date) throws Exception {
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement(
                      "SELECT 1 FROM reports WHERE user_id=? AND date=?")) {
-            ps.setString(1, userId);
-            ps.setString(2, date.toString());
+            ps.setLong(1, userId);
+            DateColumns.set(ps, 2, "reports", date);
             try (ResultSet rs = ps.executeQuery()) {
                 return rs.next();
             }
@@ -53,81 +55,89 @@ public class ReportRepo {
      * Частичный upsert отчёта за «сегодня» (граница суток 04:00 задаётся в TimeUtil.today()).
      * Любые поля можно передавать null — тогда при upsert они НЕ перезатирают существующие значения.
      */
-    public static void insertOrUpdateForToday(
-            String userId,
+    public static CompletableFuture<Void> insertOrUpdateForToday(
+            long userId,
             Double sleep, Integer steps, Double water,
             Integer kcal, Double p, Double f, Double c,
             String note, String photoId
-    ) throws Exception {
+    ) {
 
         LocalDate d = TimeUtil.today();
         long nowTs = System.currentTimeMillis() / 1000L;
 
-        try (Connection cconn = Db.connect();
-             PreparedStatement ps = cconn.prepareStatement(
-                     "INSERT INTO reports(user_id,date,sleep,steps,water,kcal,p,f,c,note,photo_id,created_at) " +
-                             "VALUES(?,?,?,?,?,?,?,?,?,?,?,?) " +
-                             "ON CONFLICT(user_id,date) DO UPDATE SET " +
-                             " sleep   = COALESCE(excluded.sleep,   reports.sleep)," +
-                             " steps   = COALESCE(excluded.steps,   reports.steps)," +
-                             " water   = COALESCE(excluded.water,   reports.water)," +
-                             " kcal    = COALESCE(excluded.kcal,    reports.kcal)," +
-                             " p       = COALESCE(excluded.p,       reports.p)," +
-                             " f       = COALESCE(excluded.f,       reports.f)," +
-                             " c       = COALESCE(excluded.c,       reports.c)," +
-                             " note    = COALESCE(excluded.note,    reports.note)," +
-                             " photo_id= COALESCE(excluded.photo_id,reports.photo_id)"
-             )) {
-            int i = 1;
-            ps.setString(i++, userId);
-            ps.setString(i++, d.toString());
-            if (sleep == null) ps.setNull(i++, Types.REAL); else ps.setDouble(i++, sleep);
-            if (steps == null) ps.setNull(i++, Types.INTEGER); else ps.setInt(i++, steps);
-            if (water == null) ps.setNull(i++, Types.REAL); else ps.setDouble(i++, water);
-            if (kcal == null) ps.setNull(i++, Types.INTEGER); else ps.setInt(i++, kcal);
-            if (p == null) ps.setNull(i++, Types.REAL); else ps.setDouble(i++, p);
-            if (f == null) ps.setNull(i++, Types.REAL); else ps.setDouble(i++, f);
-            if (c == null) ps.setNull(i++, Types.REAL); else ps.setDouble(i++, c);
-            if (note == null) ps.setNull(i++, Types.VARCHAR); else ps.setString(i++, note);
-            if (photoId == null) ps.setNull(i++, Types.VARCHAR); else ps.setString(i++, photoId);
-            ps.setLong(i, nowTs);
-            ps.executeUpdate();
-        }
+        return Db.write(cconn -> {
+            try (PreparedStatement ps = cconn.prepareStatement(
+                    "INSERT INTO reports(user_id,date,sleep,steps,water,kcal,p,f,c,note,photo_id,created_at) " +
+                            "VALUES(?,?,?,?,?,?,?,?,?,?,?,?) " +
+                            "ON CONFLICT(user_id,date) DO UPDATE SET " +
+                            " sleep   = COALESCE(excluded.sleep,   reports.sleep)," +
+                            " steps   = COALESCE(excluded.steps,   reports.steps)," +
+                            " water   = COALESCE(excluded.water,   reports.water)," +
+                            " kcal    = COALESCE(excluded.kcal,    reports.kcal)," +
+                            " p       = COALESCE(excluded.p,       reports.p)," +
+                            " f       = COALESCE(excluded.f,       reports.f)," +
+                            " c       = COALESCE(excluded.c,       reports.c)," +
+                            " note    = COALESCE(excluded.note,    reports.note)," +
+                            " photo_id= COALESCE(excluded.photo_id,reports.photo_id)"
+            )) {
+                int i = 1;
+                ps.setLong(i++, userId);
+                DateColumns.set(ps, i++, "reports", d);
+                if (sleep == null) ps.setNull(i++, Types.REAL); else ps.setDouble(i++, sleep);
+                if (steps == null) ps.setNull(i++, Types.INTEGER); else ps.setInt(i++, steps);
+                if (water == null) ps.setNull(i++, Types.REAL); else ps.setDouble(i++, water);
+                if (kcal == null) ps.setNull(i++, Types.INTEGER); else ps.setInt(i++, kcal);
+                if (p == null) ps.setNull(i++, Types.REAL); else ps.setDouble(i++, p);
+                if (f == null) ps.setNull(i++, Types.REAL); else ps.setDouble(i++, f);
+                if (c == null) ps.setNull(i++, Types.REAL); else ps.setDouble(i++, c);
+                if (note == null) ps.setNull(i++, Types.VARCHAR); else ps.setString(i++, note);
+                if (photoId == null) ps.setNull(i++, Types.VARCHAR); else ps.setString(i++, photoId);
+                ps.setLong(i, nowTs);
+                ps.executeUpdate();
+            }
+        });
     }
 
     /** 📸 Добавить одно фото еды за конкретную дату (складывается в report_photos) */
-    public static void addFoodPhoto(String userId, LocalDate date, String fileId) throws Exception {
+    public static CompletableFuture<Void> addFoodPhoto(long userId, LocalDate date, String fileId) {
         long nowTs = System.currentTimeMillis() / 1000L;
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "INSERT OR IGNORE INTO report_photos(user_id,date,file_id,created_at) VALUES(?,?,?,?)")) {
-            ps.setString(1, userId);
-            ps.setString(2, date.toString());
-            ps.setString(3, fileId);
-            ps.setLong(4, nowTs);
-            ps.executeUpdate();
+        return Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT OR IGNORE INTO report_photos(user_id,date,file_id,created_at) VALUES(?,?,?,?)")) {
+                ps.setLong(1, userId);
+                DateColumns.set(ps, 2, "report_photos", date);
+                ps.setString(3, fileId);
+                ps.setLong(4, nowTs);
+                ps.executeUpdate();
+            }
+        });
+    }
+
+    public static int countFoodPhotos(long userId, LocalDate date) throws Exception {
+        try (Connection c = Db.connectRead()) {
+            return countFoodPhotos(userId, date, c);
         }
     }
 
-    public static int countFoodPhotos(String userId, LocalDate date) throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT COUNT(*) FROM report_photos WHERE user_id=? AND date=?")) {
-            ps.setString(1, userId);
-            ps.setString(2, date.toString());
+    // Внутренняя перегрузка — чтобы не брать второе соединение из пула внутри открытого запроса.
+    private static int countFoodPhotos(long userId, LocalDate date, Connection c) throws Exception {
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT COUNT(*) FROM report_photos WHERE user_id=? AND date=?")) {
+            ps.setLong(1, userId);
+            DateColumns.set(ps, 2, "report_photos", date);
             try (ResultSet rs = ps.executeQuery()) {
                 return rs.next() ? rs.getInt(1) : 0;
             }
         }
     }
 
-    public static List<String> listFoodPhotos(String userId, LocalDate date) throws Exception {
+    public static List<String> listFoodPhotos(long userId, LocalDate date) throws Exception {
         List<String> out = new ArrayList<>();
-        try (Connection c = Db.connect();
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement(
                      "SELECT file_id FROM report_photos WHERE user_id=? AND date=? ORDER BY created_at, rowid")) {
-            ps.setString(1, userId);
-            ps.setString(2, date.toString());
+            ps.setLong(1, userId);
+            DateColumns.set(ps, 2, "report_photos", date);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) out.add(rs.getString(1));
             }
@@ -136,10 +146,10 @@ public class ReportRepo {
     }
 
     /** Сколько отчётов у пользователя всего */
-    public static int countByUser(String userId) throws Exception {
-        try (Connection c = Db.connect();
+    public static int countByUser(long userId) throws Exception {
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM reports WHERE user_id=?")) {
-            ps.setString(1, userId);
+            ps.setLong(1, userId);
             try (ResultSet rs = ps.executeQuery()) {
                 return rs.next() ? rs.getInt(1) : 0;
             }
@@ -150,7 +160,7 @@ public class ReportRepo {
      * Список строк-карточек отчётов для пользователя, постранично.
      * @param desc true — новые сверху; false — старые сверху
      */
-    public static List<String> listByUser(String userId, int page, int size, boolean desc) throws Exception {
+    public static List<String> listByUser(long userId, int page, int size, boolean desc) throws Exception {
         int offset = (Math.max(1, page) - 1) * Math.max(1, size);
         String order = desc ? "DESC" : "ASC";
 
@@ -159,14 +169,14 @@ public class ReportRepo {
                 "ORDER BY date " + order + " LIMIT ? OFFSET ?";
 
         List<String> out = new ArrayList<>();
-        try (Connection c = Db.connect();
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, userId);
+            ps.setLong(1, userId);
             ps.setInt(2, size);
             ps.setInt(3, offset);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    LocalDate d = LocalDate.parse(rs.getString("date"));
+                    LocalDate d = DateColumns.get(rs, "date");
                     String dateTxt = TimeUtil.DATE_FMT.format(d);
 
                     StringBuilder sb = new StringBuilder();
@@ -195,7 +205,7 @@ public class ReportRepo {
                                 .append(Emojis.BREAD).append(" Углеводы: ").append(val(cc)).append("\n");
                     }
 
-                    int photosCount = countFoodPhotos(userId, d);
+                    int photosCount = countFoodPhotos(userId, d, c);
                     if (photosCount > 0) {
                         sb.append("📸 Фото еды: ").append(photosCount).append(" шт.\n");
                     } else if (photo != null && !photo.isBlank()) {
@@ -214,12 +224,12 @@ public class ReportRepo {
     }
 
     /** Получить одну запись отчёта (как DTO) по пользователю и дате. */
-    public static ReportRow getOne(String userId, LocalDate date) throws Exception {
-        try (Connection c = Db.connect();
+    public static ReportRow getOne(long userId, LocalDate date) throws Exception {
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement(
                      "SELECT sleep,steps,water,kcal,p,f,c,note,photo_id FROM reports WHERE user_id=? AND date=?")) {
-            ps.setString(1, userId);
-            ps.setString(2, date.toString());
+            ps.setLong(1, userId);
+            DateColumns.set(ps, 2, "reports", date);
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next()) return null;
                 Double sleep = box(rs.getObject("sleep"));
@@ -237,7 +247,7 @@ public class ReportRepo {
     }
 
     /** Сформатировать «Отчёт клиента» тем же порядком, что и «Задано тренером». */
-    public static String formatClientSection(String userId, ReportRow row) throws Exception {
+    public static String formatClientSection(long userId, ReportRow row) throws Exception {
         StringBuilder sb = new StringBuilder();
         sb.append("*Отчёт клиента:*\n");
 
@@ -1,21 +1,25 @@
 package com.example.coachbot.repo;
 
 import com.example.coachbot.Db;
+import com.example.coachbot.migration.DateColumns;
 
 import java.sql.*;
 import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
 
 public class SentRepo {
-    public static boolean notSentYet(String type, String userId, LocalDate date) throws Exception {
-        try (Connection c = Db.connect(); PreparedStatement ps = c.prepareStatement("SELECT 1 FROM sent_notifications WHERE type=? AND user_id=? AND date=?")) {
-            ps.setString(1, type); ps.setString(2, userId); ps.setString(3, date.toString());
+    public static boolean notSentYet(String type, long userId, LocalDate date) throws Exception {
+        try (Connection c = Db.connectRead(); PreparedStatement ps = c.prepareStatement("SELECT 1 FROM sent_notifications WHERE type=? AND user_id=? AND date=?")) {
+            ps.setString(1, type); ps.setLong(2, userId); DateColumns.set(ps, 3, "sent_notifications", date);
             try (ResultSet rs = ps.executeQuery()) { return !rs.next(); }
         }
     }
-    public static void markSent(String type, String userId, LocalDate date) throws Exception {
-        try (Connection c = Db.connect(); PreparedStatement ps = c.prepareStatement("INSERT OR IGNORE INTO sent_notifications(type,user_id,date) VALUES(?,?,?)")) {
-            ps.setString(1, type); ps.setString(2, userId); ps.setString(3, date.toString());
-            ps.executeUpdate();
-        }
+    public static CompletableFuture<Void> markSent(String type, long userId, LocalDate date) {
+        return Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement("INSERT OR IGNORE INTO sent_notifications(type,user_id,date) VALUES(?,?,?)")) {
+                ps.setString(1, type); ps.setLong(2, userId); DateColumns.set(ps, 3, "sent_notifications", date);
+                ps.executeUpdate();
+            }
+        });
     }
 }
\ No newline at end of file
@@ -3,6 +3,11 @@ package com.example.coachbot.repo;
 import com.example.coachbot.Db;
 
 import java.sql.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Расширенный SettingsRepo:
@@ -10,46 +15,113 @@ import java.sql.*;
  *  - "персональные" настройки для админов: ключи вида key:adminId;
  *  - отдельные хелперы для времени рассылки (evening_time) per-admin
  *    с глобальным дефолтом (ключ "evening_time").
+ *
+ * Таблица маленькая, а читается планировщиком каждые 30 с — поэтому чтения идут из неизменяемого
+ * снимка в памяти. Снимок загружается один раз и заменяется новым после фиксации каждого set;
+ * подписчики ({@link #addListener}) узнают об изменении сразу после замены.
  */
 public class SettingsRepo {
 
+    /** Уведомление об изменённом ключе (вызывается в потоке писателя — без долгой работы). */
+    @FunctionalInterface
+    public interface Listener {
+        void changed(String key, String value);
+    }
+
+    private static final Object LOCK = new Object();
+    private static volatile Map<String, String> snapshot;
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
     /* ================= базовые k/v ================= */
 
     public static String get(String key, String def) throws Exception {
-        try (Connection c = Db.connect();
+        String v = Db.touched("settings:" + key) ? readOwn(key) : snapshot().get(key);
+        return v != null ? v : def;
+    }
+
+    /** Ключ, записанный текущей единицей работы: снимок его ещё не знает — читаем вместе с её записью. */
+    private static String readOwn(String key) throws Exception {
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement("SELECT value FROM settings WHERE key=?")) {
             ps.setString(1, key);
             try (ResultSet rs = ps.executeQuery()) {
-                return rs.next() ? rs.getString(1) : def;
+                return rs.next() ? rs.getString(1) : null;
             }
         }
     }
 
-    public static void set(String key, String value) throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "INSERT INTO settings(key,value) VALUES(?,?) " +
-                             "ON CONFLICT(key) DO UPDATE SET value=excluded.value")) {
-            ps.setString(1, key);
-            ps.setString(2, value);
-            ps.executeUpdate();
+    /** Неизменяемый снимок всех настроек (зафиксированное состояние). */
+    public static Map<String, String> snapshot() throws Exception {
+        Map<String, String> s = snapshot;
+        if (s != null) return s;
+        synchronized (LOCK) {
+            if (snapshot == null) snapshot = load();
+            return snapshot;
+        }
+    }
+
+    public static void addListener(Listener l) {
+        LISTENERS.add(l);
+    }
+
+    private static Map<String, String> load() throws Exception {
+        Map<String, String> m = new HashMap<>();
+        try (Connection c = Db.connectCommitted();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT key, value FROM settings")) {
+            while (rs.next()) {
+                if (rs.getString(2) != null) m.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        return Map.copyOf(m);
+    }
+
+    /** Копия снимка с изменённым ключом; вызывается после фиксации записи, в порядке фиксаций. */
+    private static void apply(String key, String value) {
+        try {
+            synchronized (LOCK) {
+                Map<String, String> m = new HashMap<>(snapshot());
+                if (value == null) m.remove(key); else m.put(key, value);
+                snapshot = Map.copyOf(m);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        for (Listener l : LISTENERS) {
+            try { l.changed(key, value); } catch (Exception e) { e.printStackTrace(); }
         }
     }
 
+    public static CompletableFuture<Void> set(String key, String value) {
+        Db.touch("settings:" + key);
+        CompletableFuture<Void> f = Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO settings(key,value) VALUES(?,?) " +
+                            "ON CONFLICT(key) DO UPDATE SET value=excluded.value")) {
+                ps.setString(1, key);
+                ps.setString(2, value);
+                ps.executeUpdate();
+            }
+        });
+        f.thenRun(() -> apply(key, value));
+        return f;
+    }
+
     /* ================= перс-ключи для админов ================= */
 
-    private static String keyForAdmin(String baseKey, String adminId) {
+    private static String keyForAdmin(String baseKey, long adminId) {
         return baseKey + ":" + adminId;
     }
 
-    public static String getForAdmin(String baseKey, String adminId, String def) throws Exception {
+    public static String getForAdmin(String baseKey, long adminId, String def) throws Exception {
         String k = keyForAdmin(baseKey, adminId);
         return get(k, def);
     }
 
-    public static void setForAdmin(String baseKey, String adminId, String value) throws Exception {
+    public static CompletableFuture<Void> setForAdmin(String baseKey, long adminId, String value) {
         String k = keyForAdmin(baseKey, adminId);
-        set(k, value);
+        return set(k, value);
     }
 
     /* ================= evening_time (персонально для админа) ================= */
@@ -59,22 +131,22 @@ public class SettingsRepo {
         return get("evening_time", "19:00");
     }
 
-    public static String getEveningTimeForAdmin(String adminId) throws Exception {
+    public static String getEveningTimeForAdmin(long adminId) throws Exception {
         String perAdmin = getForAdmin("evening_time", adminId, null);
         if (perAdmin != null && !perAdmin.isBlank()) return perAdmin;
         return getEveningTimeDefault();
     }
 
-    public static void setEveningTimeForAdmin(String adminId, String hhmm) throws Exception {
-        setForAdmin("evening_time", adminId, hhmm);
+    public static CompletableFuture<Void> setEveningTimeForAdmin(long adminId, String hhmm) {
+        return setForAdmin("evening_time", adminId, hhmm);
     }
 
     /**
      * Утилита: получить вечернее время для конкретного пользователя (по его тренеру).
      * Если пользователь не прикреплён — вернётся глобальный дефолт.
      */
-    public static String getEveningTimeForUser(String userId) throws Exception {
-        String admin = GroupRepo.adminOf(userId);
+    public static String getEveningTimeForUser(long userId) throws Exception {
+        Long admin = GroupRepo.adminOf(userId);
         if (admin == null) return getEveningTimeDefault();
         return getEveningTimeForAdmin(admin);
     }
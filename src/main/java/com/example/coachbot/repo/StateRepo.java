@@ -1,29 +1,57 @@
 package com.example.coachbot.repo;
 
 import com.example.coachbot.Db;
+import com.example.coachbot.LongCache;
 
 import java.sql.*;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Состояние визардов. Читается на каждом сообщении/колбэке, поэтому обслуживается из памяти:
+ * set/clear сразу обновляют кэш (write-through) и ставят запись в единицу работы апдейта,
+ * таблица user_states — долговременная копия на случай рестарта. Если запись не зафиксировалась
+ * (апдейт откатился), запись кэша сбрасывается и следующее чтение берёт состояние из БД.
+ * Брошенные визарды уходят из памяти по TTL, из таблицы — через RetentionService.
+ */
 public class StateRepo {
-    public static void set(String userId, String type, int step, String payload) throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement("INSERT INTO user_states(user_id,type,step,payload) VALUES(?,?,?,?) ON CONFLICT(user_id) DO UPDATE SET type=excluded.type, step=excluded.step, payload=excluded.payload")) {
-            ps.setString(1, userId); ps.setString(2, type); ps.setInt(3, step); ps.setString(4, payload); ps.executeUpdate();
-        }
+
+    // «состояния нет» — тоже ответ, его кэшируем, чтобы не ходить в БД на каждое сообщение
+    private static final State NONE = new State(null, 0, null);
+    private static final LongCache<State> STATES = new LongCache<>("states", 20_000, 30 * 60_000L);
+
+    public static CompletableFuture<Void> set(long userId, String type, int step, String payload) {
+        STATES.put(userId, new State(type, step, payload));
+        return dropOnFailure(userId, Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO user_states(user_id,type,step,payload,updated_at) VALUES(?,?,?,?,?) ON CONFLICT(user_id) DO UPDATE SET type=excluded.type, step=excluded.step, payload=excluded.payload, updated_at=excluded.updated_at")) {
+                ps.setLong(1, userId); ps.setString(2, type); ps.setInt(3, step); ps.setString(4, payload);
+                ps.setLong(5, System.currentTimeMillis() / 1000L); ps.executeUpdate();
+            }
+        }));
     }
-    public static void clear(String userId) throws Exception {
-        try (Connection c = Db.connect(); PreparedStatement ps = c.prepareStatement("DELETE FROM user_states WHERE user_id=?")) {
-            ps.setString(1, userId); ps.executeUpdate();
-        }
+    public static CompletableFuture<Void> clear(long userId) {
+        STATES.put(userId, NONE);
+        return dropOnFailure(userId, Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement("DELETE FROM user_states WHERE user_id=?")) {
+                ps.setLong(1, userId); ps.executeUpdate();
+            }
+        }));
     }
-    public static State get(String userId) throws Exception {
-        try (Connection c = Db.connect(); PreparedStatement ps = c.prepareStatement("SELECT type,step,payload FROM user_states WHERE user_id=?")) {
-            ps.setString(1, userId);
+    public static State get(long userId) throws Exception {
+        State s = STATES.get(userId, StateRepo::load);
+        return s == NONE ? null : s;
+    }
+    private static State load(long userId) throws Exception {
+        try (Connection c = Db.connectRead(); PreparedStatement ps = c.prepareStatement("SELECT type,step,payload FROM user_states WHERE user_id=?")) {
+            ps.setLong(1, userId);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) return new State(rs.getString(1), rs.getInt(2), rs.getString(3));
             }
         }
-        return null;
+        return NONE;
+    }
+    private static CompletableFuture<Void> dropOnFailure(long userId, CompletableFuture<Void> write) {
+        write.whenComplete((r, e) -> { if (e != null) STATES.remove(userId); });
+        return write;
     }
     public record State(String type, int step, String payload) {}
-}
\ No newline at end of file
+}
@@ -2,11 +2,97 @@ package com.example.coachbot.repo;
 
 import com.example.coachbot.Db;
 import java.sql.*;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Антидубли апдейтов Telegram.
+ *
+ * update_id у бота растут монотонно, поэтому вместо таблицы всех id держим:
+ *  - high-watermark — максимальный увиденный id (в БД — одна строка update_watermark);
+ *  - кольцевой битсет последних WINDOW id ниже него — на случай апдейтов не по порядку.
+ * Проверка — O(1) в памяти; на диск пишется только новый максимум, в той же единице работы, что и сам апдейт.
+ * Дубли отсекаются только внутри окна. Id ниже окна — не дубль, а новая последовательность: после недели
+ * без апдейтов Telegram начинает update_id со случайного значения. Тогда максимум сбрасывается на этот id.
+ * После рестарта всё окно под сохранённым максимумом считается обработанным.
+ */
 public class UpdatesRepo {
+
+    private static final int WINDOW = 4096; // кратно 64
+    private static final long[] SEEN = new long[WINDOW / 64];
+    private static long high = -1;
+    private static boolean loaded;
+
+    private static final AtomicLong accepted = new AtomicLong();
+    private static final AtomicLong duplicates = new AtomicLong();
+    private static final AtomicLong resets = new AtomicLong();
+
+    /** true — апдейт новый. */
     public static boolean markProcessed(int updateId) throws Exception {
-        try (Connection c = Db.connect(); PreparedStatement ps = c.prepareStatement("INSERT INTO processed_updates(update_id) VALUES(?)")) {
-            ps.setInt(1, updateId); ps.executeUpdate(); return true;
-        } catch (SQLException ex) { return false; }
+        boolean advanced, reset = false;
+        synchronized (UpdatesRepo.class) {
+            if (!loaded) load();
+            long id = updateId;
+            if (id <= high - WINDOW) {
+                // новая последовательность update_id — начинаем окно с неё
+                for (int i = 0; i < SEEN.length; i++) SEEN[i] = 0L;
+                set(id);
+                high = id;
+                advanced = reset = true;
+                resets.incrementAndGet();
+            } else if (id > high) {
+                // сдвиг окна: биты id из (high, id) ещё не приходили — очищаем
+                long from = Math.max(high + 1, id - WINDOW + 1);
+                for (long x = from; x < id; x++) clear(x);
+                set(id);
+                high = id;
+                advanced = true;
+            } else if (test(id)) {
+                duplicates.incrementAndGet();
+                return false;
+            } else {
+                set(id);
+                advanced = false;
+            }
+        }
+        accepted.incrementAndGet();
+        if (advanced) {
+            // при сбросе максимум уменьшается — пишем как есть, иначе только растим
+            String upd = reset ? "excluded.last_update_id" : "max(last_update_id, excluded.last_update_id)";
+            Db.writeUnread(c -> {
+                try (PreparedStatement ps = c.prepareStatement(
+                        "INSERT INTO update_watermark(id, last_update_id) VALUES(1, ?) " +
+                                "ON CONFLICT(id) DO UPDATE SET last_update_id=" + upd)) {
+                    ps.setLong(1, updateId);
+                    ps.executeUpdate();
+                }
+            });
+        }
+        return true;
+    }
+
+    private static void load() throws Exception {
+        try (Connection c = Db.connectRead();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT last_update_id FROM update_watermark WHERE id=1")) {
+            if (rs.next()) {
+                high = rs.getLong(1);
+                // всё до сохранённого максимума включительно уже обработано
+                for (int i = 0; i < SEEN.length; i++) SEEN[i] = -1L;
+            }
+        }
+        loaded = true;
+    }
+
+    private static int slot(long id) { return (int) Math.floorMod(id, (long) WINDOW); }
+    private static boolean test(long id) { int s = slot(id); return (SEEN[s >>> 6] & (1L << (s & 63))) != 0; }
+    private static void set(long id) { int s = slot(id); SEEN[s >>> 6] |= 1L << (s & 63); }
+    private static void clear(long id) { int s = slot(id); SEEN[s >>> 6] &= ~(1L << (s & 63)); }
+
+    /** Строка для /stats. */
+    public static String stats() {
+        long h;
+        synchronized (UpdatesRepo.class) { h = high; }
+        return String.format("updates: accepted=%d duplicates=%d resets=%d watermark=%d window=%d",
+                accepted.get(), duplicates.get(), resets.get(), h, WINDOW);
     }
-}
\ No newline at end of file
+}
@@ -1,48 +1,124 @@
 package com.example.coachbot.repo;
 
 import com.example.coachbot.Db;
+import com.example.coachbot.LongCache;
 import com.example.coachbot.Roles;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class UserRepo {
 
+    // Роль проверяется по нескольку раз на апдейт, меняется редко — только через setRole/ensureAdmin
+    private static final LongCache<Roles> ROLES = new LongCache<>("roles", 10_000, 10 * 60_000L);
+    // То, что уже лежит в users для активного пользователя: upsert на каждом сообщении пишет, только если оно изменилось
+    private static final LongCache<Profile> PROFILES = new LongCache<>("profiles", 20_000, 30 * 60_000L);
+    // нет строки или active=0 — upsert нужен
+    private static final Profile NO_PROFILE = new Profile(null, null);
+
+    private record Profile(String username, String firstName) {}
+
     public static class UserRow {
-        public final String id;
+        public final long id;
         public final String username;   // @tag без @
         public final String firstName;  // отображаемое имя
 
-        public UserRow(String id, String username, String firstName) {
+        public UserRow(long id, String username, String firstName) {
             this.id = id;
             this.username = username;
             this.firstName = firstName;
         }
     }
 
-    public static void upsertUser(String id, String username, String firstName) throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement("""
-                         INSERT INTO users(id, username, first_name, role, active)
-                         VALUES(?, ?, ?, COALESCE((SELECT role FROM users WHERE id=?),'USER'), 1)
-                         ON CONFLICT(id) DO UPDATE SET
-                           username=excluded.username,
-                           first_name=excluded.first_name,
-                           active=1
-                     """)) {
-            ps.setString(1, id);
-            ps.setString(2, username);
-            ps.setString(3, firstName);
-            ps.setString(4, id);
-            ps.executeUpdate();
+    /**
+     * Страница keyset-пагинации (вместо OFFSET): строки + курсоры соседних страниц.
+     * prev/next — ключ крайней строки этой страницы; null — соседней страницы нет.
+     */
+    public record Page(List<UserRow> rows, Long prev, Long next) {}
+
+    /**
+     * Общий keyset-запрос. select — SELECT id, username, first_name, &lt;ключ&gt; ... WHERE ... (без ORDER/LIMIT);
+     * список упорядочен по ключу по убыванию. forward — страница после cursor, иначе перед ним.
+     * Стоимость — O(size) по индексу ключа, независимо от глубины.
+     */
+    static Page keysetPage(Connection c, String select, String key, Long adminId,
+                           Long cursor, boolean forward, int size) throws SQLException {
+        String sql = select
+                + (cursor == null ? "" : " AND " + key + (forward ? " < ?" : " > ?"))
+                + " ORDER BY " + key + (forward ? " DESC" : " ASC") + " LIMIT ?";
+        List<UserRow> rows = new ArrayList<>();
+        List<Long> keys = new ArrayList<>();
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            int i = 1;
+            if (adminId != null) ps.setLong(i++, adminId);
+            if (cursor != null) ps.setLong(i++, cursor);
+            ps.setInt(i, size + 1); // +1 — узнать, есть ли ещё страница
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new UserRow(rs.getLong(1), rs.getString(2), rs.getString(3)));
+                    keys.add(rs.getLong(4));
+                }
+            }
+        }
+        boolean more = rows.size() > size;
+        if (more) { rows.remove(size); keys.remove(size); }
+        if (!forward) { Collections.reverse(rows); Collections.reverse(keys); }
+        if (rows.isEmpty()) return new Page(rows, null, null);
+        Long first = keys.get(0), last = keys.get(keys.size() - 1);
+        return forward
+                ? new Page(rows, cursor == null ? null : first, more ? last : null)
+                : new Page(rows, more ? first : null, last);
+    }
+
+    /**
+     * Профиль из апдейта. Запись ставится, только если username/first_name отличаются от сохранённых
+     * или пользователь неактивен; иначе — уже завершённый future без обращения к писателю.
+     * Кэш обновляется сразу (write-through) и сбрасывается, если запись не зафиксировалась.
+     */
+    public static CompletableFuture<Void> upsertUser(long id, String username, String firstName) throws Exception {
+        Profile p = new Profile(username, firstName);
+        if (p.equals(PROFILES.get(id, UserRepo::loadProfile))) return CompletableFuture.completedFuture(null);
+        PROFILES.put(id, p);
+        CompletableFuture<Void> write = Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement("""
+                        INSERT INTO users(id, username, first_name, role, active)
+                        VALUES(?, ?, ?, 'USER', 1)
+                        ON CONFLICT(id) DO UPDATE SET
+                          username=excluded.username,
+                          first_name=excluded.first_name,
+                          active=1
+                    """)) {
+                ps.setLong(1, id);
+                ps.setString(2, username);
+                ps.setString(3, firstName);
+                ps.executeUpdate();
+            }
+        });
+        write.whenComplete((r, e) -> { if (e != null) PROFILES.remove(id); });
+        return write;
+    }
+
+    private static Profile loadProfile(long id) throws Exception {
+        try (Connection c = Db.connectRead();
+             PreparedStatement ps = c.prepareStatement("SELECT username, first_name FROM users WHERE id=? AND active=1")) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? new Profile(rs.getString(1), rs.getString(2)) : NO_PROFILE;
+            }
         }
     }
 
-    public static Roles role(String id) throws Exception {
-        try (Connection c = Db.connect();
+    public static Roles role(long id) throws Exception {
+        return ROLES.get(id, UserRepo::loadRole);
+    }
+
+    private static Roles loadRole(long id) throws Exception {
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement("SELECT role FROM users WHERE id=?")) {
-            ps.setString(1, id);
+            ps.setLong(1, id);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
                     try { return Roles.valueOf(rs.getString(1)); }
@@ -53,113 +129,102 @@ public class UserRepo {
         }
     }
 
-    public static void setRole(String id, Roles r) throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement("""
-                         INSERT INTO users(id, role, active)
-                         VALUES(?, ?, 1)
-                         ON CONFLICT(id) DO UPDATE SET role=excluded.role, active=1
-                     """)) {
-            ps.setString(1, id);
-            ps.setString(2, r.name());
-            ps.executeUpdate();
-        }
+    /**
+     * Сброс роли в кэше — только когда запись зафиксирована (future записи завершается после коммита,
+     * и в единице работы тоже): до этого другие потоки видят и кэшируют прежнюю, ещё действующую роль.
+     * Своя единица работы читает роль мимо кэша (touch). Загрузка, начатая до сброса, в кэш не попадёт
+     * (поколение LongCache), так что старая роль после коммита не останется.
+     */
+    private static CompletableFuture<Void> invalidateRole(long id, CompletableFuture<Void> write) {
+        ROLES.touch(id);
+        write.whenComplete((r, e) -> { if (e == null) ROLES.remove(id); });
+        return write;
     }
 
-    public static void ensureAdmin(String id) throws Exception {
-        Roles cur = role(id);
-        if (cur != Roles.SUPERADMIN) setRole(id, Roles.ADMIN);
-    }
-
-    public static int countUsers() throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM users WHERE active=1")) {
-            try (ResultSet rs = ps.executeQuery()) { return rs.next() ? rs.getInt(1) : 0; }
-        }
+    /**
+     * Пользователь недоступен (заблокировал бота, удалён) — исключаем из рассылок.
+     * Следующее его сообщение вернёт active=1 через upsertUser.
+     */
+    public static CompletableFuture<Void> deactivate(long id) {
+        PROFILES.remove(id);
+        CompletableFuture<Void> write = Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement("UPDATE users SET active=0 WHERE id=? AND active=1")) {
+                ps.setLong(1, id);
+                ps.executeUpdate();
+            }
+        });
+        write.whenComplete((r, e) -> PROFILES.remove(id));
+        return write;
     }
 
-    /** Только id — последние сверху (rowid DESC) */
-    public static List<String> allUsersPaged(int limit, int offset) throws Exception {
-        List<String> out = new ArrayList<>();
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT id FROM users WHERE active=1 ORDER BY rowid DESC LIMIT ? OFFSET ?")) {
-            ps.setInt(1, Math.max(1, limit));
-            ps.setInt(2, Math.max(0, offset));
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) out.add(rs.getString(1));
+    public static CompletableFuture<Void> setRole(long id, Roles r) {
+        return invalidateRole(id, Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement("""
+                        INSERT INTO users(id, role, active)
+                        VALUES(?, ?, 1)
+                        ON CONFLICT(id) DO UPDATE SET role=excluded.role, active=1
+                    """)) {
+                ps.setLong(1, id);
+                ps.setString(2, r.name());
+                ps.executeUpdate();
             }
-        }
-        return out;
+        }));
     }
 
-    /** Детально — последние сверху (rowid DESC) */
-    public static List<UserRow> allUsersPagedDetailed(int limit, int offset) throws Exception {
-        List<UserRow> out = new ArrayList<>();
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT id, username, first_name FROM users WHERE active=1 ORDER BY rowid DESC LIMIT ? OFFSET ?")) {
-            ps.setInt(1, Math.max(1, limit));
-            ps.setInt(2, Math.max(0, offset));
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    out.add(new UserRow(
-                            rs.getString("id"),
-                            rs.getString("username"),
-                            rs.getString("first_name")
-                    ));
-                }
+    /** Сделать админом, не понижая супер-админа. Проверка роли — внутри того же UPSERT. */
+    public static CompletableFuture<Void> ensureAdmin(long id) {
+        return invalidateRole(id, Db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement("""
+                        INSERT INTO users(id, role, active)
+                        VALUES(?, 'ADMIN', 1)
+                        ON CONFLICT(id) DO UPDATE SET
+                          role=CASE WHEN users.role='SUPERADMIN' THEN users.role ELSE 'ADMIN' END,
+                          active=1
+                    """)) {
+                ps.setLong(1, id);
+                ps.executeUpdate();
             }
-        }
-        return out;
+        }));
     }
 
-    public static List<String> allActiveUsers() throws Exception {
-        List<String> out = new ArrayList<>();
-        try (Connection c = Db.connect();
+    public static List<Long> allActiveUsers() throws Exception {
+        List<Long> out = new ArrayList<>();
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement(
                      "SELECT id FROM users WHERE active=1 AND (role IS NULL OR role='USER') ORDER BY rowid DESC")) {
             try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) out.add(rs.getString(1));
+                while (rs.next()) out.add(rs.getLong(1));
             }
         }
         return out;
     }
 
-    /** ===== Админы (для «Удалить админа») ===== */
-
-    public static int countAdmins() throws Exception {
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM users WHERE active=1 AND role='ADMIN'")) {
-            try (ResultSet rs = ps.executeQuery()) { return rs.next() ? rs.getInt(1) : 0; }
+    /** Свободные (без тренера) пользователи, новые сверху (rowid DESC). */
+    public static Page freeUsersPage(Long cursor, boolean forward, int size) throws Exception {
+        try (Connection c = Db.connectRead()) {
+            return keysetPage(c,
+                    "SELECT u.id, u.username, u.first_name, u.rowid FROM users u " +
+                            "LEFT JOIN groups g ON g.user_id = u.id " +
+                            "WHERE u.active=1 AND g.user_id IS NULL",
+                    "u.rowid", null, cursor, forward, size);
         }
     }
 
-    public static List<UserRow> adminsPagedDetailed(int limit, int offset) throws Exception {
-        List<UserRow> out = new ArrayList<>();
-        try (Connection c = Db.connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT id, username, first_name FROM users " +
-                             "WHERE active=1 AND role='ADMIN' ORDER BY rowid DESC LIMIT ? OFFSET ?")) {
-            ps.setInt(1, Math.max(1, limit));
-            ps.setInt(2, Math.max(0, offset));
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    out.add(new UserRow(
-                            rs.getString("id"),
-                            rs.getString("username"),
-                            rs.getString("first_name")
-                    ));
-                }
-            }
+    /** ===== Админы (для «Удалить админа») ===== */
+
+    /** Действующие админы, новые сверху: диапазон по idx_users_role (в индексе role записи идут по rowid). */
+    public static Page adminsPage(Long cursor, boolean forward, int size) throws Exception {
+        try (Connection c = Db.connectRead()) {
+            return keysetPage(c,
+                    "SELECT id, username, first_name, rowid FROM users WHERE role='ADMIN' AND active=1",
+                    "rowid", null, cursor, forward, size);
         }
-        return out;
     }
 
     /** Действующие админы (без пагинации) — если где-то нужно */
     public static List<UserRow> listActiveAdminsDetailed() throws Exception {
         List<UserRow> out = new ArrayList<>();
-        try (Connection c = Db.connect();
+        try (Connection c = Db.connectRead();
              PreparedStatement ps = c.prepareStatement(
                      "SELECT id, username, first_name FROM users " +
                              "WHERE active=1 AND role='ADMIN' " +
@@ -167,7 +232,7 @@ public class UserRepo {
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
                     out.add(new UserRow(
-                            rs.getString("id"),
+                            rs.getLong("id"),
                             rs.getString("username"),
                             rs.getString("first_name")
                     ));
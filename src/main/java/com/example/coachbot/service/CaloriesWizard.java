@@ -17,7 +17,7 @@ public class CaloriesWizard {
         return sm;
     }
 
-    public static SendMessage start(String adminId, long chatId, String userId, LocalDate date) throws Exception {
+    public static SendMessage start(long adminId, long chatId, long userId, LocalDate date) throws Exception {
         String payload = userId + "|" + date.toString();
         StateRepo.set(adminId, "SET_CAL", 1, payload);
         return md(chatId,
@@ -26,11 +26,11 @@ public class CaloriesWizard {
                         "_Числа до 5 цифр._");
     }
 
-    public static SendMessage onMessage(String adminId, long chatId, String text) throws Exception {
+    public static SendMessage onMessage(long adminId, long chatId, String text) throws Exception {
         var st = StateRepo.get(adminId);
         if (st==null || !"SET_CAL".equals(st.type())) return null;
         String[] p = st.payload().split("\\|");
-        String userId = p[0]; LocalDate date = LocalDate.parse(p[1]);
+        long userId = Long.parseLong(p[0]); LocalDate date = LocalDate.parse(p[1]);
 
         switch (st.step()) {
             case 1 -> {
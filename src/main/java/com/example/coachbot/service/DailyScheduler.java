@@ -1,17 +1,16 @@
 package com.example.coachbot.service;
 
-import com.example.coachbot.CoachBot;
+import com.example.coachbot.Db;
 import com.example.coachbot.Emojis;
+import com.example.coachbot.LongLongMap;
 import com.example.coachbot.TimeUtil;
 import com.example.coachbot.repo.*;
 
-import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
-
-import java.io.File;
 import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 /**
@@ -19,17 +18,67 @@ import java.util.concurrent.*;
  *  - 08:00 — общий утренний сценарий (как было) + напоминание админам о клиентах без отчёта за вчера.
  *  - Вечер — индивидуально по каждому администратору (evening_time:<adminId> / evening_time).
  *  - Вечерняя рассылка: только тем пользователям, у кого нет отчёта за «сегодня».
+ * Сообщения не отправляются отсюда, а ставятся в outbox в одной транзакции с отметками SentRepo
+ * (см. OutboxRelay): падение или недоступность Telegram не теряют и не дублируют рассылку.
  */
 public class DailyScheduler {
-    private final CoachBot bot;
     private final ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor();
 
-    public DailyScheduler(CoachBot bot) { this.bot = bot; }
+    /**
+     * Вечерние времена рассылки в минутах суток, посчитанные из снимка настроек.
+     * Пересчитываются только при изменении evening_time*; в тике — без обращений к БД.
+     */
+    private record EveningPlan(LongLongMap minuteByAdmin, int defaultMinute, boolean[] anyAt) {
+        int minuteFor(long adminId) { return (int) minuteByAdmin.get(adminId, defaultMinute); }
+    }
+
+    private volatile EveningPlan evening;
+
+    public DailyScheduler() {}
 
     public void start() {
+        SettingsRepo.addListener((key, value) -> {
+            if (key.startsWith("evening_time")) recomputeEvening();
+        });
+        recomputeEvening();
         ses.scheduleAtFixedRate(this::tick, 3, 30, TimeUnit.SECONDS);
     }
 
+    private void recomputeEvening() {
+        try {
+            Map<String, String> s = SettingsRepo.snapshot();
+            int def = minuteOf(s.getOrDefault("evening_time", "19:00"));
+            LongLongMap byAdmin = new LongLongMap();
+            boolean[] anyAt = new boolean[24 * 60];
+            if (def >= 0) anyAt[def] = true;
+            for (Map.Entry<String, String> e : s.entrySet()) {
+                if (!e.getKey().startsWith("evening_time:")) continue;
+                String v = e.getValue();
+                if (v == null || v.isBlank()) continue; // пусто — общий фолбэк
+                try {
+                    long adminId = Long.parseLong(e.getKey().substring("evening_time:".length()));
+                    int m = minuteOf(v);
+                    byAdmin.put(adminId, m);
+                    if (m >= 0) anyAt[m] = true;
+                } catch (NumberFormatException ignored) {}
+            }
+            evening = new EveningPlan(byAdmin, def, anyAt);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** "HH:mm" → минута суток; -1 — некорректное время (рассылка не сработает, как и раньше). */
+    private static int minuteOf(String hhmm) {
+        try {
+            String[] p = hhmm.split(":");
+            int h = Integer.parseInt(p[0]), m = Integer.parseInt(p[1]);
+            return (h >= 0 && h < 24 && m >= 0 && m < 60) ? h * 60 + m : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
     private static String trimCaption(String s) {
         if (s == null) return "";
         int max = 1000; // запас к лимиту Telegram (1024)
@@ -37,110 +86,146 @@ public class DailyScheduler {
         return s.substring(0, Math.max(0, max - 1)) + "…";
     }
 
+    /** Работа по одному получателю рассылки. */
+    private interface Recipient {
+        void run() throws Exception;
+    }
+
+    /** Сколько единиц работы получателей держим в очереди писателя, прежде чем дождаться их фиксации. */
+    private static final int BATCH = 100;
+
+    /**
+     * Рассылка одного тика. Своя единица работы на каждого получателя (сообщение и отметка фиксируются вместе),
+     * но её фиксацию не ждём: единицы уходят писателю без ожидания и попадают в его групповые транзакции,
+     * каждая под своим SAVEPOINT, — ошибка на одном не отменяет рассылку остальным (его возьмёт следующий тик
+     * той же минуты). Ждём только каждые {@link #BATCH} получателей и в конце тика.
+     */
+    private static final class Broadcast {
+        private final List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+
+        void add(String what, Recipient r) {
+            try (Db.Session tx = Db.session()) {
+                r.run();
+                inFlight.add(tx.commitAsync());
+                names.add(what);
+            } catch (Exception e) {
+                failed(what, e);
+            }
+            if (inFlight.size() >= BATCH) join();
+        }
+
+        void join() {
+            for (int i = 0; i < inFlight.size(); i++) {
+                try {
+                    inFlight.get(i).join();
+                } catch (CompletionException | CancellationException e) {
+                    failed(names.get(i), e.getCause() != null ? e.getCause() : e);
+                }
+            }
+            inFlight.clear();
+            names.clear();
+        }
+
+        private static void failed(String what, Throwable e) {
+            System.err.println("[scheduler] " + what + " failed: " + e);
+            e.printStackTrace();
+        }
+    }
+
     private void tick() {
+        Broadcast out = new Broadcast();
         try {
             LocalDate today = TimeUtil.today();
 
             // 08:00 — сценарий на сегодня (одно сообщение с фото 4.png)
             if (TimeUtil.isNow("08:00")) {
                 // Пользователи: утренний сценарий (как было)
-                List<String> users = UserRepo.allActiveUsers();
-                for (String uid : users) {
-                    if (!SentRepo.notSentYet("morning", uid, today)) continue;
-
-                    String food = PlanRepo.getNutritionText(uid, today);
-                    String wkt  = PlanRepo.getWorkoutText(uid, today);
-                    String norm = NormRepo.getNormsText(uid, today);
-
-                    String msg = com.example.coachbot.Texts.morningScenarioTitle() + "\n\n"
-                            + "🍽 План питания:\n" + food + "\n\n"
-                            + "🏋️ Тренировка:\n" + wkt + "\n\n"
-                            + "📊 Нормы активности:\n" + norm + "\n\n"
-                            + "не забудьте заполнить дневной отчёт 📝";
-
-                    SendPhoto sp = new SendPhoto();
-                    sp.setChatId(uid);
-                    sp.setPhoto(new org.telegram.telegrambots.meta.api.objects.InputFile(new File("4.png")));
-                    sp.setCaption(trimCaption(msg));
-
-                    bot.safeExecute(sp);
-                    SentRepo.markSent("morning", uid, today);
+                for (long uid : UserRepo.allActiveUsers()) {
+                    out.add("morning:" + uid, () -> morning(uid, today));
                 }
 
                 // Админы: напоминание о клиентах, кто не прислал отчёт за ВЧЕРА
-                LocalDate yesterday = today.minusDays(1);
-                List<UserRepo.UserRow> admins = UserRepo.listActiveAdminsDetailed();
-                for (UserRepo.UserRow a : admins) {
-                    String adminId = a.id;
-                    if (!SentRepo.notSentYet("morning_admin", adminId, today)) continue;
-
-                    List<String> groupUsers = getAllUsersOfAdmin(adminId);
-                    List<String> noReport = new ArrayList<>();
-                    for (String uid : groupUsers) {
-                        if (!ReportRepo.existsFor(uid, yesterday)) {
-                            noReport.add(uid);
-                        }
-                    }
-                    if (!noReport.isEmpty()) {
-                        StringBuilder sb = new StringBuilder();
-                        sb.append("🔔 Утреннее напоминание для тренера\n")
-                                .append("Клиенты без отчёта за ").append(TimeUtil.DATE_FMT.format(yesterday)).append(":\n");
-                        int i = 1;
-                        for (String uid : noReport) {
-                            sb.append(i++).append(". tg_id: ").append(uid).append("\n");
-                        }
-                        SendMessage sm = new SendMessage(adminId, sb.toString().trim());
-                        sm.setReplyMarkup(com.example.coachbot.Keyboards.backToAdmin());
-                        bot.safeExecute(sm);
-                    }
-                    // помечаем, даже если список пуст — чтобы не слать повторно в эту минуту
-                    SentRepo.markSent("morning_admin", adminId, today);
+                for (UserRepo.UserRow a : UserRepo.listActiveAdminsDetailed()) {
+                    out.add("morning_admin:" + a.id, () -> morningAdmin(a.id, today));
                 }
             }
 
             // Вечерняя рассылка — для каждой группы по времени её админа
-            List<UserRepo.UserRow> admins = UserRepo.listActiveAdminsDetailed();
-            for (UserRepo.UserRow a : admins) {
-                String adminId = a.id;
-                String time = SettingsRepo.get("evening_time:" + adminId, null);
-                if (time == null || time.isBlank()) {
-                    time = SettingsRepo.get("evening_time", "19:00"); // общий фолбэк
-                }
-                if (!TimeUtil.isNow(time)) continue;
-
-                // 2) список пользователей этой группы
-                List<String> groupUsers = getAllUsersOfAdmin(adminId);
-                for (String uid : groupUsers) {
-                    if (!SentRepo.notSentYet("evening:"+adminId, uid, today)) continue;
-                    if (ReportRepo.existsFor(uid, today)) continue; // отправляем только тем, у кого нет отчёта
-
-                    String msg = Emojis.SUNSET + " Добрый вечер!\n"
-                            + "Вы ещё не загрузили отчёт за сегодня.\n"
-                            + "Пожалуйста, нажмите кнопку ниже и заполните дневной отчёт. " + Emojis.MUSCLE;
-
-                    SendPhoto sp = new SendPhoto();
-                    sp.setChatId(uid);
-                    sp.setPhoto(new org.telegram.telegrambots.meta.api.objects.InputFile(new File("2.jpg")));
-                    sp.setCaption(trimCaption(msg));
-                    sp.setReplyMarkup(com.example.coachbot.Keyboards.reportButton());
-
-                    bot.safeExecute(sp);
-                    SentRepo.markSent("evening:"+adminId, uid, today);
+            EveningPlan plan = evening;
+            LocalTime now = TimeUtil.nowTime();
+            int nowMinute = now.getHour() * 60 + now.getMinute();
+            if (plan == null || !plan.anyAt()[nowMinute]) return; // в эту минуту ни у кого нет рассылки
+            for (UserRepo.UserRow a : UserRepo.listActiveAdminsDetailed()) {
+                long adminId = a.id;
+                if (plan.minuteFor(adminId) != nowMinute) continue;
+
+                // список пользователей этой группы
+                for (long uid : GroupRepo.usersOfAdmin(adminId)) { // из индекса в памяти
+                    out.add("evening:" + adminId + ":" + uid, () -> eveningReminder(adminId, uid, today));
                 }
             }
 
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            out.join(); // следующий тик видит отметки этого
         }
     }
 
-    private List<String> getAllUsersOfAdmin(String adminId) throws Exception {
-        int total = GroupRepo.countUsersOfAdmin(adminId);
-        List<String> out = new ArrayList<>(total);
-        int size = 200;
-        for (int offset = 0; offset < total; offset += size) {
-            out.addAll(GroupRepo.usersOfAdmin(adminId, size, offset));
+    private static void morning(long uid, LocalDate today) throws Exception {
+        if (!SentRepo.notSentYet("morning", uid, today)) return;
+
+        String food = PlanRepo.getNutritionText(uid, today);
+        String wkt  = PlanRepo.getWorkoutText(uid, today);
+        String norm = NormRepo.getNormsText(uid, today);
+
+        String msg = com.example.coachbot.Texts.morningScenarioTitle() + "\n\n"
+                + "🍽 План питания:\n" + food + "\n\n"
+                + "🏋️ Тренировка:\n" + wkt + "\n\n"
+                + "📊 Нормы активности:\n" + norm + "\n\n"
+                + "не забудьте заполнить дневной отчёт 📝";
+
+        // сообщение и отметка фиксируются вместе; отправит OutboxRelay
+        OutboxRepo.enqueue("morning:" + uid + ":" + today, uid, "4.png", trimCaption(msg), null, null);
+        SentRepo.markSent("morning", uid, today);
+    }
+
+    private static void morningAdmin(long adminId, LocalDate today) throws Exception {
+        if (!SentRepo.notSentYet("morning_admin", adminId, today)) return;
+
+        LocalDate yesterday = today.minusDays(1);
+        List<Long> noReport = new ArrayList<>();
+        for (long uid : GroupRepo.usersOfAdmin(adminId)) {
+            if (!ReportRepo.existsFor(uid, yesterday)) {
+                noReport.add(uid);
+            }
+        }
+        if (!noReport.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("🔔 Утреннее напоминание для тренера\n")
+                    .append("Клиенты без отчёта за ").append(TimeUtil.DATE_FMT.format(yesterday)).append(":\n");
+            int i = 1;
+            for (long uid : noReport) {
+                sb.append(i++).append(". tg_id: ").append(uid).append("\n");
+            }
+            OutboxRepo.enqueue("morning_admin:" + adminId + ":" + today, adminId, null,
+                    sb.toString().trim(), null, com.example.coachbot.Keyboards.backToAdmin());
         }
-        return out;
+        // помечаем, даже если список пуст — чтобы не слать повторно в эту минуту
+        SentRepo.markSent("morning_admin", adminId, today);
+    }
+
+    private static void eveningReminder(long adminId, long uid, LocalDate today) throws Exception {
+        if (!SentRepo.notSentYet("evening:" + adminId, uid, today)) return;
+        if (ReportRepo.existsFor(uid, today)) return; // отправляем только тем, у кого нет отчёта
+
+        String msg = Emojis.SUNSET + " Добрый вечер!\n"
+                + "Вы ещё не загрузили отчёт за сегодня.\n"
+                + "Пожалуйста, нажмите кнопку ниже и заполните дневной отчёт. " + Emojis.MUSCLE;
+
+        OutboxRepo.enqueue("evening:" + adminId + ":" + uid + ":" + today, uid, "2.jpg",
+                trimCaption(msg), null, com.example.coachbot.Keyboards.reportButton());
+        SentRepo.markSent("evening:" + adminId, uid, today);
     }
-}
\ No newline at end of file
+}
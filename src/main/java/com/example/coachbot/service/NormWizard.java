@@ -17,18 +17,18 @@ public class NormWizard {
         return sm;
     }
 
-    public static SendMessage start(String adminId, long chatId, String userId, LocalDate date) throws Exception {
+    public static SendMessage start(long adminId, long chatId, long userId, LocalDate date) throws Exception {
         String payload = userId + "|" + date.toString();
         StateRepo.set(adminId, "SET_NORM", 1, payload);
         return md(chatId, "*Укажите нормы потребления воды в день в литрах:* (например: 2.4) на" + TimeUtil.DATE_FMT.format(date) + ":");
     }
 
-    public static SendMessage onMessage(String adminId, long chatId, String text) throws Exception {
+    public static SendMessage onMessage(long adminId, long chatId, String text) throws Exception {
         var st = StateRepo.get(adminId);
         if (st == null || !"SET_NORM".equals(st.type())) return null;
 
         String[] p = st.payload().split("\\|");
-        String userId = p[0];
+        long userId = Long.parseLong(p[0]);
         LocalDate date = LocalDate.parse(p[1]);
 
         switch (st.step()) {
@@ -0,0 +1,121 @@
+package com.example.coachbot.service;
+
+import com.example.coachbot.CoachBot;
+import com.example.coachbot.repo.OutboxRepo;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.api.objects.Message;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отправитель outbox: забирает пачки сообщений и передаёт их в исходящую очередь бота
+ * (лимиты и повторы — там же). Результат отправки отмечается в outbox.
+ *
+ * В полёте не больше OUTBOX_INFLIGHT сообщений — остальное ждёт в таблице, а не в памяти.
+ * Просыпается сразу после фиксации новых сообщений, иначе — раз в OUTBOX_POLL_MS.
+ */
+public class OutboxRelay {
+
+    private static final int BATCH = intEnv("OUTBOX_BATCH", 50);
+    private static final long LEASE_SEC = intEnv("OUTBOX_LEASE_SEC", 600);
+    private static final int MAX_CLAIMS = intEnv("OUTBOX_MAX_CLAIMS", 5);
+    private static final long POLL_MS = intEnv("OUTBOX_POLL_MS", 1_000);
+
+    private final CoachBot bot;
+    private final Semaphore slots = new Semaphore(Math.max(1, intEnv("OUTBOX_INFLIGHT", 200)));
+    private final Semaphore wakeup = new Semaphore(0);
+    private final Thread thread;
+
+    public OutboxRelay(CoachBot bot) {
+        this.bot = bot;
+        this.thread = new Thread(this::loop, "outbox-relay");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        OutboxRepo.addListener(this::wake);
+        thread.start();
+    }
+
+    private void wake() {
+        if (wakeup.availablePermits() == 0) wakeup.release();
+    }
+
+    private void loop() {
+        while (true) {
+            try {
+                slots.acquire(); // ждём хотя бы одно свободное место
+                int free = 1 + slots.drainPermits();
+                int want = Math.min(BATCH, free);
+                List<OutboxRepo.Entry> batch;
+                try {
+                    batch = OutboxRepo.claim(want, LEASE_SEC, MAX_CLAIMS);
+                } catch (Exception ex) {
+                    slots.release(free);
+                    throw ex;
+                }
+                slots.release(free - batch.size());
+                for (OutboxRepo.Entry e : batch) relay(e);
+                if (batch.size() < want) {
+                    // очередь пуста — ждём новых сообщений или истечения чужих захватов
+                    wakeup.tryAcquire(POLL_MS, TimeUnit.MILLISECONDS);
+                    wakeup.drainPermits();
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                sleepQuietly(POLL_MS);
+            }
+        }
+    }
+
+    private void relay(OutboxRepo.Entry e) {
+        CompletableFuture<Message> f;
+        try {
+            f = send(e);
+        } catch (Exception ex) {
+            f = CompletableFuture.failedFuture(ex);
+        }
+        f.whenComplete((m, err) -> {
+            slots.release();
+            if (err == null) OutboxRepo.markSent(e.id());
+            else OutboxRepo.markFailed(e.id(), String.valueOf(err.getMessage()));
+        });
+    }
+
+    private CompletableFuture<Message> send(OutboxRepo.Entry e) {
+        String chat = String.valueOf(e.chatId());
+        if (e.photo() != null) {
+            SendPhoto sp = new SendPhoto();
+            sp.setChatId(chat);
+            sp.setPhoto(new InputFile(new File(e.photo())));
+            sp.setCaption(e.text());
+            sp.setParseMode(e.parseMode());
+            sp.setReplyMarkup(e.markup());
+            return bot.safeExecute(sp);
+        }
+        SendMessage sm = new SendMessage(chat, e.text());
+        sm.setParseMode(e.parseMode());
+        sm.setReplyMarkup(e.markup());
+        return bot.safeExecute(sm);
+    }
+
+    private static void sleepQuietly(long ms) {
+        try { Thread.sleep(ms); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    private static int intEnv(String key, int def) {
+        try {
+            String v = System.getenv(key);
+            return (v == null || v.isBlank()) ? def : Integer.parseInt(v.trim());
+        } catch (Exception e) { return def; }
+    }
+}
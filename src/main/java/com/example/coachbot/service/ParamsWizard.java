@@ -29,7 +29,7 @@ public class ParamsWizard {
         return sm;
     }
 
-    public static Object start(String userId, long chatId) throws Exception {
+    public static Object start(long userId, long chatId) throws Exception {
         // 14 числовых слотов без фото
         StateRepo.set(userId, TYPE, 1, "||||||||||||||");
 
@@ -42,7 +42,7 @@ public class ParamsWizard {
         return sp;
     }
 
-    public static SendMessage cancel(String userId, long chatId) throws Exception {
+    public static SendMessage cancel(long userId, long chatId) throws Exception {
         StateRepo.clear(userId);
         SendMessage sm = new SendMessage(String.valueOf(chatId), "Ввод параметров отменён.");
         sm.setReplyMarkup(com.example.coachbot.Keyboards.backToMenu());
@@ -50,7 +50,7 @@ public class ParamsWizard {
     }
 
     /** Пропустить текущий шаг (универсально для всех шагов 1..11). */
-    public static Object skip(String userId, long chatId) throws Exception {
+    public static Object skip(long userId, long chatId) throws Exception {
         var st = StateRepo.get(userId);
         if (st == null || !TYPE.equals(st.type())) {
             return md(chatId, "Сейчас нечего пропускать.");
@@ -84,7 +84,7 @@ public class ParamsWizard {
         }
     }
 
-    public static Object onAny(String userId, long chatId, Message msg) throws Exception {
+    public static Object onAny(long userId, long chatId, Message msg) throws Exception {
         var st = StateRepo.get(userId);
         if (st == null || !TYPE.equals(st.type())) return null;
 
@@ -235,7 +235,7 @@ public class ParamsWizard {
         catch (Exception e) { return null; }
     }
 
-    private static void persistNumbers(String userId, String payload) throws Exception {
+    private static void persistNumbers(long userId, String payload) throws Exception {
         String[] p = slots(payload);
         Double weight       = d(p[0]);
         Double thighL       = d(p[1]);
@@ -17,7 +17,7 @@ public class PlanWizard {
         return sm;
     }
 
-    public static SendMessage start(String adminId, long chatId, String userId, LocalDate date) throws Exception {
+    public static SendMessage start(long adminId, long chatId, long userId, LocalDate date) throws Exception {
         String payload = userId + "|" + date.toString();
         StateRepo.set(adminId, "SET_PLAN", 1, payload);
 
@@ -30,12 +30,12 @@ public class PlanWizard {
         return sm;
     }
 
-    public static SendMessage onMessage(String adminId, long chatId, String text) throws Exception {
+    public static SendMessage onMessage(long adminId, long chatId, String text) throws Exception {
         var st = StateRepo.get(adminId);
         if (st == null || !"SET_PLAN".equals(st.type())) return null;
 
         String[] p = st.payload().split("\\|");
-        String userId = p[0];
+        long userId = Long.parseLong(p[0]);
         LocalDate date = LocalDate.parse(p[1]);
 
         PlanRepo.addWorkoutLine(userId, date, text.trim(), adminId);
@@ -45,12 +45,12 @@ public class PlanWizard {
         return sm;
     }
 
-    public static SendMessage onFinish(String adminId, long chatId) throws Exception {
+    public static SendMessage onFinish(long adminId, long chatId) throws Exception {
         var st = StateRepo.get(adminId);
         if (st == null || !"SET_PLAN".equals(st.type())) return null;
 
         String[] p = st.payload().split("\\|");
-        String userId = p[0];
+        long userId = Long.parseLong(p[0]);
         LocalDate date = LocalDate.parse(p[1]);
 
         StateRepo.clear(adminId);
@@ -24,7 +24,7 @@ public class ReportWizard {
         return sm;
     }
 
-    public static SendMessage start(String userId, long chatId) throws Exception {
+    public static SendMessage start(long userId, long chatId) throws Exception {
         LocalDate today = TimeUtil.today();
         if (ReportRepo.existsFor(userId, today)) {
             SendMessage sm = new SendMessage(String.valueOf(chatId), Texts.reportAlready());
@@ -37,7 +37,7 @@ public class ReportWizard {
                         "1/6. Введите *часы сна* за сутки (например: `7.5`).");
     }
 
-    public static SendMessage onMessage(String userId, long chatId, Message msg) throws Exception {
+    public static SendMessage onMessage(long userId, long chatId, Message msg) throws Exception {
         var st = StateRepo.get(userId);
         if (st==null || !"REPORT".equals(st.type())) return null;
 
@@ -163,7 +163,7 @@ public class ReportWizard {
     }
 
     /** Обработка «⏭ Пропустить» из колбэка. Работает на шагах 5 и 6. */
-    public static SendMessage onSkip(String userId, long chatId) throws Exception {
+    public static SendMessage onSkip(long userId, long chatId) throws Exception {
         var st = StateRepo.get(userId);
         if (st==null || !"REPORT".equals(st.type())) return null;
 
@@ -198,7 +198,7 @@ public class ReportWizard {
         return hint;
     }
 
-    public static SendMessage cancel(String userId, long chatId) throws Exception {
+    public static SendMessage cancel(long userId, long chatId) throws Exception {
         StateRepo.clear(userId);
         SendMessage sm = new SendMessage(String.valueOf(chatId), "Заполнение отчёта отменено.");
         sm.setReplyMarkup(Keyboards.backToMenu());
@@ -0,0 +1,183 @@
+package com.example.coachbot.service;
+
+import com.example.coachbot.Db;
+import com.example.coachbot.TimeUtil;
+import com.example.coachbot.migration.DateColumns;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Чистка служебных таблиц, которые иначе растут бесконечно:
+ *  - sent_notifications — отметки о рассылках (нужны только за последние дни);
+ *  - user_states — брошенные визарды;
+ *  - report_photos — старые фото еды (по возрасту и/или общему лимиту строк);
+ *  - outbox — отправленные и окончательно неотправленные сообщения рассылок.
+ *
+ * Удаление порциями по CHUNK строк, каждая порция — отдельная единица писателя, между порциями пауза,
+ * чтобы не задерживать обычные записи. После чистки свободные страницы возвращаются incremental_vacuum.
+ * Сроки задаются ENV (0 — правило выключено).
+ */
+public class RetentionService {
+
+    private static final int CHUNK = intEnv("RETENTION_CHUNK", 500);
+    private static final long PAUSE_MS = intEnv("RETENTION_PAUSE_MS", 50);
+    private static final int VACUUM_PAGES = 256;
+
+    /** Параметр условия «старше срока» — вычисляется при каждом запуске. */
+    @FunctionalInterface
+    interface Cutoff {
+        void bind(PreparedStatement ps, int index) throws SQLException;
+    }
+
+    /**
+     * Правило для таблицы. key — колонки ключа (строки удаляются по ключу: часть таблиц WITHOUT ROWID).
+     * olderThan — условие с одним параметром; keepNewest — лимит строк, лишние удаляются с конца по newestFirst.
+     */
+    record Policy(String table, String key, String olderThan, Cutoff cutoff, int keepNewest, String newestFirst) {}
+
+    // метрики для /stats
+    private static final Map<String, AtomicLong> DELETED = new ConcurrentHashMap<>();
+    private static final AtomicLong reclaimedPages = new AtomicLong();
+    private static final AtomicLong runs = new AtomicLong();
+    private static volatile long lastRunMs;
+    private static volatile long freePages;
+    private static volatile long pageSize;
+
+    private final List<Policy> policies;
+    private final ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "db-retention");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RetentionService() {
+        this.policies = defaultPolicies();
+    }
+
+    private static List<Policy> defaultPolicies() {
+        List<Policy> out = new ArrayList<>();
+        int sentDays = intEnv("RETENTION_SENT_DAYS", 14);
+        if (sentDays > 0) {
+            out.add(new Policy("sent_notifications", "type,user_id,date", "date < ?",
+                    (ps, i) -> DateColumns.set(ps, i, "sent_notifications", TimeUtil.today().minusDays(sentDays)), 0, null));
+        }
+        int stateDays = intEnv("RETENTION_STATES_DAYS", 7);
+        if (stateDays > 0) {
+            out.add(new Policy("user_states", "user_id", "updated_at < ?",
+                    (ps, i) -> ps.setLong(i, nowSec() - stateDays * 86_400L), 0, null));
+        }
+        int photoDays = intEnv("RETENTION_PHOTOS_DAYS", 365);
+        int photoRows = intEnv("RETENTION_PHOTOS_MAX_ROWS", 0);
+        if (photoDays > 0 || photoRows > 0) {
+            out.add(new Policy("report_photos", "user_id,date,file_id",
+                    photoDays > 0 ? "created_at < ?" : null,
+                    (ps, i) -> ps.setLong(i, nowSec() - photoDays * 86_400L),
+                    photoRows, "created_at DESC"));
+        }
+        int outboxDays = intEnv("RETENTION_OUTBOX_DAYS", 7);
+        if (outboxDays > 0) {
+            out.add(new Policy("outbox", "id", "status >= 2 AND created_at < ?",
+                    (ps, i) -> ps.setLong(i, nowSec() - outboxDays * 86_400L), 0, null));
+        }
+        return out;
+    }
+
+    public void start() {
+        long every = Math.max(1, intEnv("RETENTION_INTERVAL_MIN", 360));
+        ses.scheduleWithFixedDelay(this::runOnce, 5, every, TimeUnit.MINUTES);
+    }
+
+    void runOnce() {
+        long t0 = System.currentTimeMillis();
+        try {
+            for (Policy p : policies) {
+                String byKey = "(" + p.key() + ") IN (SELECT " + p.key() + " FROM " + p.table();
+                if (p.olderThan() != null) {
+                    prune(p, "DELETE FROM " + p.table() + " WHERE " + byKey + " WHERE " + p.olderThan() + " LIMIT ?)", true);
+                }
+                if (p.keepNewest() > 0) {
+                    // LIMIT ? OFFSET keepNewest — всё, что не вошло в N самых новых
+                    prune(p, "DELETE FROM " + p.table() + " WHERE " + byKey +
+                            " ORDER BY " + p.newestFirst() + " LIMIT ? OFFSET " + p.keepNewest() + ")", false);
+                }
+            }
+            vacuum();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        lastRunMs = System.currentTimeMillis() - t0;
+        runs.incrementAndGet();
+    }
+
+    private void prune(Policy p, String sql, boolean withCutoff) throws Exception {
+        AtomicLong counter = DELETED.computeIfAbsent(p.table(), k -> new AtomicLong());
+        while (true) {
+            int n = Db.call(c -> {
+                try (PreparedStatement ps = c.prepareStatement(sql)) {
+                    int i = 1;
+                    if (withCutoff) p.cutoff().bind(ps, i++);
+                    ps.setInt(i, CHUNK);
+                    return ps.executeUpdate();
+                }
+            });
+            counter.addAndGet(n);
+            if (n < CHUNK) return;
+            Thread.sleep(PAUSE_MS); // уступаем писателя обычным апдейтам
+        }
+    }
+
+    /** Вернуть свободные страницы файлу порциями по VACUUM_PAGES (только при auto_vacuum=INCREMENTAL). */
+    private void vacuum() throws Exception {
+        boolean incremental;
+        try (Connection c = Db.connectRead()) {
+            incremental = pragma(c, "auto_vacuum") == 2;
+            pageSize = pragma(c, "page_size");
+            freePages = pragma(c, "freelist_count");
+        }
+        if (!incremental) return;
+        while (freePages > 0) {
+            long before = freePages;
+            long after = Db.call(c -> {
+                // драйвер делает один шаг pragma на execute, а один шаг incremental_vacuum — одна страница
+                try (Statement st = c.createStatement()) {
+                    for (long i = Math.min(before, VACUUM_PAGES); i > 0; i--) st.execute("PRAGMA incremental_vacuum");
+                }
+                return pragma(c, "freelist_count");
+            });
+            freePages = after;
+            if (after >= before) return;
+            reclaimedPages.addAndGet(before - after);
+            Thread.sleep(PAUSE_MS);
+        }
+    }
+
+    private static long pragma(Connection c, String name) throws SQLException {
+        try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /** Строки для /stats (пусто, если чистка ещё не запускалась). */
+    public static String stats() {
+        if (runs.get() == 0) return "";
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("runs=%d lastRun=%dms reclaimedPages=%d (%d KB) freePages=%d",
+                runs.get(), lastRunMs, reclaimedPages.get(), reclaimedPages.get() * pageSize / 1024, freePages));
+        DELETED.forEach((t, n) -> sb.append("\n").append(t).append(": deleted=").append(n.get()));
+        return sb.toString();
+    }
+
+    private static long nowSec() { return System.currentTimeMillis() / 1000L; }
+
+    private static int intEnv(String key, int def) {
+        try {
+            String v = System.getenv(key);
+            return (v == null || v.isBlank()) ? def : Integer.parseInt(v.trim());
+        } catch (Exception e) { return def; }
+    }
+}
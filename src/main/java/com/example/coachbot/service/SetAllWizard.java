@@ -33,7 +33,7 @@ public class SetAllWizard {
     }
 
     /** Старт после выбора даты. Переходим к шагу 2 (калории). */
-    public static SendMessage start(String adminId, long chatId, String userId, LocalDate date) throws Exception {
+    public static SendMessage start(long adminId, long chatId, long userId, LocalDate date) throws Exception {
         String payload = userId + "|" + date;
         StateRepo.set(adminId, "SET_ALL", 2, payload);
         return md(chatId,
@@ -41,12 +41,12 @@ public class SetAllWizard {
                         "🔥 Введите калории на " + TimeUtil.DATE_FMT.format(date) + ":\n \n (Например: 1600)");
     }
 
-    public static SendMessage onMessage(String adminId, long chatId, String text) throws Exception {
+    public static SendMessage onMessage(long adminId, long chatId, String text) throws Exception {
         var st = StateRepo.get(adminId);
         if (st == null || !"SET_ALL".equals(st.type())) return null;
 
         String[] p = st.payload().split("\\|", -1);
-        String userId = p[0];
+        long userId = Long.parseLong(p[0]);
         // Для шага 1 payload содержит только userId; для остальных — userId|date...
         LocalDate date = (p.length >= 2 && p[1] != null && !p[1].isBlank())
                 ? LocalDate.parse(p[1])
@@ -177,12 +177,12 @@ public class SetAllWizard {
     }
 
     /** Завершение шага 6 (план) по колбэку: перенос в шаг 7 и сохранение упражнений. */
-    public static SendMessage finishPlan(String adminId, long chatId) throws Exception {
+    public static SendMessage finishPlan(long adminId, long chatId) throws Exception {
         var st = StateRepo.get(adminId);
         if (st == null || !"SET_ALL".equals(st.type()) || st.step() != 6) return null;
 
         String[] p = st.payload().split("\\|", -1);
-        String userId = p[0];
+        long userId = Long.parseLong(p[0]);
         LocalDate date = LocalDate.parse(p[1]);
         String acc = p.length >= 3 ? p[2] : "";
 
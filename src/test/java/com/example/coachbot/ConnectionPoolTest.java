@@ -0,0 +1,60 @@
+package com.example.coachbot;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Настройки соединений пула: без WAL/query_only соединение не выдаётся. */
+class ConnectionPoolTest {
+
+    private static String pragma(Connection c, String name) throws SQLException {
+        try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    @Test
+    void readerIsWalAndReadOnly() throws Exception {
+        File dir = Files.createTempDirectory("pool").toFile();
+        String url = "jdbc:sqlite:" + new File(dir, "t.db").getAbsolutePath();
+        ConnectionPool writer = new ConnectionPool("w", url, 1, false, 1_000, 10_000, false, 0);
+        ConnectionPool readers = new ConnectionPool("r", url, 1, true, 1_000, 10_000, false, 0);
+        try {
+            try (Connection c = writer.acquire(); Statement st = c.createStatement()) {
+                assertEquals("wal", pragma(c, "journal_mode"));
+                st.execute("CREATE TABLE t(x INTEGER)");
+            }
+            try (Connection c = readers.acquire(); Statement st = c.createStatement()) {
+                assertEquals("wal", pragma(c, "journal_mode"));
+                assertEquals("5000", pragma(c, "busy_timeout"));
+                assertEquals("1", pragma(c, "query_only"));
+                assertThrows(SQLException.class, () -> st.execute("INSERT INTO t VALUES(1)"));
+            }
+        } finally {
+            writer.closeAll();
+            readers.closeAll();
+        }
+    }
+
+    @Test
+    void connectionWithoutWalIsRefused() {
+        // in-memory БД не умеет WAL: journal_mode остаётся "memory"
+        ConnectionPool pool = new ConnectionPool("mem", "jdbc:sqlite::memory:", 1, false, 200, 10_000, false, 0);
+        try {
+            SQLException first = assertThrows(SQLException.class, pool::acquire);
+            assertTrue(first.getMessage().contains("journal_mode"), first.getMessage());
+            // слот освобождён: снова та же ошибка настройки, а не «пул исчерпан»
+            SQLException second = assertThrows(SQLException.class, pool::acquire);
+            assertTrue(second.getMessage().contains("journal_mode"), second.getMessage());
+        } finally {
+            pool.closeAll();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.coachbot;
+
+import com.example.coachbot.repo.SettingsRepo;
+import com.example.coachbot.repo.UserRepo;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Единица работы Db: ответы только после фиксации, чтения видят свои записи, общие кэши — только зафиксированное. */
+class DbSessionTest {
+
+    @BeforeAll
+    static void init() throws Exception {
+        Db.init();
+    }
+
+    private static String key(String name) {
+        return "test:" + name + ":" + System.nanoTime();
+    }
+
+    private static void insert(Connection c, String key, String value) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("INSERT INTO settings(key,value) VALUES(?,?)")) {
+            ps.setString(1, key);
+            ps.setString(2, value);
+            ps.executeUpdate();
+        }
+    }
+
+    private static String read(Connection c, String key) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT value FROM settings WHERE key=?")) {
+            ps.setString(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static String committed(String key) throws SQLException {
+        try (Connection c = Db.connectCommitted()) {
+            return read(c, key);
+        }
+    }
+
+    private static int countPrefix(Connection c, String prefix) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT count(*) FROM settings WHERE key LIKE ?")) {
+            ps.setString(1, prefix + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    @Test
+    void failedCommitSendsNothing() throws Exception {
+        String prefix = key("race");
+        String own = prefix + ":own";
+        AtomicInteger sent = new AtomicInteger();
+
+        try (Db.Session tx = Db.session()) {
+            Db.write(c -> insert(c, own, "saved"));
+            int seen = Db.call(c -> countPrefix(c, prefix));
+            assertEquals(1, seen);
+            Db.afterCommit(sent::incrementAndGet); // так CoachBot ставит ответы пользователю
+
+            // другой поток успевает изменить данные, от которых зависел Db.call
+            CompletableFuture.runAsync(() -> {
+                try {
+                    Db.call(c -> { insert(c, prefix + ":other", "x"); return null; });
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }).join();
+
+            assertThrows(SQLException.class, tx::commit);
+        }
+
+        assertEquals(0, sent.get(), "reply must not be sent when the commit failed");
+        assertNull(committed(own), "the unit of work must be rolled back as a whole");
+    }
+
+    @Test
+    void rollbackSendsNothing() throws Exception {
+        String k = key("rollback");
+        AtomicInteger sent = new AtomicInteger();
+        try (Db.Session tx = Db.session()) {
+            Db.write(c -> insert(c, k, "v"));
+            Db.afterCommit(sent::incrementAndGet);
+            // без commit()
+        }
+        assertEquals(0, sent.get());
+        assertNull(committed(k));
+    }
+
+    @Test
+    void commitSendsAfterDataIsDurable() throws Exception {
+        String k = key("commit");
+        String[] seenBySend = new String[1];
+        try (Db.Session tx = Db.session()) {
+            Db.write(c -> insert(c, k, "v"));
+            Db.afterCommit(() -> {
+                try {
+                    seenBySend[0] = committed(k);
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertNull(seenBySend[0]);
+            tx.commit();
+        }
+        assertEquals("v", seenBySend[0]);
+    }
+
+    @Test
+    void asyncCommitsFailIndependently() throws Exception {
+        String prefix = key("async");
+        try (Db.Session tx = Db.session()) {
+            Db.write(c -> insert(c, prefix + ":taken", "v"));
+            tx.commit();
+        }
+        AtomicInteger sent = new AtomicInteger();
+        List<CompletableFuture<Void>> fs = new ArrayList<>();
+        for (String name : List.of("a", "taken", "b")) {
+            try (Db.Session tx = Db.session()) {
+                Db.write(c -> insert(c, prefix + ":" + name, "new"));
+                Db.afterCommit(sent::incrementAndGet);
+                fs.add(tx.commitAsync());
+            }
+        }
+        fs.get(0).join();
+        assertThrows(CompletionException.class, fs.get(1)::join); // повтор ключа
+        fs.get(2).join();
+
+        assertEquals(2, sent.get());
+        assertEquals("new", committed(prefix + ":a"));
+        assertEquals("new", committed(prefix + ":b"));
+        assertEquals("v", committed(prefix + ":taken"));
+    }
+
+    @Test
+    void readsSeeOwnWrites() throws Exception {
+        String k = key("ryw");
+        try (Db.Session tx = Db.session()) {
+            Db.write(c -> insert(c, k, "mine"));
+            try (Connection c = Db.connectRead()) {
+                assertEquals("mine", read(c, k));
+                // вложенное чтение и запись посреди чтения
+                Db.write(w -> insert(w, k + ":2", "second"));
+                try (Connection c2 = Db.connectRead()) {
+                    assertEquals("second", read(c2, k + ":2"));
+                }
+            }
+            assertNull(committed(k), "other connections must not see uncommitted data");
+        }
+        assertNull(committed(k));
+    }
+
+    @Test
+    void sharedCacheDoesNotSeeUncommitted() throws Exception {
+        String k = key("cache");
+        SettingsRepo.snapshot(); // снимок загружен
+        try (Db.Session tx = Db.session()) {
+            SettingsRepo.set(k, "own");
+            assertEquals("own", SettingsRepo.get(k, null), "own write must be visible inside the unit");
+            String other = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return SettingsRepo.get(k, null);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }).join();
+            assertNull(other, "other threads must not see uncommitted settings");
+        }
+        assertNull(SettingsRepo.get(k, null));
+    }
+
+    private static Roles roleElsewhere(long id) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return UserRepo.role(id);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).join();
+    }
+
+    @Test
+    void roleCacheChangesOnlyOnCommit() throws Exception {
+        long id = 2_000_000_000L + (System.nanoTime() & 0xFFFFFFFL);
+        assertEquals(Roles.USER, UserRepo.role(id)); // роль в кэше
+
+        try (Db.Session tx = Db.session()) {
+            UserRepo.ensureAdmin(id);
+            assertEquals(Roles.ADMIN, UserRepo.role(id), "own write must be visible inside the unit");
+            assertEquals(Roles.USER, roleElsewhere(id), "other threads keep the committed role");
+            tx.commit();
+        }
+        assertEquals(Roles.ADMIN, roleElsewhere(id));
+        assertEquals(Roles.ADMIN, UserRepo.role(id));
+
+        try (Db.Session tx = Db.session()) {
+            UserRepo.setRole(id, Roles.USER);
+            assertEquals(Roles.USER, UserRepo.role(id));
+            // без commit()
+        }
+        assertEquals(Roles.ADMIN, roleElsewhere(id), "rolled back change must not reach the cache");
+    }
+}
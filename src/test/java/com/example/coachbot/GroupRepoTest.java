@@ -0,0 +1,62 @@
+package com.example.coachbot;
+
+import com.example.coachbot.repo.GroupRepo;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Индекс групп в памяти: совпадает с зафиксированным состоянием таблицы. */
+class GroupRepoTest {
+
+    @BeforeAll
+    static void init() throws Exception {
+        Db.init();
+    }
+
+    private static long id() {
+        return 1_000_000_000L + (System.nanoTime() & 0xFFFFFFFL);
+    }
+
+    private static long[] usersOfAdminElsewhere(long adminId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return GroupRepo.usersOfAdmin(adminId);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).join();
+    }
+
+    @Test
+    void indexFollowsCommittedChanges() throws Exception {
+        long admin = id(), u1 = admin + 1, u2 = admin + 2;
+        assertEquals(0, GroupRepo.countUsersOfAdmin(admin)); // индекс загружен
+
+        try (Db.Session tx = Db.session()) {
+            assertTrue(GroupRepo.addToAdmin(admin, u1));
+            assertTrue(GroupRepo.addToAdmin(admin, u2));
+            assertArrayEquals(new long[]{u1, u2}, GroupRepo.usersOfAdmin(admin), "own changes are visible");
+            assertArrayEquals(new long[0], usersOfAdminElsewhere(admin), "uncommitted changes are not");
+            tx.commit();
+        }
+        assertArrayEquals(new long[]{u1, u2}, GroupRepo.usersOfAdmin(admin));
+        assertEquals(admin, GroupRepo.adminOf(u1));
+        assertFalse(GroupRepo.addToAdmin(admin + 100, u1), "one coach per user");
+
+        try (Db.Session tx = Db.session()) {
+            assertTrue(GroupRepo.removeFromAdmin(admin, u1));
+            tx.commit();
+        }
+        assertNull(GroupRepo.adminOf(u1));
+        assertEquals(1, GroupRepo.countUsersOfAdmin(admin));
+
+        try (Db.Session tx = Db.session()) {
+            assertTrue(GroupRepo.removeFromAdmin(admin, u2));
+            // без commit()
+        }
+        assertArrayEquals(new long[]{u2}, GroupRepo.usersOfAdmin(admin), "rolled back change stays out of the index");
+    }
+}